@@ -27,6 +27,29 @@
  *    -s causes user programs to be executed in single-step mode						 *
  *    -x runs a user program															 *
  *    -c tests the console																 *
+ *    -blockcache dispatches hot user code as cached decoded blocks						 *
+ *    -prof <csv file> profiles user programs											 *
+ *    -callprof <file> writes user call stacks in folded form							 *
+ *    -trace <file> records the page reference string of user programs					 *
+ *    -smp <n> runs user programs on n simulated CPUs									 *
+ *    -tlb <size> translates through a TLB of that many entries							 *
+ *    -tlbpolicy <random|fifo|lru> sets the TLB refill policy							 *
+ *    -sparsept uses sparse page tables and loads programs on demand					 *
+ *    -superpage <pages> maps aligned runs of pages with one TLB entry					 *
+ *    -vm <algorithm> selects page replacement (nfu, fifo, clock, aging, wsclock, car)	 *
+ *    -sampleperiod <n> samples page use bits every n timer interrupts					 *
+ *    -agebits <bits> sets the counter width of aging page replacement					 *
+ *    -wstau <ticks> sets the working set window of WSClock								 *
+ *    -pff allocates frames locally, with quotas set by page fault frequency			 *
+ *    -pffrange <low>,<high> sets the faults per window that shrink or grow a quota		 *
+ *    -pffwindow <ticks> sets the window fault rates are measured over					 *
+ *    -pagedaemon runs a page-out daemon keeping free frames in reserve					 *
+ *    -watermarks <low>,<high> sets the free frames the page daemon keeps				 *
+ *    -faultaround <n> brings in up to n pages on each page fault						 *
+ *    -physpages <n> gives main memory n page frames									 *
+ *    -pagesize <bytes> sets the page size (a power of two)								 *
+ *    -disk <tracks> <sectors> sets the disk geometry									 *
+ *    -config <file> reads physpages, pagesize, tracks, sectorspertrack					 *
  *																						 *
  *  FILESYS																				 *
  *    -f causes the physical disk to be formatted										 *
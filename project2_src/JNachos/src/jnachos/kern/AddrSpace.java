@@ -10,6 +10,10 @@ package jnachos.kern;
 import jnachos.machine.*;
 import jnachos.userbin.NoffHeader;
 import jnachos.filesystem.*;
+import jnachos.kern.mem.FrameTable;
+import jnachos.kern.mem.PageFaultFrequency;
+import jnachos.kern.mem.SuperPages;
+import jnachos.kern.mem.TLBManager;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Map;
@@ -22,7 +26,7 @@ public class AddrSpace {
 	 * The page table for the process.
 	 */
 	// changed for project 2, from private to public
-	public TranslationEntry[] mPageTable;
+	public PageTable mPageTable;
 
 	/**
 	 * The number of pages in this address space.
@@ -35,9 +39,90 @@ public class AddrSpace {
 	public static final int UserStackSize = 1024;
 	public static final int LibReservedPages = 5;
 
-	public int[] diskmap;
+	/**
+	 * Whether new address spaces get sparse page tables and are loaded on
+	 * demand (-sparsept), instead of getting a linear page table and having
+	 * every page written to swap up front.
+	 */
+	public static boolean mSparse;
+
+	/** The executable, for loading pages that have never been swapped. */
+	private OpenFile mExecutable;
+
+	/** Where the code and initialized data start in the executable. */
+	private int mImageOffset;
+
+	/** The size of the code and initialized data. */
+	private int mImageSize;
+
+	/**
+	 * The pages at the start of the address space that hold only code. They
+	 * are read-only, so they are never dirty: they are always read from the
+	 * executable, and never written to swap.
+	 */
+	private int mCodePages;
+
+	/**
+	 * The name of the executable running in this address space.
+	 */
+	private String mProgramName;
+
+	/** The id of the next address space to be created. */
+	private static int mNextId;
+
+	/**
+	 * The id of this address space, which is never reused, so that it also
+	 * identifies the process running in it after the process is gone.
+	 */
+	private final int mId = mNextId++;
+
+	/**
+	 * The virtual time of the process running in this address space: the user
+	 * ticks it had run for when it was last switched out.
+	 */
+	private int mVirtualTime;
+
+	/** The CPU the process is running on, or null if it is switched out. */
+	private Cpu mCpu;
+
+	/** The user ticks of mCpu when the process was switched in. */
+	private int mRunStart;
+
+	/**
+	 * The working set of the process, sampled while WSClock replaces pages:
+	 * the number of samples, their sum and the largest of them.
+	 */
+	public int mWorkingSetSamples;
+	public long mWorkingSetTotal;
+	public int mWorkingSetPeak;
+
+	/** The number of page frames holding pages of this address space. */
+	public int mResidentPages;
 
-	public static BitMap mFreeMap = new BitMap(Machine.NumPhysPages);
+	/** The page faults the process has taken. */
+	public int mPageFaults;
+
+	/**
+	 * With local frame allocation (-pff, see PageFaultFrequency): the frames
+	 * the process may hold (0 until its first fault), the largest quota it
+	 * has had, the faults in its current window and the virtual time the
+	 * window started, and the hand sweeping its frames.
+	 */
+	public int mFrameQuota;
+	public int mPeakQuota;
+	public int mWindowFaults;
+	public int mWindowStart;
+	public int mLocalHand;
+
+	/**
+	 * With fault-around (see FaultAround): the last page the process faulted
+	 * on, or -1, and the pages its faults bring in (0 until its first fault).
+	 */
+	public int mLastFault = -1;
+	public int mFaultAround;
+
+	/** The free page frames. Created at boot, once memory has been sized. */
+	public static BitMap mFreeMap;
 
 	/**
 	 * Do little endian to big endian conversion on the bytes in the object file
@@ -111,49 +196,188 @@ public class AddrSpace {
 
 		Debug.print('a', "Initializing address space, num pages " + mNumPages + ", size " + size);
 
+		mExecutable = executable;
+		mImageOffset = noffH.code.inFileAddr;
+		mImageSize = noffH.code.size + noffH.initData.size;
+
+		// The code starts at virtual address 0 (see readImage()); a page it
+		// shares with the initialized data is not read-only
+		mCodePages = noffH.code.size / Machine.PageSize;
+
 		// first, set up the translation
 		// project 2, translate the process page to the swap space.
-		mPageTable = new TranslationEntry[mNumPages];
-		// project 2
-		diskmap = new int[mNumPages]; // create the disk map for project 2
-		for (int i = 0; i < mNumPages; i++) {
-			mPageTable[i] = new TranslationEntry();
-			mPageTable[i].virtualPage = i;
-			mPageTable[i].physicalPage = -1;
-			mPageTable[i].valid = false; // Not currently in Memory.
-			mPageTable[i].use = false;
-			mPageTable[i].dirty = false;
-
-			// if the code segment was entirely on
-			mPageTable[i].readOnly = false;
+		// Every page starts out not in memory; the code pages are read-only.
+		mPageTable = new PageTable(mNumPages, mSparse);
+		for (int i = 0; i < mCodePages; i++) {
+			mPageTable.setReadOnly(i, true);
+		}
+		if (mSparse) {
+			// Pages are read from the executable (or zero filled) when they
+			// are first touched, and only get a swap slot once they are
+			// evicted dirty
+			return;
+		}
 
+		// The code pages are left in the executable
+		for (int i = mCodePages; i < mNumPages; i++) {
 			// Copy the code segment into memory
 			byte[] bytes = new byte[Machine.PageSize];
-			if ((i * Machine.PageSize) < (noffH.code.size + noffH.initData.size)) {
-				Debug.print('a',
-						"Initializing code segment, at " + noffH.code.virtualAddr + ", size " + noffH.code.size);
-
-				// read the code into the buffer
-				executable.readAt(bytes, Machine.PageSize, noffH.code.inFileAddr + i * Machine.PageSize);
-			}
+			readImage(i, bytes);
 
 			// write bytes to the swap space, project 2//
-			// 1. create a disk map for this process
-			// 2. copy current location in the swap space into the first entry
-			// of the disk map
-			diskmap[i] = JNachos.swapspace_counter;
-			mPageTable[i].trans_diskmap = JNachos.swapspace_counter; // copy the
-																		// swapspace
-																		// address
-																		// to
-																		// the
-																		// pagetable
-																		// entry
-			// 3. map the indexes stored in the disk map to the swap space, in
-			// order to copy bytes into the swap space
-			JNachos.mSwapSpace.writeAt(bytes, Machine.PageSize, diskmap[i] * Machine.PageSize);
+			// 1. give the page the next slot in the swap space
+			// 2. copy the page into that slot
+			mPageTable.setSwapSlot(i, JNachos.swapspace_counter);
+			mPageTable.setSwapped(i, true);
+			JNachos.mSwapSpace.writeAt(bytes, Machine.PageSize, mPageTable.getSwapSlot(i) * Machine.PageSize);
+			JNachos.swapspace_counter = JNachos.swapspace_counter + 1;
+		}
+	}
+
+	/**
+	 * Reads a page of the program image from the executable. Pages past the
+	 * code and initialized data are left as zeros.
+	 *
+	 * @param pVpn
+	 *            the virtual page number.
+	 * @param pInto
+	 *            the buffer to read into, which must be zeroed.
+	 */
+	private void readImage(int pVpn, byte[] pInto) {
+		if ((pVpn * Machine.PageSize) < mImageSize) {
+			Debug.print('a', "Initializing code segment, page " + pVpn + ", size " + mImageSize);
+
+			// read the code into the buffer
+			mExecutable.readAt(pInto, Machine.PageSize, mImageOffset + pVpn * Machine.PageSize);
+		}
+	}
+
+	/**
+	 * Fills a page frame with a page that is not in memory: from its swap slot
+	 * if it has one, and from the executable otherwise (as code pages always
+	 * are).
+	 *
+	 * @param pVpn
+	 *            the virtual page number.
+	 * @param pFrame
+	 *            the page frame to fill.
+	 */
+	public void pageIn(int pVpn, int pFrame) {
+		byte[] bytes = new byte[Machine.PageSize];
+		if (mPageTable.isSwapped(pVpn)) {
+			JNachos.mSwapSpace.readAt(bytes, Machine.PageSize, mPageTable.getSwapSlot(pVpn) * Machine.PageSize);
+			Statistics.numSwapReads++;
+		} else {
+			readImage(pVpn, bytes);
+		}
+		System.arraycopy(bytes, 0, Machine.mMainMemory, pFrame * Machine.PageSize, Machine.PageSize);
+	}
+
+	/**
+	 * Saves a page that is being evicted from a page frame, if it is dirty, to
+	 * its swap slot. A page that has never been swapped is given a slot first.
+	 *
+	 * @param pVpn
+	 *            the virtual page number.
+	 * @param pFrame
+	 *            the page frame holding the page.
+	 */
+	public void pageOut(int pVpn, int pFrame) {
+		if (!mPageTable.isDirty(pVpn)) {
+			return;
+		}
+		assert (!mPageTable.isReadOnly(pVpn));
+
+		if (!mPageTable.isSwapped(pVpn)) {
+			mPageTable.setSwapSlot(pVpn, JNachos.swapspace_counter);
+			mPageTable.setSwapped(pVpn, true);
 			JNachos.swapspace_counter = JNachos.swapspace_counter + 1;
 		}
+
+		// bytes to store the page to be evicted
+		byte[] bytes = new byte[Machine.PageSize];
+
+		// copy the page info from RAM to the swap space
+		System.arraycopy(Machine.mMainMemory, pFrame * Machine.PageSize, bytes, 0, Machine.PageSize);
+		JNachos.mSwapSpace.writeAt(bytes, Machine.PageSize, mPageTable.getSwapSlot(pVpn) * Machine.PageSize);
+		Statistics.numPageOuts++;
+	}
+
+	/**
+	 * Writes a dirty page to swap and marks it clean, leaving it in memory,
+	 * so that it can later be evicted without being written.
+	 *
+	 * The MMU only sets the dirty bit through the page table, so every cached
+	 * translation of the page (which may let writes through, or hold a dirty
+	 * bit of its own) is dropped first.
+	 *
+	 * @param pVpn
+	 *            the virtual page.
+	 * @param pFrame
+	 *            the frame holding it.
+	 */
+	public void clean(int pVpn, int pFrame) {
+		KernelLock.stopOtherCpus();
+		if (Machine.mUSE_TLB) {
+			TLBManager.invalidateFrame(pFrame);
+		}
+		MMU.invalidateFrame(pFrame);
+
+		pageOut(pVpn, pFrame);
+		mPageTable.setDirty(pVpn, false);
+		KernelLock.resumeOtherCpus();
+	}
+
+	/**
+	 * Evicts a page from its frame, writing it to swap if it is dirty. The
+	 * frame is left unmapped for the caller to reuse or free.
+	 *
+	 * @param pVpn
+	 *            the virtual page.
+	 * @param pFrame
+	 *            the page frame holding it.
+	 */
+	public void evict(int pVpn, int pFrame) {
+		// The process may be running on another CPU; keep it off the page
+		// until it is gone
+		KernelLock.stopOtherCpus();
+		if (Machine.SuperPageSize > 1) {
+			SuperPages.demote(this, pVpn);
+		}
+
+		// Nor may any TLB keep mapping it (this also brings the dirty bit up
+		// to date)
+		if (Machine.mUSE_TLB) {
+			TLBManager.invalidateFrame(pFrame);
+		}
+		MMU.invalidateFrame(pFrame);
+
+		// Write the page to swap if it is dirty
+		pageOut(pVpn, pFrame);
+
+		// The frame no longer holds our code
+		InstructionCache.invalidateFrame(pFrame);
+
+		// Update the page table entry
+		FrameTable.unmap(pFrame);
+		mPageTable.setFrame(pVpn, -1);
+		mPageTable.setValid(pVpn, false);
+		mPageTable.setUsed(pVpn, false);
+		mPageTable.setDirty(pVpn, false);
+
+		KernelLock.resumeOtherCpus();
+	}
+
+	/**
+	 * Creates an empty address space, with no program and no page in memory,
+	 * for replaying a reference trace (see TraceReplay).
+	 *
+	 * @param pNumPages
+	 *            the number of virtual pages.
+	 */
+	public AddrSpace(int pNumPages) {
+		mNumPages = pNumPages;
+		mPageTable = new PageTable(mNumPages, mSparse);
 	}
 
 	/**
@@ -165,35 +389,63 @@ public class AddrSpace {
 		// Calculate the number of pages
 		mNumPages = pToCopy.mNumPages;
 
+		// The copy runs the same program, and reads its code from the same
+		// executable
+		mProgramName = pToCopy.mProgramName;
+		mExecutable = pToCopy.mExecutable;
+		mImageOffset = pToCopy.mImageOffset;
+		mImageSize = pToCopy.mImageSize;
+		mCodePages = pToCopy.mCodePages;
+
 		// check we're not trying to run anything too big --
 		// at least until we have virtual memory
 		assert (mNumPages <= Machine.NumPhysPages);
 
 		// first, set up the translation
-		mPageTable = new TranslationEntry[mNumPages];
+		mPageTable = new PageTable(mNumPages, mSparse);
 		for (int i = 0; i < mNumPages; i++) {
-			mPageTable[i] = new TranslationEntry();
-			mPageTable[i].virtualPage = i;
-			mPageTable[i].physicalPage = mFreeMap.find();
-			mPageTable[i].valid = true;
-			mPageTable[i].use = false;
-			mPageTable[i].dirty = false;
-
-			// if the code segment was entirely on
-			mPageTable[i].readOnly = false;
-			// a separate page, we could set its
-			// pages to be read-only
+			int frame = mFreeMap.find();
+			mPageTable.setFrame(i, frame);
+			mPageTable.setValid(i, true);
+
+			// The copy exists nowhere else, so it must be written out if it
+			// is evicted; the code can be read from the executable again
+			if (i < mCodePages) {
+				mPageTable.setReadOnly(i, true);
+			} else {
+				mPageTable.setDirty(i, true);
+			}
+			FrameTable.map(frame, this, i);
 
 			// Zero out all of main memory
-			Arrays.fill(Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize,
-					(mPageTable[i].physicalPage + 1) * Machine.PageSize, (byte) 0);
+			Arrays.fill(Machine.mMainMemory, frame * Machine.PageSize, (frame + 1) * Machine.PageSize, (byte) 0);
 
 			// Copy the buffer into the main memory
-			System.arraycopy(Machine.mMainMemory, pToCopy.mPageTable[i].physicalPage * Machine.PageSize,
-					Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize, Machine.PageSize);
+			System.arraycopy(Machine.mMainMemory, pToCopy.mPageTable.getFrame(i) * Machine.PageSize,
+					Machine.mMainMemory, frame * Machine.PageSize, Machine.PageSize);
+			InstructionCache.invalidateFrame(frame);
 		}
 	}
 
+	/**
+	 * Gets the name of the executable running in this address space.
+	 * 
+	 * @return the name of the executable, or null if it is not known.
+	 */
+	public String getProgramName() {
+		return mProgramName;
+	}
+
+	/**
+	 * Sets the name of the executable running in this address space.
+	 * 
+	 * @param pProgramName
+	 *            the name of the executable.
+	 */
+	public void setProgramName(String pProgramName) {
+		mProgramName = pProgramName;
+	}
+
 	/**
 	 * Set the initial values for the user-level register set.
 	 *
@@ -225,18 +477,65 @@ public class AddrSpace {
 
 	/**
 	 * On a context switch, save any machine state, specific to this address
-	 * space, that needs saving.
-	 *
+	 * space, that needs saving: the virtual time the process has just run
+	 * for.
 	 **/
 	public void saveState() {
+		if (mCpu != null) {
+			mVirtualTime += mCpu.mUserTicks - mRunStart;
+			mCpu = null;
+		}
+	}
+
+	/**
+	 * @return the id of this address space.
+	 */
+	public int getId() {
+		return mId;
+	}
 
+	/**
+	 * Adds to the virtual time of the process while it is switched out, for
+	 * replaying a reference trace (see TraceReplay) in place of running it.
+	 *
+	 * @param pTicks
+	 *            the user ticks to add.
+	 */
+	public void addVirtualTime(int pTicks) {
+		mVirtualTime += pTicks;
 	}
-	
+
+	/**
+	 * Gets the virtual time of the process running in this address space: the
+	 * number of user ticks it has run for.
+	 *
+	 * @return the virtual time.
+	 */
+	public int getVirtualTime() {
+		Cpu cpu = mCpu;
+		return cpu == null ? mVirtualTime : mVirtualTime + cpu.mUserTicks - mRunStart;
+	}
+
+
 	public void tearDown() {
-		for (int i = 0; i < mPageTable.length; i++) {
-			if (mPageTable[i].valid)  {
-				mFreeMap.clear(mPageTable[i].physicalPage);
-				JNachos.getPageFrameMap()[mPageTable[i].physicalPage] = -1;
+		Debug.print('a', "Tearing down address space, " + mPageTable.getNumLeaves() + " page table leaves");
+		if (mWorkingSetSamples > 0) {
+			Statistics.recordWorkingSet(mProgramName, (int) (mWorkingSetTotal / mWorkingSetSamples),
+					mWorkingSetPeak);
+		}
+		if (PageFaultFrequency.mEnabled && mFrameQuota > 0) {
+			Statistics.recordFrameQuota(mProgramName, mFrameQuota, mPeakQuota, mPageFaults, getVirtualTime());
+		}
+		if (Machine.SuperPageSize > 1) {
+			SuperPages.release(this);
+		}
+		for (int i = 0; i < mNumPages; i++) {
+			if (mPageTable.isValid(i))  {
+				int frame = mPageTable.getFrame(i);
+				mFreeMap.clear(frame);
+				FrameTable.unmap(frame);
+				InstructionCache.invalidateFrame(frame);
+				MMU.invalidateFrame(frame);
 			}
 		}
 	}
@@ -245,10 +544,29 @@ public class AddrSpace {
 	 * On a context switch, restore the machine state so that this address space
 	 * can run.
 	 *
-	 * For now, tell the machine where to find the page table.
+	 * For now, tell the machine where to find the page table. With a TLB, the
+	 * entries of the previous address space are flushed instead; the TLB is
+	 * refilled from our page table as it misses.
+	 *
+	 * The virtual time of the process runs from here until saveState(). When
+	 * references are being traced, the trace switches to this address space.
 	 */
 	public void restoreState() {
-		MMU.mPageTable = mPageTable;
-		MMU.mPageTableSize = mNumPages;
+		Cpu cpu = Machine.currentCpu();
+		saveState();
+		mCpu = cpu;
+		mRunStart = cpu.mUserTicks;
+		if (TraceRecorder.mEnabled) {
+			TraceRecorder.switchTo(cpu, mId);
+		}
+
+		MMU.flushSoftTlb(cpu);
+		if (Machine.mUSE_TLB) {
+			TLBManager.flush(cpu);
+			return;
+		}
+
+		cpu.mPageTable = mPageTable;
+		cpu.mPageTableSize = mNumPages;
 	}
 }
@@ -27,6 +27,17 @@ public abstract class Debug {
 	 */
 	private static String mFlags;
 
+	/**
+	 * Which flags are active, indexed by the flag character. Built once so
+	 * that isEnabled can be called on hot paths without allocating.
+	 */
+	private static boolean[] mEnabledFlags = new boolean[128];
+
+	/**
+	 * True if every flag is active ('+').
+	 */
+	private static boolean mAllEnabled;
+
 	/**
 	 * Initializes the Debugging in Nachos.
 	 * 
@@ -35,6 +46,20 @@ public abstract class Debug {
 	 */
 	public static void debugInit(String pDebugArgs) {
 		mFlags = pDebugArgs;
+
+		// The character arrays of active flags
+		char[] array = mFlags.toCharArray();
+
+		mEnabledFlags = new boolean[128];
+		mAllEnabled = false;
+		for (int i = 0; i < array.length; i++) {
+			// If all flags have been turned on
+			if (array[i] == '+') {
+				mAllEnabled = true;
+			} else if (array[i] < mEnabledFlags.length) {
+				mEnabledFlags[array[i]] = true;
+			}
+		}
 	}
 
 	/**
@@ -59,23 +84,6 @@ public abstract class Debug {
 	 *            the flag to check.
 	 **/
 	public static boolean isEnabled(char pFlag) {
-		// The character arrays of active flags
-		char[] array = mFlags.toCharArray();
-
-		// Check each character
-		for (int i = 0; i < array.length; i++) {
-			// if the flag was found return true
-			if (array[i] == pFlag) {
-				return true;
-			}
-
-			// If all flags have been turned on
-			else if (array[i] == '+') {
-				return true;
-			}
-		}
-
-		// The flag was not found
-		return false;
+		return mAllEnabled || (pFlag < mEnabledFlags.length && mEnabledFlags[pFlag]);
 	}
 }
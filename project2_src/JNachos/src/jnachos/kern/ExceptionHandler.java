@@ -9,7 +9,12 @@
 package jnachos.kern;
 
 import jnachos.machine.*;
-import jnachos.kern.mem.FIFO;
+import jnachos.kern.mem.FaultAround;
+import jnachos.kern.mem.FrameTable;
+import jnachos.kern.mem.PageDaemon;
+import jnachos.kern.mem.PageFaultFrequency;
+import jnachos.kern.mem.SuperPages;
+import jnachos.kern.mem.TLBManager;
 /**
  * The ExceptionHanlder class handles all exceptions raised by the simulated
  * machine. This class is abstract and should not be instantiated.
@@ -20,17 +25,19 @@ public abstract class ExceptionHandler {
 	 * This class does all of the work for handling exceptions raised by the
 	 * simulated machine. This is the only funciton in this class.
 	 *
+	 * @param pCpu
+	 *            The CPU that raised the exception.
 	 * @param pException
 	 *            The type of exception that was raised.
 	 * @see ExceptionType.java
 	 */
-	public static void handleException(ExceptionType pException) {
+	public static void handleException(Cpu pCpu, ExceptionType pException) {
 		switch (pException) {
 		// If this type was a system call
 		case SyscallException:
 
 			// Get what type of system call was made
-			int type = Machine.readRegister(2);
+			int type = pCpu.readRegister(2);
 
 			// Invoke the System call handler
 			SystemCallHandler.handleSystemCall(type);
@@ -38,85 +45,78 @@ public abstract class ExceptionHandler {
 
 		case PageFaultException:
 
-			// See if there is a free page in RAM.
-			int ppn = AddrSpace.mFreeMap.find();
-
-			// If there is not choose a victim page and handle its logic.
-			if (ppn < 0) {
-				// Runt the Page Replacement Algorithm.
-				ppn = JNachos.getPageReplacementAlgorithm().chooseVictimPage();
-
-				if (ppn < 0) {
-					System.out.println("Page Replacement Algorithm Failed to find victim page.  Shutting Down");
-					Interrupt.halt();
-				}
-				int victimPid = JNachos.getPageFrameMap()[ppn];
-				if (victimPid < 0) {
-					System.out.println("Victim Process not found.  Shutting Down");
+			// With a TLB, this may just be a TLB miss on a page that is in
+			// memory. If so, load the page's translation into the TLB.
+			if (Machine.mUSE_TLB) {
+				PageTable pageTable = JNachos.getCurrentProcess().getSpace().mPageTable;
+				int missVPN = pCpu.readRegister(Machine.BadVAddrReg) / Machine.PageSize;
+				if (missVPN < 0 || missVPN >= pageTable.size()) {
+					System.out.println("Virtual page " + missVPN + " out of range.  Shutting Down");
 					Interrupt.halt();
 				}
 
-				NachosProcess victim = NachosProcess.mProcessHash.get(victimPid);
-
-				if (victim == null) {
-					System.out.println("Victim Process not found in table.  Shutting Down");
-					Interrupt.halt();
-				}
-				TranslationEntry toEvict = null;
-				for (int i = 0; i < victim.getSpace().mPageTable.length; i++) {
-					if (victim.getSpace().mPageTable[i].physicalPage == ppn) {
-						toEvict = victim.getSpace().mPageTable[i];
-						break;
-					}
-				}
-				if (toEvict == null) {
-					System.out.println("Page not found in  victim process.  Shutting Down");
-					Interrupt.halt();
+				if (TLBManager.refill(pCpu, pageTable, missVPN)) {
+					break;
 				}
+			}
 
-				if (toEvict.dirty) {
-					// bytes to store the page to be evicted
-					byte[] toEvictBytes = new byte[Machine.PageSize];
+			int pagefaultVA = pCpu.readRegister(Machine.BadVAddrReg);
+			int faultVPN = pagefaultVA / Machine.PageSize;
+			AddrSpace space = JNachos.getCurrentProcess().getSpace();
+
+			space.mPageFaults++;
+			if (PageFaultFrequency.mEnabled) {
+				PageFaultFrequency.faulted(space);
+			}
 
-					// copy the page info from RAM to toEvictBytes
-					System.arraycopy(Machine.mMainMemory, toEvict.physicalPage * Machine.PageSize, toEvictBytes, 0,
-							Machine.PageSize);
-					// copy the toEvictBytes to swapspace
-					JNachos.mSwapSpace.writeAt(toEvictBytes, Machine.PageSize,
-							toEvict.trans_diskmap * Machine.PageSize);
+			// The page may still be in the free frame the page daemon evicted
+			// it from
+			int ppn = -1;
+			if (PageDaemon.mEnabled) {
+				ppn = PageDaemon.rescue(space, faultVPN);
+			}
+			boolean rescued = ppn >= 0;
+			if (rescued) {
+				Debug.print('v', "Page " + faultVPN + " rescued from free frame " + ppn);
+			} else {
+				ppn = takeFrame(space, faultVPN);
+				if (ppn < 0) {
+					System.out.println("Page Replacement Algorithm Failed to find victim page.  Shutting Down");
+					Interrupt.halt();
 				}
-				// Update the Victim's page table entry.
-				toEvict.physicalPage = -1;
-				toEvict.valid = false;
-				toEvict.use = false;
-				toEvict.dirty = false;
 			}
 
 			// numPageFaults to keep track of page fault numbers
 			Statistics.numPageFaults = Statistics.numPageFaults + 1;
-			int pagefaultVA = Machine.readRegister(39);
-			int faultVPN = pagefaultVA / Machine.PageSize;
-			Debug.print('v', "PAGE FAULT: VPN " + faultVPN);
-			Debug.print('v', "Page fault virtual address "
-					+ JNachos.getCurrentProcess().getSpace().diskmap[faultVPN] * Machine.PageSize);
-			Debug.print('v', "Number of pageFaults " + Statistics.numPageFaults);
-
-			// Copy the page into main memory.
-			byte[] bytes = new byte[Machine.PageSize];
-			JNachos.mSwapSpace.readAt(bytes, Machine.PageSize,
-					JNachos.getCurrentProcess().getSpace().diskmap[faultVPN] * Machine.PageSize);
-			System.arraycopy(bytes, 0, Machine.mMainMemory, ppn * Machine.PageSize, Machine.PageSize);
-
-			//implementation of FIFO for project 2 cis 486
-			//FIFO.list.add(ppn);
-
-			// Update current process's page table
-			JNachos.getCurrentProcess().getSpace().mPageTable[faultVPN].physicalPage = ppn;
-			JNachos.getCurrentProcess().getSpace().mPageTable[faultVPN].valid = true;
-			JNachos.getPageFrameMap()[ppn] = JNachos.getCurrentProcess().getid();
-
-			// Update global map between pageframe and PID.
-			JNachos.getCurrentProcess().getSpace().mPageTable[faultVPN].use = true;
+			if (CallGraphProfiler.mEnabled) {
+				CallGraphProfiler.recordFault();
+			}
+			if (Debug.isEnabled('v')) {
+				Debug.print('v', "PAGE FAULT: VPN " + faultVPN);
+				Debug.print('v', "Page fault virtual address "
+						+ space.mPageTable.getSwapSlot(faultVPN) * Machine.PageSize);
+				Debug.print('v', "Number of pageFaults " + Statistics.numPageFaults);
+			}
+
+			// Copy the page into main memory (with fault-around, and the
+			// pages after it).
+			if (FaultAround.isEnabled()) {
+				FaultAround.pageIn(space, faultVPN, ppn, rescued);
+			} else if (!rescued) {
+				space.pageIn(faultVPN, ppn);
+			}
+			mapPage(space, faultVPN, ppn, true);
+
+			// Load the new translation into the TLB
+			if (Machine.mUSE_TLB) {
+				TLBManager.refill(pCpu, space.mPageTable, faultVPN);
+			}
+
+			// Wake the page daemon if this left too few free frames. (Only
+			// now that the page is mapped: the daemon may run straight away.)
+			if (PageDaemon.mEnabled) {
+				PageDaemon.frameTaken();
+			}
 			break;
 
 		// All other exceptions shut down for now
@@ -124,4 +124,78 @@ public abstract class ExceptionHandler {
 			System.exit(0);
 		}
 	}
+
+	/**
+	 * Takes a frame for a page that is about to be brought into memory: a
+	 * free frame if there is one (with superpages, the one reserved for the
+	 * page if possible), or else the frame of a victim page, which is evicted.
+	 *
+	 * @param pSpace
+	 *            the address space of the page.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 * @return the frame, now in use, or -1 if no victim could be found.
+	 */
+	public static int takeFrame(AddrSpace pSpace, int pVpn) {
+		int ppn;
+		if (Machine.SuperPageSize > 1) {
+			ppn = SuperPages.allocate(pSpace, pVpn);
+		} else if (PageDaemon.mEnabled) {
+			ppn = PageDaemon.allocate();
+		} else {
+			ppn = AddrSpace.mFreeMap.find();
+		}
+		if (ppn >= 0) {
+			return ppn;
+		}
+
+		// If there is not choose a victim page and handle its logic.
+		// With local allocation, the victim is chosen by the quotas
+		if (PageFaultFrequency.mEnabled) {
+			ppn = PageFaultFrequency.chooseVictimPage(pSpace);
+		}
+
+		// Runt the Page Replacement Algorithm.
+		if (ppn < 0) {
+			ppn = JNachos.getPageReplacementAlgorithm().chooseVictimPage();
+		}
+
+		// The page in the victim frame
+		AddrSpace victim = ppn < 0 ? null : FrameTable.getOwner(ppn);
+		if (victim == null) {
+			return -1;
+		}
+		victim.evict(FrameTable.getVirtualPage(ppn), ppn);
+		if (PageDaemon.mEnabled) {
+			Statistics.numDirectReclaims++;
+		}
+		return ppn;
+	}
+
+	/**
+	 * Maps a page that has been brought into a frame.
+	 *
+	 * @param pSpace
+	 *            the address space of the page.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 * @param pFrame
+	 *            the frame holding it.
+	 * @param pUsed
+	 *            whether or not the page is marked used.
+	 */
+	public static void mapPage(AddrSpace pSpace, int pVpn, int pFrame, boolean pUsed) {
+		InstructionCache.invalidateFrame(pFrame);
+
+		// Update current process's page table
+		pSpace.mPageTable.setFrame(pVpn, pFrame);
+		pSpace.mPageTable.setValid(pVpn, true);
+
+		// Update the frame table.
+		FrameTable.map(pFrame, pSpace, pVpn);
+		pSpace.mPageTable.setUsed(pVpn, pUsed);
+		if (Machine.SuperPageSize > 1) {
+			SuperPages.promote(pSpace, pVpn);
+		}
+	}
 }
@@ -7,9 +7,12 @@
  */
 package jnachos.kern;
 
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Properties;
 
 import jnachos.machine.*;
 import jnachos.filesystem.*;
@@ -26,6 +29,12 @@ import jnachos.kern.mem.*;
  * interrupted.
  **/
 class TimerInterruptHandler implements VoidFunctionPtr {
+	/**
+	 * Timer interrupts of a CPU between its samples of the use bits
+	 * (-sampleperiod).
+	 */
+	static int mSamplePeriod = 1;
+
 	/** Default Constructor. */
 	TimerInterruptHandler() {
 	}
@@ -42,11 +51,44 @@ class TimerInterruptHandler implements VoidFunctionPtr {
 		// If we are not in idle mode
 		if (Interrupt.getStatus() != Interrupt.IdleMode) {
 
-			//translate the entry for physical page, literally.
-			for (int i=0; i< Machine.NumPhysPages; i++){
-				TranslationEntry entry=MMU.translationEntryForPhysicalPage(i);
-				if(entry !=null) entry.use=false; //if the entry is not null, there is data in it.
+			// once every sample period, let the page replacement algorithm
+			// see which pages were referenced, then clear the use bit of the
+			// page in every frame
+			if (++Machine.currentCpu().mTimerInterrupts % mSamplePeriod == 0) {
+				if (Machine.mUSE_TLB) {
+					TLBManager.collectUse();
+				}
+				if (TraceRecorder.mEnabled) {
+					TraceRecorder.sample(Machine.currentCpu());
+				}
+				JNachos.getPageReplacementAlgorithm().sampleReferences();
+				if (PageDaemon.mEnabled) {
+					PageDaemon.sampleReferences();
+				}
+				if (FaultAround.isEnabled()) {
+					FaultAround.sampleReferences();
+				}
+
+				for (int i = 0; i < Machine.NumPhysPages; i++) {
+					AddrSpace owner = FrameTable.getOwner(i);
+					if (owner != null) {
+						owner.mPageTable.setUsed(FrameTable.getVirtualPage(i), false);
+					}
+				}
 			}
+			// keep free frames in reserve
+			if (PageDaemon.mEnabled) {
+				PageDaemon.tick();
+			}
+
+			// end the fault rate window of the running process if it is over
+			if (PageFaultFrequency.mEnabled) {
+				AddrSpace space = JNachos.getCurrentProcess().getSpace();
+				if (space != null) {
+					PageFaultFrequency.adjust(space);
+				}
+			}
+
 			// Yield on return
 			Interrupt.yieldOnReturn();
 		}
@@ -65,18 +107,15 @@ public abstract class JNachos {
 	private static PageReplacementAlgorithm mPageReplacementAlgorithm;
 
 
-	/** A map from page frame to the owning process's PID. */
-	public static int[] mPageFrameToPid;
-
 	/**
-	 * The currently running process. At present 1 CPU = 1 running process.
+	 * The process running on each CPU, by CPU number.
 	 */
-	private static NachosProcess mCurrentProcess;
+	private static NachosProcess[] mCurrentProcess;
 
 	/**
-	 * Points to a process that should be destroyed.
+	 * Points to a process that should be destroyed, for each CPU.
 	 */
-	private static NachosProcess mProcessToBeDestroyed;
+	private static NachosProcess[] mProcessToBeDestroyed;
 
 	/**
 	 * The global scheduler in our system. This class decides which process to
@@ -160,6 +199,21 @@ public abstract class JNachos {
 		int netname = 0;
 		int seed = 0;
 
+		// number of CPUs
+		int numCpus = 1;
+
+		// TLB refill policy
+		String tlbPolicy = TLBManager.RandomPolicy;
+
+		// page replacement algorithm
+		String vmAlgorithm = PageReplacementRegistry.DefaultAlgorithm;
+
+		// the geometry of the machine
+		int numPhysPages = Machine.NumPhysPages;
+		int pageSize = Machine.PageSize;
+		int numTracks = Disk.NumTracks;
+		int sectorsPerTrack = Disk.SectorsPerTrack;
+
 		// Run through all of the arguments
 		for (argc--, argv++; argc > 0; argc -= argCount, argv += argCount) {
 			argCount = 1;
@@ -190,6 +244,177 @@ public abstract class JNachos {
 				format = true;
 			}
 
+			// Run hot user code from the block cache
+			if (args[argv].compareTo("-blockcache") == 0) {
+				BlockCache.mEnabled = true;
+			}
+
+			// Profile user programs, writing the counts to a CSV file
+			if (args[argv].compareTo("-prof") == 0) {
+				assert (argc > 1);
+				Profiler.mEnabled = true;
+				Profiler.mCsvFile = args[argv + 1];
+				argCount = 2;
+			}
+
+			// Track user call stacks, writing folded stacks to a file
+			if (args[argv].compareTo("-callprof") == 0) {
+				assert (argc > 1);
+				CallGraphProfiler.mEnabled = true;
+				CallGraphProfiler.mFoldedFile = args[argv + 1];
+				argCount = 2;
+			}
+
+			// Record the page reference string to a file
+			if (args[argv].compareTo("-trace") == 0) {
+				assert (argc > 1);
+				TraceRecorder.mEnabled = true;
+				TraceRecorder.mTraceFile = args[argv + 1];
+				argCount = 2;
+			}
+
+			// Run user programs on several CPUs
+			if (args[argv].compareTo("-smp") == 0) {
+				assert (argc > 1);
+				numCpus = parseOption("-smp", args[argv + 1], 1, Integer.MAX_VALUE, "-smp <n>");
+				argCount = 2;
+			}
+
+			// Translate through a software-loaded TLB of the given size
+			if (args[argv].compareTo("-tlb") == 0) {
+				assert (argc > 1);
+				Machine.mUSE_TLB = true;
+				Machine.TLBSize = parseOption("-tlb", args[argv + 1], 1, Integer.MAX_VALUE, "-tlb <size>");
+				argCount = 2;
+			}
+			if (args[argv].compareTo("-tlbpolicy") == 0) {
+				assert (argc > 1);
+				tlbPolicy = args[argv + 1];
+				if (!TLBManager.isPolicy(tlbPolicy)) {
+					optionError("-tlbpolicy must be random, fifo or lru, not " + tlbPolicy,
+							"-tlbpolicy <random|fifo|lru>");
+				}
+				argCount = 2;
+			}
+
+			// Sparse page tables, with user programs loaded on demand
+			if (args[argv].compareTo("-sparsept") == 0) {
+				AddrSpace.mSparse = true;
+			}
+
+			// Map aligned runs of this many pages with one TLB entry
+			if (args[argv].compareTo("-superpage") == 0) {
+				assert (argc > 1);
+				Machine.SuperPageSize = Integer.parseInt(args[argv + 1]);
+				assert (Integer.bitCount(Machine.SuperPageSize) == 1);
+				argCount = 2;
+			}
+
+			// Choose the page replacement algorithm
+			if (args[argv].compareTo("-vm") == 0) {
+				assert (argc > 1);
+				vmAlgorithm = args[argv + 1];
+				if (!PageReplacementRegistry.contains(vmAlgorithm)) {
+					System.out.println("Unknown page replacement algorithm " + vmAlgorithm + ", expected one of "
+							+ PageReplacementRegistry.getNames());
+					System.exit(1);
+				}
+				argCount = 2;
+			}
+
+			// Sample the use bits once every this many timer interrupts
+			if (args[argv].compareTo("-sampleperiod") == 0) {
+				assert (argc > 1);
+				TimerInterruptHandler.mSamplePeriod = parseOption("-sampleperiod", args[argv + 1], 1,
+						Integer.MAX_VALUE, "-sampleperiod <n>");
+				argCount = 2;
+			}
+
+			// The width of the counters of the aging page replacement
+			if (args[argv].compareTo("-agebits") == 0) {
+				assert (argc > 1);
+				Aging.CounterBits = parseOption("-agebits", args[argv + 1], 1, 31, "-agebits <bits>");
+				argCount = 2;
+			}
+
+			// The working set window of WSClock page replacement
+			if (args[argv].compareTo("-wstau") == 0) {
+				assert (argc > 1);
+				WSClock.Tau = Integer.parseInt(args[argv + 1]);
+				argCount = 2;
+			}
+
+			// Allocate frames locally, with quotas set by page fault frequency
+			if (args[argv].compareTo("-pff") == 0) {
+				PageFaultFrequency.mEnabled = true;
+			}
+
+			// The faults in a window below and above which a quota changes
+			if (args[argv].compareTo("-pffrange") == 0) {
+				assert (argc > 1);
+				int[] range = parseRange("-pffrange", args[argv + 1], 0, "-pffrange <low>,<high>");
+				PageFaultFrequency.LowFaults = range[0];
+				PageFaultFrequency.HighFaults = range[1];
+				argCount = 2;
+			}
+
+			// The window of virtual time fault rates are measured over
+			if (args[argv].compareTo("-pffwindow") == 0) {
+				assert (argc > 1);
+				PageFaultFrequency.Window = parseOption("-pffwindow", args[argv + 1], 1, Integer.MAX_VALUE,
+						"-pffwindow <ticks>");
+				argCount = 2;
+			}
+
+			// Run the page-out daemon
+			if (args[argv].compareTo("-pagedaemon") == 0) {
+				PageDaemon.mEnabled = true;
+			}
+
+			// The free frames at which the page daemon is woken and stops
+			if (args[argv].compareTo("-watermarks") == 0) {
+				assert (argc > 1);
+				int[] watermarks = parseRange("-watermarks", args[argv + 1], 0, "-watermarks <low>,<high>");
+				PageDaemon.LowWatermark = watermarks[0];
+				PageDaemon.HighWatermark = watermarks[1];
+				argCount = 2;
+			}
+
+			// The pages each page fault brings in
+			if (args[argv].compareTo("-faultaround") == 0) {
+				assert (argc > 1);
+				FaultAround.Window = Integer.parseInt(args[argv + 1]);
+				argCount = 2;
+			}
+
+			// The geometry of the machine
+			if (args[argv].compareTo("-physpages") == 0) {
+				assert (argc > 1);
+				numPhysPages = parseGeometry("-physpages", args[argv + 1]);
+				argCount = 2;
+			}
+			if (args[argv].compareTo("-pagesize") == 0) {
+				assert (argc > 1);
+				pageSize = parseGeometry("-pagesize", args[argv + 1]);
+				argCount = 2;
+			}
+			if (args[argv].compareTo("-disk") == 0) {
+				assert (argc > 2);
+				numTracks = parseGeometry("-disk", args[argv + 1]);
+				sectorsPerTrack = parseGeometry("-disk", args[argv + 2]);
+				argCount = 3;
+			}
+			if (args[argv].compareTo("-config") == 0) {
+				assert (argc > 1);
+				Properties config = loadConfig(args[argv + 1]);
+				numPhysPages = parseGeometry("physpages", config.getProperty("physpages", "" + numPhysPages));
+				pageSize = parseGeometry("pagesize", config.getProperty("pagesize", "" + pageSize));
+				numTracks = parseGeometry("tracks", config.getProperty("tracks", "" + numTracks));
+				sectorsPerTrack = parseGeometry("sectorspertrack",
+						config.getProperty("sectorspertrack", "" + sectorsPerTrack));
+				argCount = 2;
+			}
+
 			if (args[argv].compareTo("-q") == 0) {
 				assert (argc >= 1);
 				rely = new Float(args[argv + 1]);
@@ -206,6 +431,40 @@ public abstract class JNachos {
 		// initialize DEBUG messages
 		Debug.debugInit(debugArgs);
 
+		// Tracing needs every instruction to go through the interpreter, and
+		// so do TLB hit counts and LRU order
+		if (Debug.isEnabled('m') || Debug.isEnabled('i') || Machine.mUSE_TLB) {
+			BlockCache.mEnabled = false;
+		}
+
+		// Create the CPUs. The block cache, the profilers and the single
+		// stepping debugger keep their state for one CPU only.
+		Machine.setNumCpus(numCpus);
+		if (numCpus > 1) {
+			if (BlockCache.mEnabled) {
+				System.out.println("Warning: -blockcache is ignored with -smp " + numCpus);
+				BlockCache.mEnabled = false;
+			}
+			if (Profiler.mEnabled) {
+				System.out.println("Warning: -prof is ignored with -smp " + numCpus);
+				Profiler.mEnabled = false;
+			}
+			if (CallGraphProfiler.mEnabled) {
+				System.out.println("Warning: -callprof is ignored with -smp " + numCpus);
+				CallGraphProfiler.mEnabled = false;
+			}
+			if (debugUserProg) {
+				System.out.println("Warning: -s is ignored with -smp " + numCpus);
+				debugUserProg = false;
+			}
+		}
+		if (TraceRecorder.mEnabled) {
+			TraceRecorder.start();
+		}
+
+		// The kernel is entered with the kernel lock held
+		KernelLock.acquire();
+
 		// Initialize the interrupts
 		Interrupt.init();
 
@@ -213,21 +472,53 @@ public abstract class JNachos {
 		setScheduler(new Scheduler());
 
 		// Initialize the process to be destroyed
-		mProcessToBeDestroyed = null;
+		mCurrentProcess = new NachosProcess[numCpus];
+		mProcessToBeDestroyed = new NachosProcess[numCpus];
 
 		// We didn't explicitly allocate the current thread we are running in.
 		// But if it ever tries to give up the CPU, we better have a Thread
 		// object to save its state.
-		mCurrentProcess = new NachosProcess("Main");
-		mCurrentProcess.setAsBootProcess();
+		NachosProcess main = new NachosProcess("Main");
+		setCurrentProcess(main);
+		main.setAsBootProcess();
 
 		// enable the interrupts
 		Interrupt.enable();
 
+		// Size memory and the disk before anything is sized from them
+		try {
+			Machine.setMemory(numPhysPages, pageSize);
+			Disk.setGeometry(numTracks, sectorsPerTrack);
+		} catch (IllegalArgumentException e) {
+			geometryError(e.getMessage());
+		}
+
+		// Superpages only pay off through the TLB, and only in a memory of
+		// enough blocks to hold reservations
+		if (Machine.SuperPageSize > 1 && !Machine.mUSE_TLB) {
+			System.out.println("Warning: -superpage is ignored without -tlb");
+			Machine.SuperPageSize = 1;
+		} else if (Machine.SuperPageSize > 1 && Machine.NumPhysPages < SuperPages.MinBlocks * Machine.SuperPageSize) {
+			System.out.println("Warning: -superpage " + Machine.SuperPageSize + " is ignored with fewer than "
+					+ SuperPages.MinBlocks * Machine.SuperPageSize + " page frames");
+			Machine.SuperPageSize = 1;
+		}
+
+		// The page daemon cannot keep all of memory free
+		if (PageDaemon.HighWatermark >= Machine.NumPhysPages) {
+			optionError("-watermarks must keep fewer than " + Machine.NumPhysPages + " frames free, not "
+					+ PageDaemon.HighWatermark, "-watermarks <low>,<high>");
+		}
+		AddrSpace.mFreeMap = new BitMap(Machine.NumPhysPages);
+
 		// this must come first
 		mMachine = new Machine(debugUserProg, (new TimerInterruptHandler()), seed, randomYield);
 		mSynchDisk = new SynchDisk("DISK");
 
+		if (Machine.mUSE_TLB) {
+			TLBManager.init(tlbPolicy);
+		}
+
 		mFileSystem = new JavaFileSystem(format);
 
 		if (mFileSystem.create("swapspace", 0) == true) {
@@ -236,15 +527,27 @@ public abstract class JNachos {
 
 		mSharedLibrarySpace = new HashMap<String, AddrSpace>();
 
-    //this should be changed for project 2
-		//mPageReplacementAlgorithm = new ZeroPageFrame();
-		//mPageReplacementAlgorithm = new FIFO();
-mPageReplacementAlgorithm = new NFU();
-//	mPageReplacementAlgorithm = new ZeroPageFrame();
+		// The page replacement algorithm selected with -vm
+		mPageReplacementAlgorithm = PageReplacementRegistry.create(vmAlgorithm);
+
+		FrameTable.init();
+		if (Machine.SuperPageSize > 1) {
+			SuperPages.init();
+		}
+		if (PageDaemon.mEnabled) {
+			PageDaemon.start();
+		}
+		if (FaultAround.isEnabled()) {
+			FaultAround.init();
+		}
 
-		mPageFrameToPid = new int[Machine.NumPhysPages];
-		for (int i = 0; i < Machine.NumPhysPages; i++) {
-			mPageFrameToPid[i] = -1;
+		// Start the other CPUs. Each runs an idle process that finishes right
+		// away, leaving the CPU to pick up ready processes from then on.
+		for (int i = 1; i < numCpus; i++) {
+			new NachosProcess("cpu " + i).startOn(Machine.getCpu(i), new VoidFunctionPtr() {
+				public void call(Object pDummy) {
+				}
+			}, null);
 		}
 
 		/*
@@ -253,6 +556,130 @@ mPageReplacementAlgorithm = new NFU();
 
 	}
 
+	/**
+	 * Parses a number given for the geometry of the machine.
+	 *
+	 * @param pName
+	 *            the option or configuration setting it was given with.
+	 * @param pValue
+	 *            the number.
+	 * @return the number.
+	 */
+	private static int parseGeometry(String pName, String pValue) {
+		try {
+			return Integer.parseInt(pValue.trim());
+		} catch (NumberFormatException e) {
+			geometryError(pName + " must be a number, not " + pValue);
+			return 0;
+		}
+	}
+
+	/**
+	 * Reports a machine geometry that cannot be set up, and exits.
+	 *
+	 * @param pMessage
+	 *            what is wrong with it.
+	 */
+	private static void geometryError(String pMessage) {
+		System.out.println("Bad machine geometry: " + pMessage);
+		System.out.println("usage: -physpages <n> -pagesize <bytes> -disk <tracks> <sectors> -config <file>");
+		System.exit(1);
+	}
+
+	/**
+	 * Parses the number given to a command line option, and exits with a
+	 * usage error if it is not a number from pMin to pMax.
+	 *
+	 * @param pName
+	 *            the option.
+	 * @param pValue
+	 *            the value given to it.
+	 * @param pMin
+	 *            the smallest value allowed.
+	 * @param pMax
+	 *            the largest value allowed.
+	 * @param pUsage
+	 *            how the option is given.
+	 * @return the value.
+	 */
+	private static int parseOption(String pName, String pValue, int pMin, int pMax, String pUsage) {
+		int value = 0;
+		try {
+			value = Integer.parseInt(pValue.trim());
+		} catch (NumberFormatException e) {
+			optionError(pName + " must be a number, not " + pValue, pUsage);
+		}
+
+		if (value < pMin || value > pMax) {
+			optionError(pName + " must be " + (pMax == Integer.MAX_VALUE ? "at least " + pMin
+					: "from " + pMin + " to " + pMax) + ", not " + value, pUsage);
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the two numbers given to a command line option as low,high, and
+	 * exits with a usage error unless both are numbers of at least pMin and
+	 * the first is not above the second.
+	 *
+	 * @param pName
+	 *            the option.
+	 * @param pValue
+	 *            the value given to it.
+	 * @param pMin
+	 *            the smallest value allowed.
+	 * @param pUsage
+	 *            how the option is given.
+	 * @return the two numbers.
+	 */
+	private static int[] parseRange(String pName, String pValue, int pMin, String pUsage) {
+		String[] values = pValue.split(",");
+		if (values.length != 2) {
+			optionError(pName + " must be two numbers separated by a comma, not " + pValue, pUsage);
+		}
+
+		int low = parseOption(pName, values[0], pMin, Integer.MAX_VALUE, pUsage);
+		int high = parseOption(pName, values[1], pMin, Integer.MAX_VALUE, pUsage);
+		if (low > high) {
+			optionError(pName + " must not have its low value above its high value, not " + pValue, pUsage);
+		}
+		return new int[] { low, high };
+	}
+
+	/**
+	 * Reports a command line option that cannot be used, and exits.
+	 *
+	 * @param pMessage
+	 *            what is wrong with it.
+	 * @param pUsage
+	 *            how the option is given.
+	 */
+	private static void optionError(String pMessage, String pUsage) {
+		System.out.println("Bad option: " + pMessage);
+		System.out.println("usage: " + pUsage);
+		System.exit(1);
+	}
+
+	/**
+	 * Reads the configuration file given with -config. Each line sets one of
+	 * physpages, pagesize, tracks or sectorspertrack, as "name = value" (any
+	 * format java.util.Properties accepts).
+	 *
+	 * @param pFile
+	 *            the name of the configuration file.
+	 * @return the settings in the file.
+	 */
+	private static Properties loadConfig(String pFile) {
+		Properties config = new Properties();
+		try (FileReader in = new FileReader(pFile)) {
+			config.load(in);
+		} catch (IOException e) {
+			System.out.println("Unable to read configuration from " + pFile + ": " + e.getMessage());
+			System.exit(1);
+		}
+		return config;
+	}
+
 	/**
 	 * Cleaning up the operating system on shut down. JNachos is halting.
 	 * De-allocate global data structures.
@@ -270,7 +697,18 @@ mPageReplacementAlgorithm = new NFU();
 	 * @return the currently executing jnachos process
 	 **/
 	public static NachosProcess getCurrentProcess() {
-		return mCurrentProcess;
+		return mCurrentProcess[Machine.currentCpu().mId];
+	}
+
+	/**
+	 * Returns the NachosProcess which is running on a CPU.
+	 *
+	 * @param pCpu
+	 *            the CPU.
+	 * @return the jnachos process running on that CPU
+	 **/
+	public static NachosProcess getCurrentProcess(Cpu pCpu) {
+		return mCurrentProcess[pCpu.mId];
 	}
 
 	/**
@@ -280,7 +718,7 @@ mPageReplacementAlgorithm = new NFU();
 	 *            is set as the currently executing jnachos process
 	 **/
 	public static void setCurrentProcess(NachosProcess pProcess) {
-		mCurrentProcess = pProcess;
+		mCurrentProcess[Machine.currentCpu().mId] = pProcess;
 	}
 
 	/**
@@ -290,7 +728,7 @@ mPageReplacementAlgorithm = new NFU();
 	 *         context switch, null if there is no jnachos process.
 	 **/
 	public static NachosProcess getProcessToBeDestroyed() {
-		return mProcessToBeDestroyed;
+		return mProcessToBeDestroyed[Machine.currentCpu().mId];
 	}
 
 	/**
@@ -301,8 +739,8 @@ mPageReplacementAlgorithm = new NFU();
 	 *            current process.
 	 **/
 	public static void setProcessToBeDestroyed(NachosProcess pProcess) {
-		assert ((pProcess == mCurrentProcess) || (pProcess == null));
-		mProcessToBeDestroyed = pProcess;
+		assert ((pProcess == getCurrentProcess()) || (pProcess == null));
+		mProcessToBeDestroyed[Machine.currentCpu().mId] = pProcess;
 	}
 
 	/**
@@ -370,7 +808,13 @@ mPageReplacementAlgorithm = new NFU();
 		return mPageReplacementAlgorithm;
 	}
 
-	public static int[] getPageFrameMap() {
-		return mPageFrameToPid;
+	/**
+	 * Sets the page replacement algorithm to use.
+	 *
+	 * @param pAlgorithm
+	 *            the algorithm.
+	 */
+	public static void setPageReplacementAlgorithm(PageReplacementAlgorithm pAlgorithm) {
+		mPageReplacementAlgorithm = pAlgorithm;
 	}
 }
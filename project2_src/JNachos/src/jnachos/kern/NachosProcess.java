@@ -84,6 +84,11 @@ public class NachosProcess implements Runnable {
 	 */
 	private boolean mStarted;
 
+	/**
+	 * The CPU this process is running on, or last ran on.
+	 */
+	private Cpu mCpu;
+
 	/**
 	 * Initialize a Process control block, so that we can then call fork.
 	 * 
@@ -93,6 +98,8 @@ public class NachosProcess implements Runnable {
 
 	//// *******************************//////////
 	// A hashtable to hold the process's id and its object///
+	// (on a multiprocessor, the table and counter are only changed with the
+	// kernel lock held)
 	public static Hashtable<Integer, NachosProcess> mProcessHash = new Hashtable<Integer, NachosProcess>();
 
 	public NachosProcess(String pProcessName) {
@@ -127,12 +134,19 @@ public class NachosProcess implements Runnable {
 	 *
 	 **/
 	public void suspend() {
-		Object o = new Object();
+		// Let the other CPUs into the kernel while we are suspended. We still
+		// hold our own monitor, so no resume() can be missed.
+		int holds = KernelLock.releaseAll();
+
 		try {
 			this.wait();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+
+		// We may have been resumed on a different CPU
+		Machine.setCurrentCpu(mCpu);
+		KernelLock.reacquire(holds);
 	}
 
 	/**
@@ -148,6 +162,7 @@ public class NachosProcess implements Runnable {
 
 		// Set the thread as the current Java thread
 		mThread = Thread.currentThread();
+		mCpu = Machine.currentCpu();
 
 		// This process has started
 		mStarted = true;
@@ -179,6 +194,10 @@ public class NachosProcess implements Runnable {
 	 * The main function for the Java-level thread
 	 **/
 	public void run() {
+		// Run on our CPU, in the kernel
+		Machine.setCurrentCpu(mCpu);
+		KernelLock.acquire();
+
 		// Before we start running check to see if there is a thread
 		// that needs to be destroyed
 		if (JNachos.getProcessToBeDestroyed() != null) {
@@ -246,6 +265,37 @@ public class NachosProcess implements Runnable {
 		Interrupt.setLevel(oldLevel);
 	}
 
+	/**
+	 * Starts this process directly on a CPU that is not running anything yet,
+	 * instead of putting it on the ready list. Used to bring up the other CPUs
+	 * of a multiprocessor.
+	 *
+	 * @param pCpu
+	 *            the CPU to run on.
+	 * @param pFunc
+	 *            is the object that has the call function.
+	 * @param pArg
+	 *            is a single argument to be passed to the procedure.
+	 */
+	public void startOn(Cpu pCpu, VoidFunctionPtr pFunc, Object pArg) {
+		Debug.print('t', "Starting Process " + mName + " on CPU " + pCpu.mId);
+
+		myFunc = pFunc;
+		myArg = pArg;
+		mCpu = pCpu;
+
+		// Make this the process running on that CPU
+		Cpu boot = Machine.currentCpu();
+		Machine.setCurrentCpu(pCpu);
+		JNachos.setCurrentProcess(this);
+		Machine.setCurrentCpu(boot);
+		setStatus(ProcessStatus.RUNNING);
+
+		mThread = new Thread(this);
+		mStarted = true;
+		mThread.start();
+	}
+
 	/**
 	 * Called when a Process is done executing the forked procedure.
 	 *
@@ -265,6 +315,10 @@ public class NachosProcess implements Runnable {
 
 		Debug.print('t', "Finishing Process " + getName());
 
+		if (CallGraphProfiler.mEnabled) {
+			CallGraphProfiler.exited(this);
+		}
+
 		// Mark this process as to be destroyed
 		JNachos.setProcessToBeDestroyed(this);
 
@@ -346,6 +400,15 @@ public class NachosProcess implements Runnable {
 		// Set the status for this process to blocked
 		mStatus = ProcessStatus.BLOCKED;
 
+		// A finished process gives its memory back now, rather than when the
+		// next process to run here kills it. On a multiprocessor, the other
+		// CPUs keep taking page faults in between, and must not pick the
+		// frames of a process that is gone as victims.
+		if (JNachos.getProcessToBeDestroyed() == this && mSpace != null) {
+			mSpace.tearDown();
+			mSpace = null;
+		}
+
 		// no one to run, wait for an interrupt
 		while ((nextProcess = Scheduler.findNextToRun()) == null) {
 			Interrupt.idle();
@@ -383,8 +446,9 @@ public class NachosProcess implements Runnable {
 			oldProcess.getSpace().saveState();
 		}
 
-		// switch to the next process
+		// switch to the next process, on this CPU
 		JNachos.setCurrentProcess(pNextProcess);
+		pNextProcess.mCpu = Machine.currentCpu();
 
 		// nextProcess is now running
 		pNextProcess.setStatus(ProcessStatus.RUNNING);
@@ -434,6 +498,15 @@ public class NachosProcess implements Runnable {
 		}
 	}
 
+	/**
+	 * Gets the CPU this process is running on, or last ran on.
+	 *
+	 * @return the CPU, or null if the process has never run.
+	 */
+	public Cpu getCpu() {
+		return mCpu;
+	}
+
 	/**
 	 * Sets the address space for this process.
 	 * 
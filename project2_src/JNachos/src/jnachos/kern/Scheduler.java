@@ -8,7 +8,11 @@
  */
 package jnachos.kern;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+
+import jnachos.machine.*;
 
 /**
  * Routines to choose the next process to run, and to dispatch to that process.
@@ -23,32 +27,41 @@ import java.util.LinkedList;
  * Very simple implementation -- no priorities, straight FIFO. Might need to be
  * improved in later assignments.
  * 
+ * On a multiprocessor, mutual exclusion comes from the kernel lock instead
+ * (see KernelLock), and every CPU has a ready list of its own. A process is
+ * made ready on the CPU it last ran on, so that it tends to stay there; a CPU
+ * whose own list is empty steals from the longest list of another CPU.
  */
 public class Scheduler {
 	/**
-	 * The list of ready to run process.
+	 * The list of ready to run process of each CPU.
 	 */
-	private static LinkedList<NachosProcess> readyList;
+	private static List<LinkedList<NachosProcess>> readyList;
 
 	/**
-	 * Initialize the list of ready but not running process to empty.
+	 * Initialize the lists of ready but not running process to empty.
 	 */
 	Scheduler() {
-		// Create a list of the processes
-		readyList = new LinkedList<NachosProcess>();
+		// Create a list of the processes for each CPU
+		readyList = new ArrayList<LinkedList<NachosProcess>>();
+		for (int i = 0; i < Machine.getNumCpus(); i++) {
+			readyList.add(new LinkedList<NachosProcess>());
+		}
 	}
 
 	/**
 	 * De-allocate the list of ready process.
 	 */
 	public static void killScheduler() {
-		// Iterate through the list of ready Processes
-		while (!readyList.isEmpty()) {
-			// Remove the next process from the list
-			NachosProcess proc = readyList.removeFirst();
+		// Iterate through the lists of ready Processes
+		for (LinkedList<NachosProcess> list : readyList) {
+			while (!list.isEmpty()) {
+				// Remove the next process from the list
+				NachosProcess proc = list.removeFirst();
 
-			// Kill this process
-			proc.kill();
+				// Kill this process
+				proc.kill();
+			}
 		}
 
 		// Mark the ready list as null
@@ -68,8 +81,12 @@ public class Scheduler {
 		// Mark this process as ready to run
 		pProcess.setStatus(ProcessStatus.READY);
 
-		// Add this process to the list of process
-		readyList.addLast(pProcess);
+		// Add this process to the list of the CPU it last ran on
+		Cpu cpu = pProcess.getCpu() != null ? pProcess.getCpu() : Machine.currentCpu();
+		readyList.get(cpu.mId).addLast(pProcess);
+
+		// Idle CPUs can now steal it
+		KernelLock.workAvailable(Machine.currentCpu().mTotalTicks);
 	}
 
 	/**
@@ -80,12 +97,42 @@ public class Scheduler {
 	 * @return The next process that is able to run is returned, null if non.
 	 **/
 	public static NachosProcess findNextToRun() {
-		// If the list is empty return null
-		if (readyList.isEmpty())
-			return null;
+		LinkedList<NachosProcess> list = readyList.get(Machine.currentCpu().mId);
+
+		// If the list is empty try to steal a process
+		if (list.isEmpty())
+			return steal();
 
 		// Return the head of the list
-		return readyList.removeFirst();
+		return list.removeFirst();
+	}
+
+	/**
+	 * Takes a process from the longest ready list of another CPU. The process
+	 * is taken from the tail, as the one that would have waited longest there.
+	 * A process that is on a ready list while it is still running (it was
+	 * woken up before it finished going to sleep) is left to its own CPU.
+	 *
+	 * @return The stolen process, null if there is none.
+	 */
+	private static NachosProcess steal() {
+		LinkedList<NachosProcess> victim = null;
+		for (LinkedList<NachosProcess> list : readyList) {
+			if (!list.isEmpty() && (victim == null || list.size() > victim.size())) {
+				victim = list;
+			}
+		}
+
+		if (victim == null)
+			return null;
+
+		for (int i = victim.size() - 1; i >= 0; i--) {
+			NachosProcess proc = victim.get(i);
+			if (proc.getCpu() == null || JNachos.getCurrentProcess(proc.getCpu()) != proc) {
+				return victim.remove(i);
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -94,8 +141,10 @@ public class Scheduler {
 	 **/
 	public static void Print() {
 		System.out.println("Ready list contents:\n");
-		for (NachosProcess np : readyList) {
-			System.out.println(np);
+		for (LinkedList<NachosProcess> list : readyList) {
+			for (NachosProcess np : list) {
+				System.out.println(np);
+			}
 		}
 	}
 }
@@ -33,6 +33,7 @@ public class StartProcess implements VoidFunctionPtr {
 
 		// Load the file into the memory space
 		AddrSpace space = new AddrSpace(executable);
+		space.setProgramName(filename);
 		JNachos.getCurrentProcess().setSpace(space);
 
 		// set the initial register values
@@ -117,6 +117,11 @@ public class SystemCallHandler {
 																					// the
 																					// child
 																					// process
+			// the child returns from the same calls as the parent
+			if (CallGraphProfiler.mEnabled) {
+				CallGraphProfiler.forked(child);
+			}
+
 			// write to the register of the child process id 0;
 			Machine.writeRegister(2, 0);
 			// save child's user state;
@@ -170,7 +175,7 @@ public class SystemCallHandler {
 			int value = 1;
 			String message = new String();
 			while ((char) value != '\0') {
-				value = Machine.readMem(index, 1);
+				value = Machine.readMem(Machine.currentCpu(), index, 1);
 				message += (char) value;
 				index++;
 			}
@@ -0,0 +1,101 @@
+package jnachos.kern.mem;
+
+import jnachos.kern.AddrSpace;
+import jnachos.machine.Machine;
+
+/**
+ * The aging page replacement algorithm: NFU with a shift register in place of
+ * a count. Every frame has a counter of CounterBits bits. At each sample (see
+ * PageReplacementAlgorithm.sampleReferences()), every counter is shifted right
+ * by one and the use bit of the page in the frame is shifted in at the top, so
+ * a counter records in which of the last CounterBits sample periods its page
+ * was referenced, the most recent period weighing the most. The victim is the
+ * frame with the smallest counter, counting the current period as well: the
+ * frames are compared by the value their counters would have if they were
+ * sampled now.
+ *
+ * For local replacement the victim is the smallest counter among the frames
+ * of one address space.
+ *
+ * Nothing is done on each memory access: the MMU only sets use bits, and the
+ * timer interrupt clears them after each sample.
+ */
+public class Aging implements PageReplacementAlgorithm {
+	/** The width of the counters, from 1 to 31 bits (-agebits). */
+	public static int CounterBits = 8;
+
+	/** The counter of each frame. */
+	private int[] mCounter;
+
+	/** The frame chosen last, to start the search for the next one after. */
+	private int mLastVictim;
+
+	public Aging() {
+		assert (CounterBits >= 1 && CounterBits <= 31);
+		mCounter = new int[Machine.NumPhysPages];
+		mLastVictim = Machine.NumPhysPages - 1;
+	}
+
+	@Override
+	public void sampleReferences() {
+		for (int i = 0; i < Machine.NumPhysPages; i++) {
+			mCounter[i] = sample(i);
+		}
+	}
+
+	@Override
+	public int chooseVictimPage() {
+		return chooseVictimPage(null);
+	}
+
+	/**
+	 * Chooses the frame with the smallest counter.
+	 *
+	 * @param pOwner
+	 *            the address space the victim must belong to, or null for
+	 *            any.
+	 */
+	@Override
+	public int chooseVictimPage(AddrSpace pOwner) {
+		if (Machine.mUSE_TLB) {
+			TLBManager.collectUse();
+		}
+
+		// Ties are broken round robin, starting after the last victim
+		int victim = -1;
+		int least = 0;
+		for (int i = 1; i <= Machine.NumPhysPages; i++) {
+			int frame = (mLastVictim + i) % Machine.NumPhysPages;
+			AddrSpace owner = FrameTable.getOwner(frame);
+			if (owner == null || (pOwner != null && owner != pOwner)) {
+				continue;
+			}
+
+			int value = sample(frame);
+			if (victim < 0 || value < least) {
+				victim = frame;
+				least = value;
+			}
+		}
+
+		if (victim >= 0) {
+			// The page about to be brought into the frame has no history yet
+			mCounter[victim] = 0;
+			mLastVictim = victim;
+		}
+		return victim;
+	}
+
+	/**
+	 * Gets the value the counter of a frame takes when the use bit of its page
+	 * is shifted in.
+	 */
+	private int sample(int pFrame) {
+		int value = mCounter[pFrame] >>> 1;
+		AddrSpace owner = FrameTable.getOwner(pFrame);
+		if (owner != null && owner.mPageTable.isUsed(FrameTable.getVirtualPage(pFrame))) {
+			value |= 1 << (CounterBits - 1);
+		}
+		return value;
+	}
+}
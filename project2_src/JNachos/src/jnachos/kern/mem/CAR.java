@@ -0,0 +1,221 @@
+package jnachos.kern.mem;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import jnachos.kern.AddrSpace;
+import jnachos.kern.Debug;
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+
+/**
+ * CAR (Clock with Adaptive Replacement), the clock-based variant of the
+ * Adaptive Replacement Cache, after Bansal and Modha.
+ *
+ * The frames in use are split between two clocks: T1 holds pages that have
+ * been referenced once since they were brought in (recency), T2 pages that
+ * have been referenced again while in memory (frequency). Two ghost lists
+ * remember pages recently evicted from each clock: B1 from T1 and B2 from
+ * T2. They hold only the identity of each page, the id of its address space
+ * (which identifies its process) and its virtual page number, not the page.
+ *
+ * The target size p of T1 adapts online. A fault on a page in B1 means T1 was
+ * too small, and p grows; a fault on a page in B2 means T2 was too small, and
+ * p shrinks. A page found in either ghost list comes back into T2, and any
+ * other page into T1.
+ *
+ * To choose a victim, the hand of T1 is used while T1 is at least p frames,
+ * and the hand of T2 otherwise. A page under the hand with its use bit clear
+ * is the victim, and goes to the ghost list of its clock. A page in T1 with
+ * its use bit set has been referenced again, so it is moved to T2; a page in
+ * T2 with its use bit set gets a second chance. The use bits are those of the
+ * page tables, found through the FrameTable, so nothing is done per access.
+ *
+ * CAR only adapts when it chooses among all the frames. With local allocation
+ * (-pff) a process replaces one of its own pages, which CAR does not
+ * implement, so the generic second chance scan of
+ * PageReplacementAlgorithm.chooseVictimPage(AddrSpace) is used instead: those
+ * evictions go to no ghost list, and p stops adapting to the workload.
+ */
+public class CAR implements PageReplacementAlgorithm {
+	/** Which clock a frame is on. */
+	private static final int None = 0;
+	private static final int T1 = 1;
+	private static final int T2 = 2;
+
+	/** The clock each frame is on. */
+	private int[] mClock;
+
+	/** The frames of each clock, as circular doubly linked lists. */
+	private int[] mNext;
+	private int[] mPrev;
+
+	/** The frame under the hand of each clock (its head), or -1. */
+	private int[] mHand;
+
+	/** The number of frames on each clock. */
+	private int[] mSize;
+
+	/** The ghost lists, from least to most recently evicted. */
+	private LinkedHashSet<Long> mB1;
+	private LinkedHashSet<Long> mB2;
+
+	/** The target size of T1, p. */
+	private int mTarget;
+
+	/** The number of frames, c. */
+	private int mCapacity;
+
+	public CAR() {
+		mCapacity = Machine.NumPhysPages;
+		mClock = new int[mCapacity];
+		mNext = new int[mCapacity];
+		mPrev = new int[mCapacity];
+		mHand = new int[] { -1, -1, -1 };
+		mSize = new int[3];
+		mB1 = new LinkedHashSet<Long>();
+		mB2 = new LinkedHashSet<Long>();
+		mTarget = 0;
+	}
+
+	/**
+	 * @return the current target size of T1, p, in frames.
+	 */
+	public int getTarget() {
+		return mTarget;
+	}
+
+	@Override
+	public int chooseVictimPage() {
+		// A TLB may hold a use bit the page tables have not seen yet
+		if (Machine.mUSE_TLB) {
+			TLBManager.collectUse();
+		}
+
+		// Other CPUs keep setting use bits while the hands move; after this
+		// many steps, take the page under the hand anyway
+		int steps = 4 * mCapacity;
+		while (mSize[T1] + mSize[T2] > 0) {
+			boolean fromT1 = mSize[T1] > 0 && (mSize[T1] >= Math.max(1, mTarget) || mSize[T2] == 0);
+			int frame = mHand[fromT1 ? T1 : T2];
+			AddrSpace owner = FrameTable.getOwner(frame);
+			PageTable pageTable = owner.mPageTable;
+			int vpn = FrameTable.getVirtualPage(frame);
+
+			if (!pageTable.isUsed(vpn) || --steps < 0) {
+				unlink(frame);
+				remember(fromT1 ? mB1 : mB2, key(owner, vpn));
+				return frame;
+			}
+
+			pageTable.setUsed(vpn, false);
+			if (fromT1) {
+				unlink(frame);
+				append(T2, frame);
+			} else {
+				mHand[T2] = mNext[frame];
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void pageMapped(int pFrame) {
+		Long key = key(FrameTable.getOwner(pFrame), FrameTable.getVirtualPage(pFrame));
+		if (mClock[pFrame] != None) {
+			unlink(pFrame);
+		}
+
+		if (mB1.contains(key)) {
+			mTarget = Math.min(mTarget + Math.max(1, mB2.size() / mB1.size()), mCapacity);
+			mB1.remove(key);
+			append(T2, pFrame);
+			Debug.print('v', "CAR: hit in B1, target " + mTarget);
+		} else if (mB2.contains(key)) {
+			mTarget = Math.max(mTarget - Math.max(1, mB1.size() / mB2.size()), 0);
+			mB2.remove(key);
+			append(T2, pFrame);
+			Debug.print('v', "CAR: hit in B2, target " + mTarget);
+		} else {
+			// Keep the history to no more than the number of frames again
+			if (mSize[T1] + mB1.size() >= mCapacity) {
+				forgetOldest(mB1);
+			} else if (mSize[T1] + mSize[T2] + mB1.size() + mB2.size() >= 2 * mCapacity) {
+				forgetOldest(mB2);
+			}
+			append(T1, pFrame);
+		}
+	}
+
+	@Override
+	public void pageUnmapped(int pFrame) {
+		// A victim has already left its clock; this is a page whose address
+		// space is being torn down
+		if (mClock[pFrame] != None) {
+			unlink(pFrame);
+		}
+	}
+
+	/**
+	 * Gets the key identifying a page in the ghost lists.
+	 */
+	private static Long key(AddrSpace pOwner, int pVpn) {
+		return ((long) pOwner.getId() << 32) | pVpn;
+	}
+
+	/**
+	 * Adds a page to a ghost list as its most recent entry.
+	 */
+	private static void remember(LinkedHashSet<Long> pGhosts, Long pKey) {
+		pGhosts.remove(pKey);
+		pGhosts.add(pKey);
+	}
+
+	/**
+	 * Drops the least recent entry of a ghost list, if it has any.
+	 */
+	private static void forgetOldest(LinkedHashSet<Long> pGhosts) {
+		Iterator<Long> oldest = pGhosts.iterator();
+		if (oldest.hasNext()) {
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * Puts a frame on a clock, just behind its hand.
+	 */
+	private void append(int pClock, int pFrame) {
+		int hand = mHand[pClock];
+		if (hand < 0) {
+			mNext[pFrame] = pFrame;
+			mPrev[pFrame] = pFrame;
+			mHand[pClock] = pFrame;
+		} else {
+			int tail = mPrev[hand];
+			mNext[tail] = pFrame;
+			mPrev[pFrame] = tail;
+			mNext[pFrame] = hand;
+			mPrev[hand] = pFrame;
+		}
+		mClock[pFrame] = pClock;
+		mSize[pClock]++;
+	}
+
+	/**
+	 * Takes a frame off its clock.
+	 */
+	private void unlink(int pFrame) {
+		int clock = mClock[pFrame];
+		if (--mSize[clock] == 0) {
+			mHand[clock] = -1;
+		} else {
+			mNext[mPrev[pFrame]] = mNext[pFrame];
+			mPrev[mNext[pFrame]] = mPrev[pFrame];
+			if (mHand[clock] == pFrame) {
+				mHand[clock] = mNext[pFrame];
+			}
+		}
+		mClock[pFrame] = None;
+	}
+}
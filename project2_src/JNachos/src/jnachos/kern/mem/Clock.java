@@ -0,0 +1,83 @@
+package jnachos.kern.mem;
+
+import jnachos.kern.AddrSpace;
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+
+/**
+ * The CLOCK (second chance) page replacement algorithm. The page frames are
+ * arranged in a circle with a hand pointing at one of them. To choose a
+ * victim, the hand sweeps forward: a frame whose page has its use bit set is
+ * given a second chance (the use bit is cleared and the hand moves on), and
+ * the first frame whose page has not been used since the hand last passed it
+ * is the victim. The hand is left just past the victim.
+ *
+ * The use bits are read and cleared in the page table of the page in each
+ * frame, found through the FrameTable, so nothing has to be done on each
+ * memory access. A sweep passes each frame at most twice, and every frame it
+ * skips has had its use bit cleared, so the work per eviction is O(1)
+ * amortized.
+ *
+ * For local replacement the same hand sweeps, passing over the frames of
+ * other address spaces without touching them.
+ */
+public class Clock implements PageReplacementAlgorithm {
+	/** The frame the hand points at. */
+	private int mHand;
+
+	public Clock() {
+		mHand = 0;
+	}
+
+	@Override
+	public int chooseVictimPage() {
+		return sweep(null);
+	}
+
+	@Override
+	public int chooseVictimPage(AddrSpace pOwner) {
+		return sweep(pOwner);
+	}
+
+	/**
+	 * Moves the hand to the next victim.
+	 *
+	 * @param pOwner
+	 *            the address space the victim must belong to, or null for
+	 *            any.
+	 * @return the frame of the victim, or -1 if there is none.
+	 */
+	private int sweep(AddrSpace pOwner) {
+		int first = -1;
+		for (int i = 0;; i++) {
+			int frame = mHand;
+			mHand = (mHand + 1) % Machine.NumPhysPages;
+
+			AddrSpace owner = FrameTable.getOwner(frame);
+			if (owner == null || (pOwner != null && owner != pOwner)) {
+				if (i >= 2 * Machine.NumPhysPages) {
+					return first;
+				}
+				continue;
+			}
+			if (first < 0) {
+				first = frame;
+			}
+
+			// A TLB may hold a use bit the page table has not seen yet
+			if (Machine.mUSE_TLB) {
+				TLBManager.collectUse(frame);
+			}
+
+			PageTable pageTable = owner.mPageTable;
+			int vpn = FrameTable.getVirtualPage(frame);
+
+			// Other CPUs keep setting use bits during the sweep; after two
+			// full turns, take the frame under the hand anyway
+			if (!pageTable.isUsed(vpn) || i >= 2 * Machine.NumPhysPages) {
+				return frame;
+			}
+			pageTable.setUsed(vpn, false);
+		}
+	}
+}
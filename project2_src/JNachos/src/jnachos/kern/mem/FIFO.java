@@ -3,10 +3,22 @@
 //Xiaozhi Li
 package jnachos.kern.mem;
 import java.util.*;
+import jnachos.kern.AddrSpace;
 
 public class FIFO implements PageReplacementAlgorithm {
   public static List<Integer> list = new ArrayList<Integer>();
-  public FIFO(){};
+  public FIFO(){
+    list.clear();
+  };
+
+  // frames join the queue as pages are brought into them
+  public void pageMapped(int frame){
+    list.add(frame);
+  }
+  // and leave it when their address space is torn down
+  public void pageUnmapped(int frame){
+    list.remove(Integer.valueOf(frame));
+  }
 
   public int chooseVictimPage(){
     //get the first page (which the index is 0)
@@ -17,4 +29,14 @@ public class FIFO implements PageReplacementAlgorithm {
     return happyVictimPage;
   }
 
+  // for local replacement, the oldest page of one process
+  public int chooseVictimPage(AddrSpace owner){
+    for(int i=0;i<list.size();i++){
+      if(FrameTable.getOwner(list.get(i))==owner){
+        return list.remove(i);
+      }
+    }
+    return -1;
+  }
+
 }
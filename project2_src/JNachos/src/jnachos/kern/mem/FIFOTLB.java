@@ -0,0 +1,23 @@
+package jnachos.kern.mem;
+
+import jnachos.machine.Cpu;
+import jnachos.machine.Machine;
+
+/**
+ * Replaces the TLB entries of each CPU in turn, so the entry replaced is the
+ * one that was loaded longest ago.
+ */
+public class FIFOTLB implements TLBReplacementPolicy {
+	/** The next entry to replace, by CPU number. */
+	private int[] mNext = new int[Machine.getNumCpus()];
+
+	public FIFOTLB() {
+	}
+
+	@Override
+	public int chooseVictimEntry(Cpu pCpu) {
+		int victim = mNext[pCpu.mId];
+		mNext[pCpu.mId] = (victim + 1) % Machine.TLBSize;
+		return victim;
+	}
+}
@@ -0,0 +1,213 @@
+package jnachos.kern.mem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jnachos.kern.AddrSpace;
+import jnachos.kern.Debug;
+import jnachos.kern.ExceptionHandler;
+import jnachos.kern.JNachos;
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+import jnachos.machine.Statistics;
+
+/**
+ * Fault-around: a page fault also brings in the pages after the faulting
+ * page, up to Window pages in all (-faultaround), that are not in memory, so
+ * that a program going through its pages in order takes one fault for every
+ * Window pages instead of one for every page.
+ *
+ * The pages brought in are read together with the faulting page, with one
+ * read of the swap space for every run of them whose swap slots follow one
+ * another (as they do for the pages of a program that are swapped in the
+ * order of the address space, see AddrSpace). Their frames are taken as
+ * for the faulting page: free frames while there are any, and then the
+ * frames of victims.
+ *
+ * Since a page brought in may cost a page in use, only a fault that looks
+ * sequential brings in more pages: one on a page past the last page the
+ * process faulted on, and at most Window pages past it. Each such fault
+ * doubles the pages the process's faults bring in, up to Window, and each
+ * page brought in that leaves memory unused halves them, so a process whose
+ * pages after a fault are not wanted soon stops bringing them in.
+ *
+ * The pages are mapped with their use bits clear, so that a page that is not
+ * used before the replacement algorithm next looks at it is among the first
+ * to go. A page brought in this way counts as a hit once its use bit has been
+ * seen set, at a sample of the use bits or when it leaves memory.
+ *
+ * NFU does not look at use bits between samples, so it can choose the pages
+ * of the last fault as victims for the pages around the next; with it,
+ * concurrent programs can thrash with fault-around where they did not.
+ */
+public class FaultAround {
+	/** The pages brought in on a fault, with the faulting page (-faultaround). */
+	public static int Window = 1;
+
+	/** Whether each frame holds a page brought in around a fault, not used yet. */
+	private static boolean[] mPrefetched;
+
+	/**
+	 * Sets up fault-around, once memory has been sized.
+	 */
+	public static void init() {
+		assert (Window > 1);
+		mPrefetched = new boolean[Machine.NumPhysPages];
+	}
+
+	/**
+	 * @return whether or not faults bring in more than the faulting page.
+	 */
+	public static boolean isEnabled() {
+		return Window > 1;
+	}
+
+	/**
+	 * Brings a faulting page into the frame taken for it, and with it the
+	 * pages after it in the window that are not in memory, which are mapped.
+	 * The faulting page is left for the caller to map.
+	 *
+	 * @param pSpace
+	 *            the address space of the faulting process.
+	 * @param pVpn
+	 *            the faulting virtual page.
+	 * @param pFrame
+	 *            the frame taken for it.
+	 * @param pRescued
+	 *            whether the page is still in the frame, and need not be read.
+	 */
+	public static void pageIn(AddrSpace pSpace, int pVpn, int pFrame, boolean pRescued) {
+		PageTable pageTable = pSpace.mPageTable;
+		List<Integer> pages = new ArrayList<Integer>();
+		List<Integer> frames = new ArrayList<Integer>();
+		if (!pRescued) {
+			pages.add(pVpn);
+			frames.add(pFrame);
+		}
+
+		// Only a fault just past the last one (or the pages it brought in)
+		// brings in more pages
+		if (pSpace.mFaultAround == 0) {
+			pSpace.mFaultAround = Window;
+		}
+		int last = pVpn;
+		if (pSpace.mLastFault >= 0 && pVpn > pSpace.mLastFault && pVpn <= pSpace.mLastFault + Window) {
+			pSpace.mFaultAround = Math.min(2 * pSpace.mFaultAround, Window);
+			last = Math.min(pVpn + pSpace.mFaultAround, pageTable.size());
+		}
+		pSpace.mLastFault = pVpn;
+
+		// Take frames for the pages after it. None of them is mapped until
+		// all are read, so none can be chosen as the victim for another; this
+		// goes for the pages still in the frames the page daemon freed too.
+		List<Integer> rescuedPages = new ArrayList<Integer>();
+		List<Integer> rescuedFrames = new ArrayList<Integer>();
+		for (int vpn = pVpn + 1; vpn < last; vpn++) {
+			if (pageTable.isValid(vpn)) {
+				continue;
+			}
+
+			int frame = PageDaemon.mEnabled ? PageDaemon.rescue(pSpace, vpn) : -1;
+			if (frame >= 0) {
+				rescuedPages.add(vpn);
+				rescuedFrames.add(frame);
+				continue;
+			}
+
+			frame = ExceptionHandler.takeFrame(pSpace, vpn);
+			if (frame < 0) {
+				break;
+			}
+			pages.add(vpn);
+			frames.add(frame);
+		}
+
+		// Read the runs of pages in consecutive swap slots together
+		for (int i = 0; i < pages.size();) {
+			int vpn = pages.get(i);
+			int run = 1;
+			if (pageTable.isSwapped(vpn)) {
+				while (i + run < pages.size() && pageTable.isSwapped(pages.get(i + run))
+						&& pageTable.getSwapSlot(pages.get(i + run)) == pageTable.getSwapSlot(vpn) + run) {
+					run++;
+				}
+			}
+
+			if (run == 1) {
+				pSpace.pageIn(vpn, frames.get(i));
+			} else {
+				byte[] bytes = new byte[run * Machine.PageSize];
+				JNachos.mSwapSpace.readAt(bytes, bytes.length, pageTable.getSwapSlot(vpn) * Machine.PageSize);
+				for (int j = 0; j < run; j++) {
+					System.arraycopy(bytes, j * Machine.PageSize, Machine.mMainMemory,
+							frames.get(i + j) * Machine.PageSize, Machine.PageSize);
+				}
+				Statistics.numSwapReads++;
+				Debug.print('v', "Fault-around: read pages " + vpn + "-" + (vpn + run - 1) + " from swap at once");
+			}
+			i += run;
+		}
+
+		for (int i = 0; i < pages.size(); i++) {
+			if (pages.get(i) != pVpn) {
+				map(pSpace, pages.get(i), frames.get(i));
+			}
+		}
+		for (int i = 0; i < rescuedPages.size(); i++) {
+			map(pSpace, rescuedPages.get(i), rescuedFrames.get(i));
+		}
+	}
+
+	/**
+	 * Maps a page brought in around a fault, with its use bit clear.
+	 */
+	private static void map(AddrSpace pSpace, int pVpn, int pFrame) {
+		ExceptionHandler.mapPage(pSpace, pVpn, pFrame, false);
+		mPrefetched[pFrame] = true;
+		Statistics.numPrefetched++;
+	}
+
+	/**
+	 * Counts the pages brought in around a fault that have been used since
+	 * the last sample. Called from the timer interrupt once every sample
+	 * period, before the use bits are cleared.
+	 */
+	public static void sampleReferences() {
+		for (int i = 0; i < Machine.NumPhysPages; i++) {
+			if (mPrefetched[i]) {
+				used(i);
+			}
+		}
+	}
+
+	/**
+	 * Counts a page brought in around a fault that is leaving its frame if
+	 * it has been used, and halves the pages its process's faults bring in
+	 * if not. Called from FrameTable.unmap().
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 */
+	public static void frameUnmapped(int pFrame) {
+		if (mPrefetched[pFrame]) {
+			used(pFrame);
+			if (mPrefetched[pFrame]) {
+				AddrSpace owner = FrameTable.getOwner(pFrame);
+				owner.mFaultAround = Math.max(1, owner.mFaultAround / 2);
+			}
+			mPrefetched[pFrame] = false;
+		}
+	}
+
+	/**
+	 * Counts the page brought in around a fault in a frame as a hit if its
+	 * use bit is set.
+	 */
+	private static void used(int pFrame) {
+		AddrSpace owner = FrameTable.getOwner(pFrame);
+		if (owner.mPageTable.isUsed(FrameTable.getVirtualPage(pFrame))) {
+			mPrefetched[pFrame] = false;
+			Statistics.numPrefetchHits++;
+		}
+	}
+}
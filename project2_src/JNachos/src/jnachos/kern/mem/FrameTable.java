@@ -0,0 +1,98 @@
+package jnachos.kern.mem;
+
+import java.util.Arrays;
+
+import jnachos.kern.AddrSpace;
+import jnachos.kern.JNachos;
+import jnachos.machine.Machine;
+
+/**
+ * The core map: what is in each page frame of main memory. For every frame
+ * that holds a page, it records the address space the page belongs to and
+ * the virtual page number of the page, so that the kernel can go from a frame
+ * to its page table entry without searching any page table.
+ *
+ * It must be kept up to date wherever a frame is given to a page or taken
+ * away from it: when a page is faulted in, when it is evicted, and when an
+ * address space is torn down. On a multiprocessor it is only touched with the
+ * kernel lock held.
+ *
+ * The page replacement algorithm is told about every change
+ * (PageReplacementAlgorithm.pageMapped() and pageUnmapped()).
+ */
+public class FrameTable {
+	/** The address space owning the page in each frame, or null. */
+	private static AddrSpace[] mOwner;
+
+	/** The virtual page held in each frame, or -1. */
+	private static int[] mVirtualPage;
+
+	/**
+	 * Empties the table, at system startup.
+	 */
+	public static void init() {
+		mOwner = new AddrSpace[Machine.NumPhysPages];
+		mVirtualPage = new int[Machine.NumPhysPages];
+		Arrays.fill(mVirtualPage, -1);
+	}
+
+	/**
+	 * Records that a frame now holds a page.
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 * @param pOwner
+	 *            the address space the page belongs to.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 */
+	public static void map(int pFrame, AddrSpace pOwner, int pVpn) {
+		assert (pOwner.mPageTable.getFrame(pVpn) == pFrame);
+		mOwner[pFrame] = pOwner;
+		mVirtualPage[pFrame] = pVpn;
+		pOwner.mResidentPages++;
+		if (PageDaemon.mEnabled) {
+			PageDaemon.frameReused(pFrame);
+		}
+		JNachos.getPageReplacementAlgorithm().pageMapped(pFrame);
+	}
+
+	/**
+	 * Records that a frame no longer holds a page.
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 */
+	public static void unmap(int pFrame) {
+		if (FaultAround.isEnabled()) {
+			FaultAround.frameUnmapped(pFrame);
+		}
+		JNachos.getPageReplacementAlgorithm().pageUnmapped(pFrame);
+		mOwner[pFrame].mResidentPages--;
+		mOwner[pFrame] = null;
+		mVirtualPage[pFrame] = -1;
+	}
+
+	/**
+	 * Gets the address space owning the page in a frame.
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 * @return the owner, or null if the frame is free.
+	 */
+	public static AddrSpace getOwner(int pFrame) {
+		return mOwner[pFrame];
+	}
+
+	/**
+	 * Gets the virtual page number of the page in a frame, which indexes the
+	 * page table of the owner.
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 * @return the virtual page number, or -1 if the frame is free.
+	 */
+	public static int getVirtualPage(int pFrame) {
+		return mVirtualPage[pFrame];
+	}
+}
@@ -0,0 +1,24 @@
+package jnachos.kern.mem;
+
+import jnachos.machine.Cpu;
+import jnachos.machine.Machine;
+
+/**
+ * Replaces the TLB entry that was used least recently, going by the time
+ * stamps the MMU keeps for every entry (Cpu.mTlbLastUse).
+ */
+public class LRUTLB implements TLBReplacementPolicy {
+	public LRUTLB() {
+	}
+
+	@Override
+	public int chooseVictimEntry(Cpu pCpu) {
+		int victim = 0;
+		for (int i = 1; i < Machine.TLBSize; i++) {
+			if (pCpu.mTlbLastUse[i] < pCpu.mTlbLastUse[victim]) {
+				victim = i;
+			}
+		}
+		return victim;
+	}
+}
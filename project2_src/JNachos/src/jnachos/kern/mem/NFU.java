@@ -1,19 +1,43 @@
 package jnachos.kern.mem;
-import jnachos.machine.MMU;
+import jnachos.kern.AddrSpace;
 import jnachos.machine.Machine;
-import jnachos.machine.TranslationEntry;
 
 public class NFU implements PageReplacementAlgorithm{
-  public static int[] counter=new int[30];
-  public NFU(){};
+  public static int[] counter;
+  public NFU(){
+    // one counter per page frame
+    counter=new int[Machine.NumPhysPages];
+  };
+  // count the pages referenced since the last sample
+  public void sampleReferences(){
+    for(int i=0;i<Machine.NumPhysPages;i++){
+      AddrSpace owner=FrameTable.getOwner(i);
+      if(owner!=null && owner.mPageTable.isUsed(FrameTable.getVirtualPage(i))){
+        counter[i]++;
+      }
+    }
+  }
   public int chooseVictimPage(){
+    // the page daemon evicts many pages between samples, which the choice
+    // below (between neighbouring counters only) would make at random, so
+    // with it take the least used page in memory; the counters are still
+    // forgotten after each choice, or pages used long ago would hold their
+    // frames and leave a newer process too few to run in
+    if(PageDaemon.mEnabled){
+      int victim=leastUsed(null);
+      for(int k=0;k<Machine.NumPhysPages;k++){
+        counter[k]=0;
+      }
+      return victim;
+    }
     int index=0;
     int temp=0;
     if(counter[0]==0){
       temp=counter[0];
     }
+    // frames holding no page (freed by the page daemon) are never victims
     for(int i=0;i<Machine.NumPhysPages-1;i++){
-      if(counter[i+1]<counter[i]){
+      if(FrameTable.getOwner(i+1)!=null && (counter[i+1]<counter[i] || FrameTable.getOwner(index)==null)){
         temp=counter[i+1];
         index=i+1;
       }
@@ -24,4 +48,33 @@ public class NFU implements PageReplacementAlgorithm{
     }
     return victimPage;
   }
+  // for local replacement, the least used page of one process
+  public int chooseVictimPage(AddrSpace owner){
+    return leastUsed(owner);
+  }
+  // the least used page of a process, or of any if owner is null; pages
+  // used since the last sample go last, since the counter of a page just
+  // brought in (and the pages an instruction needs) still says nothing
+  private int leastUsed(AddrSpace owner){
+    int victim=-1;
+    long least=0;
+    for(int i=0;i<Machine.NumPhysPages;i++){
+      AddrSpace o=FrameTable.getOwner(i);
+      if(o==null || (owner!=null && o!=owner)){
+        continue;
+      }
+      long uses=counter[i];
+      if(o.mPageTable.isUsed(FrameTable.getVirtualPage(i))){
+        uses+=1L<<32;
+      }
+      if(victim<0 || uses<least){
+        victim=i;
+        least=uses;
+      }
+    }
+    if(victim>=0){
+      counter[victim]=0;
+    }
+    return victim;
+  }
 }
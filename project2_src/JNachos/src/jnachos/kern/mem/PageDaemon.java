@@ -0,0 +1,282 @@
+package jnachos.kern.mem;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jnachos.kern.AddrSpace;
+import jnachos.kern.Debug;
+import jnachos.kern.JNachos;
+import jnachos.kern.NachosProcess;
+import jnachos.kern.VoidFunctionPtr;
+import jnachos.kern.sync.Semaphore;
+import jnachos.machine.Interrupt;
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+import jnachos.machine.Statistics;
+
+/**
+ * The page-out daemon: a kernel process that keeps free page frames in
+ * reserve, so that a page fault can usually take a free frame instead of
+ * choosing a victim and writing it back itself. Turned on with -pagedaemon.
+ *
+ * The daemon sleeps until it is woken, either by a page fault that leaves
+ * fewer than LowWatermark frames free, or by the timer while fewer than
+ * HighWatermark are free. Each time it runs, it evicts the pages the page
+ * replacement algorithm chooses until HighWatermark frames are free, then
+ * sweeps on through memory writing up to CleanBatch dirty pages that have not
+ * been used for CleanAge samples of the use bits to swap (AddrSpace.clean()),
+ * so that they can later be evicted without being written. Pages that are
+ * still being written are left alone, so as not to write them over and over.
+ *
+ * A page the daemon evicts stays in its frame until the frame is reused, so
+ * a fault on it before then takes the frame back without reading the page
+ * (a rescue). The free frames are then not lost to the processes, only held
+ * ready. (Not with superpages, which place pages in frames themselves.)
+ *
+ * A fault that still finds no free frame, because the daemon has not run
+ * since memory ran low, chooses a victim itself as without the daemon; these
+ * are counted as direct reclaims.
+ */
+public class PageDaemon implements VoidFunctionPtr {
+	/** Whether or not the daemon runs (-pagedaemon). */
+	public static boolean mEnabled;
+
+	/**
+	 * The free frames below which a fault wakes the daemon, and up to which it
+	 * frees frames (-watermarks). Set from the size of memory when the daemon
+	 * starts, unless given.
+	 */
+	public static int LowWatermark = -1;
+	public static int HighWatermark = -1;
+
+	/** The most dirty pages written back on each run. */
+	public static final int CleanBatch = 4;
+
+	/** The samples a dirty page must go unused for to be written back early. */
+	public static final int CleanAge = 8;
+
+	/** The samples since the page in each frame was last used. */
+	private static int[] mIdle;
+
+	/**
+	 * The free frames that still hold the page the daemon evicted from them,
+	 * by the page (the id of its address space and its virtual page number),
+	 * and the page each free frame holds, or -1.
+	 */
+	private static Map<Long, Integer> mFreed;
+	private static long[] mFreedPage;
+
+	/** The daemon sleeps on this. */
+	private static Semaphore mWakeup;
+
+	/** Whether the daemon has been woken and has not run yet. */
+	private static boolean mWoken;
+
+	/** The frame the sweep for dirty pages continues from. */
+	private static int mHand;
+
+	/**
+	 * Starts the daemon, once memory and the page replacement algorithm are
+	 * set up.
+	 */
+	public static void start() {
+		if (LowWatermark < 0) {
+			LowWatermark = Math.max(1, Machine.NumPhysPages / 16);
+		}
+		if (HighWatermark < 0) {
+			HighWatermark = Math.max(LowWatermark + 1, Machine.NumPhysPages / 8);
+		}
+		assert (LowWatermark <= HighWatermark && HighWatermark < Machine.NumPhysPages);
+		Debug.print('v', "Page daemon: watermarks low " + LowWatermark + ", high " + HighWatermark);
+
+		mIdle = new int[Machine.NumPhysPages];
+		mFreed = new LinkedHashMap<Long, Integer>();
+		mFreedPage = new long[Machine.NumPhysPages];
+		Arrays.fill(mFreedPage, -1);
+		mWakeup = new Semaphore("page daemon", 0);
+		new NachosProcess("page daemon").fork(new PageDaemon(), null);
+	}
+
+	/**
+	 * Takes back the frame of a page the daemon evicted, if the frame has not
+	 * been reused since. The page is still in it, and clean.
+	 *
+	 * @param pSpace
+	 *            the address space of the page.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 * @return the frame, now in use, or -1 if the page is not in a free frame.
+	 */
+	public static int rescue(AddrSpace pSpace, int pVpn) {
+		Integer frame = mFreed.remove(page(pSpace, pVpn));
+		if (frame == null) {
+			return -1;
+		}
+
+		mFreedPage[frame] = -1;
+		AddrSpace.mFreeMap.mark(frame);
+		Statistics.numDaemonRescues++;
+		return frame;
+	}
+
+	/**
+	 * Takes a free frame for a page fault: one that holds no evicted page if
+	 * there is one, or else the one whose page was evicted longest ago, so
+	 * that the pages evicted last stay longest to be rescued.
+	 *
+	 * @return the frame, now in use, or -1 if there are no free frames.
+	 */
+	public static int allocate() {
+		for (int frame = 0; frame < Machine.NumPhysPages; frame++) {
+			if (!AddrSpace.mFreeMap.test(frame) && mFreedPage[frame] < 0) {
+				AddrSpace.mFreeMap.mark(frame);
+				return frame;
+			}
+		}
+
+		Iterator<Integer> oldest = mFreed.values().iterator();
+		if (!oldest.hasNext()) {
+			return -1;
+		}
+		int frame = oldest.next();
+		oldest.remove();
+		mFreedPage[frame] = -1;
+		AddrSpace.mFreeMap.mark(frame);
+		return frame;
+	}
+
+	/**
+	 * Forgets the page left in a free frame, because the frame is being given
+	 * another page. Called from FrameTable.map().
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 */
+	public static void frameReused(int pFrame) {
+		if (mFreedPage[pFrame] >= 0) {
+			mFreed.remove(mFreedPage[pFrame]);
+			mFreedPage[pFrame] = -1;
+		}
+	}
+
+	/**
+	 * Called when a page fault has taken a frame; wakes the daemon if too few
+	 * are left free.
+	 */
+	public static void frameTaken() {
+		if (AddrSpace.mFreeMap.numClear() < LowWatermark) {
+			wake();
+		}
+	}
+
+	/**
+	 * Called on every timer interrupt; wakes the daemon if fewer frames are
+	 * free than it keeps.
+	 */
+	public static void tick() {
+		if (AddrSpace.mFreeMap.numClear() < HighWatermark) {
+			wake();
+		}
+	}
+
+	/**
+	 * Ages the page in every frame by its use bit. Called from the timer
+	 * interrupt once every sample period, before the use bits are cleared.
+	 */
+	public static void sampleReferences() {
+		for (int i = 0; i < Machine.NumPhysPages; i++) {
+			AddrSpace owner = FrameTable.getOwner(i);
+			if (owner != null && owner.mPageTable.isUsed(FrameTable.getVirtualPage(i))) {
+				mIdle[i] = 0;
+			} else {
+				mIdle[i]++;
+			}
+		}
+	}
+
+	/**
+	 * Wakes the daemon, unless it is already due to run.
+	 */
+	private static void wake() {
+		if (!mWoken) {
+			mWoken = true;
+			mWakeup.V();
+		}
+	}
+
+	/**
+	 * The body of the daemon process.
+	 *
+	 * @param pDummy
+	 *            is not used.
+	 */
+	public void call(Object pDummy) {
+		while (true) {
+			mWakeup.P();
+
+			boolean oldLevel = Interrupt.setLevel(false);
+			mWoken = false;
+			Statistics.numDaemonRuns++;
+			reclaim();
+			preClean();
+			Interrupt.setLevel(oldLevel);
+		}
+	}
+
+	/**
+	 * Evicts pages until HighWatermark frames are free.
+	 */
+	private static void reclaim() {
+		while (AddrSpace.mFreeMap.numClear() < HighWatermark) {
+			int frame = JNachos.getPageReplacementAlgorithm().chooseVictimPage();
+			AddrSpace owner = frame < 0 ? null : FrameTable.getOwner(frame);
+			if (owner == null) {
+				return;
+			}
+
+			int vpn = FrameTable.getVirtualPage(frame);
+			owner.evict(vpn, frame);
+			AddrSpace.mFreeMap.clear(frame);
+			Statistics.numDaemonEvictions++;
+
+			if (Machine.SuperPageSize == 1) {
+				mFreedPage[frame] = page(owner, vpn);
+				mFreed.put(mFreedPage[frame], frame);
+			}
+		}
+	}
+
+	/**
+	 * Gets the key identifying a page among the free frames.
+	 */
+	private static long page(AddrSpace pOwner, int pVpn) {
+		return ((long) pOwner.getId() << 32) | pVpn;
+	}
+
+	/**
+	 * Writes up to CleanBatch dirty pages that have gone unused for CleanAge
+	 * samples to swap.
+	 */
+	private static void preClean() {
+		int cleaned = 0;
+		for (int i = 0; i < Machine.NumPhysPages && cleaned < CleanBatch; i++) {
+			int frame = mHand;
+			mHand = (mHand + 1) % Machine.NumPhysPages;
+
+			AddrSpace owner = FrameTable.getOwner(frame);
+			if (owner == null) {
+				continue;
+			}
+
+			PageTable pageTable = owner.mPageTable;
+			int vpn = FrameTable.getVirtualPage(frame);
+			if (mIdle[frame] >= CleanAge && pageTable.isDirty(vpn) && !pageTable.isUsed(vpn)) {
+				owner.clean(vpn, frame);
+				Statistics.numDaemonCleans++;
+				cleaned++;
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package jnachos.kern.mem;
+
+import jnachos.kern.AddrSpace;
+import jnachos.kern.Debug;
+import jnachos.kern.JNachos;
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+
+/**
+ * Local page frame allocation, with the quota of each process set by the
+ * page-fault-frequency (PFF) algorithm. Turned on with -pff.
+ *
+ * Every process has a quota of page frames, which decides where the frame
+ * for a faulting page comes from once there are no free frames left. A
+ * process holding at least as many frames as its quota replaces one of its
+ * own pages (see PageReplacementAlgorithm.chooseVictimPage(AddrSpace)), so
+ * that a process that thrashes only slows itself down. A process below its
+ * quota takes a frame from the process holding the most frames over its
+ * quota. Only if no process is over its quota (the quotas add up to more
+ * than memory) is the victim chosen from all pages, as without -pff. While
+ * there are free frames, any process may take them.
+ *
+ * The quotas adapt to the fault rate of each process, measured over windows
+ * of Window ticks of its virtual time (see AddrSpace.getVirtualTime()), so
+ * that time spent waiting to run does not count. At the end of each window a
+ * process that took more than HighFaults faults in it gets a quarter more
+ * frames, and one that took fewer than LowFaults gives up an eighth of them,
+ * down to MinQuota. The frames a process holds over its quota are the first
+ * taken by other processes.
+ *
+ * The quota and fault rate of each process are printed with -d v as they
+ * change, and with the statistics when the process finishes.
+ */
+public class PageFaultFrequency {
+	/** Whether or not frames are allocated locally (-pff). */
+	public static boolean mEnabled;
+
+	/** The window the fault rate is measured over, in ticks of virtual time. */
+	public static int Window = 10000;
+
+	/** The faults in a window below which a quota shrinks and above which it grows. */
+	public static int LowFaults = 1;
+	public static int HighFaults = 4;
+
+	/** The smallest quota: enough for an instruction and its operands. */
+	public static final int MinQuota = 4;
+
+	/**
+	 * Records a page fault of a process.
+	 *
+	 * @param pSpace
+	 *            the address space of the faulting process.
+	 */
+	public static void faulted(AddrSpace pSpace) {
+		if (pSpace.mFrameQuota == 0) {
+			pSpace.mFrameQuota = Math.max(MinQuota, Machine.NumPhysPages / 4);
+			pSpace.mPeakQuota = pSpace.mFrameQuota;
+		}
+		pSpace.mWindowFaults++;
+		adjust(pSpace);
+	}
+
+	/**
+	 * Chooses the victim for a page fault when there are no free frames: one
+	 * of the faulting process's own pages if it is at its quota, or else one
+	 * of the process holding the most frames over its quota.
+	 *
+	 * @param pSpace
+	 *            the address space of the faulting process.
+	 * @return the frame, or -1 if the process is below its quota and no
+	 *         process is over its quota.
+	 */
+	public static int chooseVictimPage(AddrSpace pSpace) {
+		PageReplacementAlgorithm algorithm = JNachos.getPageReplacementAlgorithm();
+		if (pSpace.mResidentPages >= pSpace.mFrameQuota) {
+			return algorithm.chooseVictimPage(pSpace);
+		}
+
+		AddrSpace over = null;
+		for (int i = 0; i < Machine.NumPhysPages; i++) {
+			AddrSpace owner = FrameTable.getOwner(i);
+			if (owner != null && owner.mResidentPages > owner.mFrameQuota && (over == null
+					|| owner.mResidentPages - owner.mFrameQuota > over.mResidentPages - over.mFrameQuota)) {
+				over = owner;
+			}
+		}
+		return over == null ? -1 : algorithm.chooseVictimPage(over);
+	}
+
+	/**
+	 * Ends the window of a process if it has run for long enough, and grows
+	 * or shrinks its quota by the faults it took in the window. Called on
+	 * every fault of the process and, while it runs, from the timer
+	 * interrupt, so that a process that stops faulting also gets its window
+	 * ended.
+	 *
+	 * @param pSpace
+	 *            the address space of the process.
+	 */
+	public static void adjust(AddrSpace pSpace) {
+		int elapsed = pSpace.getVirtualTime() - pSpace.mWindowStart;
+		if (pSpace.mFrameQuota == 0 || elapsed < Window) {
+			return;
+		}
+
+		// A window can be overrun between timer interrupts
+		long faults = (long) pSpace.mWindowFaults * Window / elapsed;
+		int quota = pSpace.mFrameQuota;
+		if (faults > HighFaults) {
+			quota = Math.min(quota + Math.max(1, quota / 4), Machine.NumPhysPages);
+		} else if (faults < LowFaults) {
+			quota = Math.max(quota - Math.max(1, quota / 8), MinQuota);
+		}
+
+		if (quota != pSpace.mFrameQuota) {
+			Debug.print('v', "PFF: " + pSpace.getProgramName() + " took " + faults + " faults in " + Window
+					+ " ticks, quota " + pSpace.mFrameQuota + " -> " + quota + ", holding " + pSpace.mResidentPages);
+			pSpace.mFrameQuota = quota;
+			pSpace.mPeakQuota = Math.max(pSpace.mPeakQuota, quota);
+		}
+		pSpace.mWindowFaults = 0;
+		pSpace.mWindowStart += elapsed;
+	}
+
+	/**
+	 * Chooses a victim among the pages of one process by second chance, with
+	 * a hand of the process's own that sweeps its frames. This is the local
+	 * replacement of algorithms that have none of their own.
+	 *
+	 * @param pOwner
+	 *            the address space whose pages may be chosen.
+	 * @return the frame of the victim, or -1 if the process holds no frames.
+	 */
+	public static int secondChance(AddrSpace pOwner) {
+		if (Machine.mUSE_TLB) {
+			TLBManager.collectUse();
+		}
+
+		int first = -1;
+		for (int i = 0; i < 2 * Machine.NumPhysPages; i++) {
+			int frame = pOwner.mLocalHand;
+			pOwner.mLocalHand = (frame + 1) % Machine.NumPhysPages;
+			if (FrameTable.getOwner(frame) != pOwner) {
+				continue;
+			}
+
+			PageTable pageTable = pOwner.mPageTable;
+			int vpn = FrameTable.getVirtualPage(frame);
+			if (!pageTable.isUsed(vpn)) {
+				return frame;
+			}
+			pageTable.setUsed(vpn, false);
+			if (first < 0) {
+				first = frame;
+			}
+		}
+
+		// Other CPUs may keep setting use bits; take the first frame passed
+		return first;
+	}
+}
@@ -1,5 +1,7 @@
 package jnachos.kern.mem;
 
+import jnachos.kern.AddrSpace;
+
 public interface PageReplacementAlgorithm {
 
 	/**
@@ -7,4 +9,48 @@ public interface PageReplacementAlgorithm {
 	 * @return A physical page frame that should be evicted.
 	 */
 	public int chooseVictimPage();
+
+	/**
+	 * Chooses a victim among the pages of one address space, for local
+	 * replacement (see PageFaultFrequency). By default this is second
+	 * chance over the frames of the address space.
+	 *
+	 * @param pOwner
+	 *            the address space whose pages may be chosen.
+	 * @return A physical page frame of pOwner that should be evicted, or -1
+	 *         if it has none.
+	 */
+	public default int chooseVictimPage(AddrSpace pOwner) {
+		return PageFaultFrequency.secondChance(pOwner);
+	}
+
+	/**
+	 * Samples the use bits of the pages in memory. This is called from the
+	 * timer interrupt once every sample period, just before the use bit of
+	 * every page in memory is cleared, so that an algorithm keeping a history
+	 * of references can read them through the FrameTable.
+	 */
+	public default void sampleReferences() {
+	}
+
+	/**
+	 * Tells the algorithm that a frame has been given a page, which
+	 * FrameTable now records. Called from FrameTable.map().
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 */
+	public default void pageMapped(int pFrame) {
+	}
+
+	/**
+	 * Tells the algorithm that a frame no longer holds a page, because the
+	 * page was evicted or its address space torn down. Called from
+	 * FrameTable.unmap(), while FrameTable still records the page.
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 */
+	public default void pageUnmapped(int pFrame) {
+	}
 }
@@ -0,0 +1,148 @@
+package jnachos.kern.mem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the page replacement algorithms by running user programs in the
+ * simulator under each of them and each number of page frames, and reports
+ * the page faults, dirty pages written back, simulated ticks and host time of
+ * every run:
+ *
+ * <pre>
+ *   java jnachos.kern.mem.PageReplacementBenchmark [-vm fifo,clock] [-physpages 16,32]
+ *       [-x "test/sort;test/matmult,test/sort"] [-- other options]
+ * </pre>
+ *
+ * Each run is a separate JNachos (jnachos.Main -vm A -physpages N -x P), so
+ * that no run sees the state left by another. The runs share the DISK and
+ * swap space files of the current directory, so they are made one at a time.
+ * A program list with commas runs the programs as concurrent processes, as
+ * with -x; the options after -- are passed to every run.
+ */
+public class PageReplacementBenchmark {
+	/** The lines of the statistics a run prints that are kept. */
+	private static final Pattern TicksLine = Pattern.compile("Ticks: total (\\d+),");
+	private static final Pattern PagingLine = Pattern.compile("Paging: faults (\\d+), page outs (\\d+)");
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            optionally -vm with a comma separated list of algorithms,
+	 *            -physpages with a comma separated list of frame counts, -x
+	 *            with a semicolon separated list of programs, and -- followed
+	 *            by options for every run.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List<String> names = new ArrayList<String>(PageReplacementRegistry.getNames());
+		String[] frames = { "16", "32", "64" };
+		String[] programs = { "test/sort", "test/matmult", "test/matmult,test/sort" };
+		List<String> extra = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--")) {
+				extra.addAll(Arrays.asList(args).subList(i + 1, args.length));
+				break;
+			} else if (i + 1 < args.length && args[i].equals("-vm")) {
+				names = Arrays.asList(args[++i].split(","));
+			} else if (i + 1 < args.length && args[i].equals("-physpages")) {
+				frames = args[++i].split(",");
+			} else if (i + 1 < args.length && args[i].equals("-x")) {
+				programs = args[++i].split(";");
+			} else {
+				System.out.println("usage: PageReplacementBenchmark [-vm a,...] [-physpages n,...] "
+						+ "[-x program[,program];...] [-- options]");
+				System.exit(1);
+			}
+		}
+
+		for (String name : names) {
+			if (!PageReplacementRegistry.contains(name)) {
+				System.out.println("Unknown page replacement algorithm " + name);
+				System.exit(1);
+			}
+		}
+
+		System.out.println(String.format("%-24s %-10s %6s %10s %12s %12s %8s", "program", "algorithm", "frames",
+				"faults", "write-backs", "ticks", "ms"));
+		for (String program : programs) {
+			for (String count : frames) {
+				for (String name : names) {
+					long start = System.nanoTime();
+					long[] result = run(name, count, program, extra);
+					long ms = (System.nanoTime() - start) / 1000000;
+					if (result == null) {
+						System.out.println(String.format("%-24s %-10s %6s %10s %12s %12s %8d", program, name, count,
+								"-", "-", "-", ms));
+					} else {
+						System.out.println(String.format("%-24s %-10s %6s %10d %12d %12d %8d", program, name, count,
+								result[0], result[1], result[2], ms));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs programs in a new JNachos.
+	 *
+	 * @param pAlgorithm
+	 *            the page replacement algorithm.
+	 * @param pFrames
+	 *            the number of page frames.
+	 * @param pProgram
+	 *            the programs, as given to -x.
+	 * @param pExtra
+	 *            other options for the run.
+	 * @return the page faults, page outs and total ticks of the run, or null
+	 *         if it did not report them.
+	 */
+	private static long[] run(String pAlgorithm, String pFrames, String pProgram, List<String> pExtra)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + "/bin/java");
+		command.add("-enableassertions");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("jnachos.Main");
+		command.add("-vm");
+		command.add(pAlgorithm);
+		command.add("-physpages");
+		command.add(pFrames);
+		command.addAll(pExtra);
+		command.add("-x");
+		command.add(pProgram);
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		long ticks = -1;
+		long faults = -1;
+		long pageOuts = -1;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				Matcher matcher = TicksLine.matcher(line);
+				if (matcher.find()) {
+					ticks = Long.parseLong(matcher.group(1));
+				}
+				matcher = PagingLine.matcher(line);
+				if (matcher.find()) {
+					faults = Long.parseLong(matcher.group(1));
+					pageOuts = Long.parseLong(matcher.group(2));
+				}
+			}
+		}
+		process.waitFor();
+
+		if (ticks < 0 || faults < 0) {
+			return null;
+		}
+		return new long[] { faults, pageOuts, ticks };
+	}
+}
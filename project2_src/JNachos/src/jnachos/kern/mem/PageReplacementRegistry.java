@@ -0,0 +1,54 @@
+package jnachos.kern.mem;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The page replacement algorithms, by the names they are selected with
+ * (-vm). An algorithm is created once memory has been sized, since most of
+ * them keep state per page frame.
+ */
+public class PageReplacementRegistry {
+	/** The algorithm used when none is selected. */
+	public static final String DefaultAlgorithm = "nfu";
+
+	/** The algorithms, by name, in the order they are listed. */
+	private static final Map<String, Supplier<PageReplacementAlgorithm>> mAlgorithms = new LinkedHashMap<String, Supplier<PageReplacementAlgorithm>>();
+
+	static {
+		mAlgorithms.put("nfu", NFU::new);
+		mAlgorithms.put("fifo", FIFO::new);
+		mAlgorithms.put("clock", Clock::new);
+		mAlgorithms.put("aging", Aging::new);
+		mAlgorithms.put("wsclock", WSClock::new);
+		mAlgorithms.put("car", CAR::new);
+	}
+
+	/**
+	 * @return the names of the algorithms.
+	 */
+	public static Set<String> getNames() {
+		return mAlgorithms.keySet();
+	}
+
+	/**
+	 * @return whether or not there is an algorithm with a name.
+	 */
+	public static boolean contains(String pName) {
+		return mAlgorithms.containsKey(pName);
+	}
+
+	/**
+	 * Creates an algorithm.
+	 *
+	 * @param pName
+	 *            the name of the algorithm.
+	 * @return the new algorithm.
+	 */
+	public static PageReplacementAlgorithm create(String pName) {
+		assert (contains(pName));
+		return mAlgorithms.get(pName).get();
+	}
+}
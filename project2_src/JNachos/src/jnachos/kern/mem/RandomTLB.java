@@ -0,0 +1,22 @@
+package jnachos.kern.mem;
+
+import java.util.Random;
+
+import jnachos.machine.Cpu;
+import jnachos.machine.Machine;
+
+/**
+ * Replaces a TLB entry chosen at random, like the MIPS tlbwr instruction. The
+ * generator has a fixed seed so that runs can be repeated.
+ */
+public class RandomTLB implements TLBReplacementPolicy {
+	private Random mRandom = new Random(0);
+
+	public RandomTLB() {
+	}
+
+	@Override
+	public int chooseVictimEntry(Cpu pCpu) {
+		return mRandom.nextInt(Machine.TLBSize);
+	}
+}
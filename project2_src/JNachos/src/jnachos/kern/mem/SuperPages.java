@@ -0,0 +1,218 @@
+package jnachos.kern.mem;
+
+import jnachos.kern.AddrSpace;
+import jnachos.machine.*;
+
+/**
+ * Superpages (-superpage n): aligned runs of n virtual pages held in an
+ * aligned run of n page frames, so that a single TLB entry maps all of them.
+ *
+ * Superpages are formed through reservations. An aligned run of n virtual
+ * pages is a region. The first time a page of a region faults, the region is
+ * given a reservation: an aligned block of n free frames, one for each of its
+ * pages. Later faults in the region take their frame from the reservation.
+ * Once every page of the region is resident in its reserved frame, the region
+ * is promoted: its pages are marked as a superpage in the page table, and the
+ * TLB loads them as one entry from then on.
+ *
+ * Evicting any page of a superpage demotes it back to base pages. The
+ * reservation stays, so that the page can return to its frame and the
+ * superpage can form again. Free frames of a reservation are only given to
+ * other pages (breaking the reservation) when no unreserved frame is free.
+ * The reservations of an address space are released when it is torn down.
+ *
+ * A region is only given a reservation while at least n more frames than
+ * the block would stay free, so that reserving does not take the last free
+ * frames from pages that need them. Superpages are turned off (with a
+ * warning) without a TLB, where they gain nothing, and in memories of fewer
+ * than MinBlocks blocks: there, memory is under so much pressure that
+ * hardly any region is ever promoted (one or two in matmult and sort with 16
+ * frames), while the fixed placement of pages in their reservations changes
+ * which pages get evicted, raising the faults (and so the TLB misses) with
+ * NFU.
+ *
+ * The replacement algorithms still choose single frames. Demotion happens in
+ * the common eviction path, and the TLB spreads the use and dirty bits of a
+ * superpage entry over all of its pages, so every algorithm sees superpages
+ * as the base pages they are made of.
+ */
+public class SuperPages {
+	/** The fewest blocks of frames memory must have for superpages. */
+	public static final int MinBlocks = 8;
+
+	/** The address space each block of frames is reserved for, or null. */
+	private static AddrSpace[] mOwner;
+
+	/** The region each reserved block is reserved for. */
+	private static int[] mRegion;
+
+	/**
+	 * Sets up the reservations, once memory has been sized.
+	 */
+	public static void init() {
+		int blocks = (Machine.NumPhysPages + Machine.SuperPageSize - 1) / Machine.SuperPageSize;
+		mOwner = new AddrSpace[blocks];
+		mRegion = new int[blocks];
+	}
+
+	/**
+	 * Takes a free frame for a page that has faulted: the page's frame in the
+	 * reservation of its region, reserving a block for the region first if it
+	 * has none. Falls back to any free frame, preferring ones that are not
+	 * reserved.
+	 *
+	 * @param pSpace
+	 *            the address space of the page.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 * @return the frame, now marked as used in AddrSpace.mFreeMap, or -1 if
+	 *         no frame is free.
+	 */
+	public static int allocate(AddrSpace pSpace, int pVpn) {
+		int n = Machine.SuperPageSize;
+		int region = pVpn / n;
+
+		// Only regions that lie entirely inside the address space can ever
+		// become superpages
+		int block = find(pSpace, region);
+		if (block < 0 && (region + 1) * n <= pSpace.mPageTable.size()
+				&& AddrSpace.mFreeMap.numClear() >= 2 * n) {
+			block = reserve(pSpace, region);
+		}
+
+		if (block >= 0) {
+			int frame = block * n + pVpn % n;
+			if (!AddrSpace.mFreeMap.test(frame)) {
+				AddrSpace.mFreeMap.mark(frame);
+				return frame;
+			}
+		}
+
+		for (int frame = 0; frame < Machine.NumPhysPages; frame++) {
+			if (!AddrSpace.mFreeMap.test(frame) && mOwner[frame / n] == null) {
+				AddrSpace.mFreeMap.mark(frame);
+				return frame;
+			}
+		}
+
+		int frame = AddrSpace.mFreeMap.find();
+		if (frame >= 0) {
+			mOwner[frame / n] = null;
+		}
+		return frame;
+	}
+
+	/**
+	 * Forms a superpage if a page that has just been brought in was the last
+	 * page of its region to become resident in its reserved frame.
+	 *
+	 * @param pSpace
+	 *            the address space of the page.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 */
+	public static void promote(AddrSpace pSpace, int pVpn) {
+		int n = Machine.SuperPageSize;
+		int block = find(pSpace, pVpn / n);
+		if (block < 0) {
+			return;
+		}
+
+		PageTable pageTable = pSpace.mPageTable;
+		int first = pVpn & -n;
+		for (int i = 0; i < n; i++) {
+			if (!pageTable.isValid(first + i) || pageTable.getFrame(first + i) != block * n + i) {
+				return;
+			}
+		}
+
+		// The pages may be in a TLB as base pages
+		KernelLock.stopOtherCpus();
+		if (Machine.mUSE_TLB) {
+			for (int i = 0; i < n; i++) {
+				TLBManager.invalidateFrame(block * n + i);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			pageTable.setSuper(first + i, true);
+		}
+		KernelLock.resumeOtherCpus();
+
+		Statistics.numSuperPromotions++;
+	}
+
+	/**
+	 * Breaks up the superpage a page belongs to, if any, because the page is
+	 * being evicted. The caller removes the superpage's TLB entries when it
+	 * invalidates the page's frame; on a multiprocessor, the other CPUs must
+	 * have been stopped.
+	 *
+	 * @param pSpace
+	 *            the address space of the page.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 */
+	public static void demote(AddrSpace pSpace, int pVpn) {
+		PageTable pageTable = pSpace.mPageTable;
+		if (!pageTable.isSuper(pVpn)) {
+			return;
+		}
+
+		int first = pVpn & -Machine.SuperPageSize;
+		for (int i = 0; i < Machine.SuperPageSize; i++) {
+			pageTable.setSuper(first + i, false);
+		}
+
+		Statistics.numSuperDemotions++;
+	}
+
+	/**
+	 * Releases every reservation of an address space that is being torn down.
+	 *
+	 * @param pSpace
+	 *            the address space.
+	 */
+	public static void release(AddrSpace pSpace) {
+		for (int b = 0; b < mOwner.length; b++) {
+			if (mOwner[b] == pSpace) {
+				mOwner[b] = null;
+			}
+		}
+	}
+
+	/**
+	 * Finds the block reserved for a region, or -1.
+	 */
+	private static int find(AddrSpace pSpace, int pRegion) {
+		for (int b = 0; b < mOwner.length; b++) {
+			if (mOwner[b] == pSpace && mRegion[b] == pRegion) {
+				return b;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reserves a block whose frames are all free for a region, or returns -1
+	 * if there is none.
+	 */
+	private static int reserve(AddrSpace pSpace, int pRegion) {
+		int n = Machine.SuperPageSize;
+		for (int b = 0; (b + 1) * n <= Machine.NumPhysPages; b++) {
+			if (mOwner[b] != null) {
+				continue;
+			}
+
+			boolean free = true;
+			for (int i = 0; i < n && free; i++) {
+				free = !AddrSpace.mFreeMap.test(b * n + i);
+			}
+			if (free) {
+				mOwner[b] = pSpace;
+				mRegion[b] = pRegion;
+				return b;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,246 @@
+package jnachos.kern.mem;
+
+import jnachos.kern.Debug;
+import jnachos.machine.*;
+
+/**
+ * Kernel management of the software-loaded TLBs (used when the machine is
+ * started with -tlb).
+ *
+ * The MMU raises a PageFaultException on every TLB miss; the exception
+ * handler calls refill() to load the entry from the page table of the current
+ * process, and only treats the exception as a real page fault when the page
+ * is not in memory.
+ *
+ * A TLB entry is a copy of a page table entry. The MMU sets the use and dirty
+ * bits in the copy, so they are written back to the page table entry the copy
+ * was loaded from whenever the TLB entry is replaced or flushed. The page
+ * replacement algorithms only ever look at the page tables, so any TLB entry
+ * for a frame is written back and invalidated (invalidateFrame()) before its
+ * page is evicted.
+ *
+ * The TLB is not tagged with address space ids, so it is flushed on every
+ * context switch.
+ *
+ * A page that is part of a superpage (see SuperPages) is loaded as a single
+ * entry covering the whole superpage, whose use and dirty bits are written
+ * back to every page of it.
+ */
+public class TLBManager {
+	/** Refill policy names for the -tlbpolicy option. */
+	public static final String RandomPolicy = "random";
+	public static final String FIFOPolicy = "fifo";
+	public static final String LRUPolicy = "lru";
+
+	/** The policy choosing which entry a refill replaces. */
+	private static TLBReplacementPolicy mPolicy;
+
+	/** The page table each TLB entry was loaded from, by CPU number. */
+	private static PageTable[][] mLoadedFrom;
+
+	/**
+	 * @param pPolicy
+	 *            a name given for a refill policy.
+	 * @return whether or not it is the name of one.
+	 */
+	public static boolean isPolicy(String pPolicy) {
+		return pPolicy.equals(RandomPolicy) || pPolicy.equals(FIFOPolicy) || pPolicy.equals(LRUPolicy);
+	}
+
+	/**
+	 * Sets up the TLB management, once the TLBs exist.
+	 *
+	 * @param pPolicy
+	 *            the name of the refill policy (RandomPolicy, FIFOPolicy or
+	 *            LRUPolicy).
+	 * @throws IllegalArgumentException
+	 *             if there is no such policy.
+	 */
+	public static void init(String pPolicy) {
+		if (pPolicy.equals(FIFOPolicy)) {
+			mPolicy = new FIFOTLB();
+		} else if (pPolicy.equals(LRUPolicy)) {
+			mPolicy = new LRUTLB();
+		} else if (pPolicy.equals(RandomPolicy)) {
+			mPolicy = new RandomTLB();
+		} else {
+			throw new IllegalArgumentException("unknown TLB refill policy " + pPolicy);
+		}
+
+		mLoadedFrom = new PageTable[Machine.getNumCpus()][Machine.TLBSize];
+	}
+
+	/**
+	 * Loads a page table entry into the TLB of a CPU after a TLB miss,
+	 * replacing an invalid entry if there is one and the entry chosen by the
+	 * policy if not.
+	 *
+	 * @param pCpu
+	 *            the CPU that missed.
+	 * @param pPageTable
+	 *            the page table of the current address space.
+	 * @param pVpn
+	 *            the virtual page that was missed.
+	 * @return false if the page is not in memory, so that the miss is a page
+	 *         fault.
+	 */
+	public static boolean refill(Cpu pCpu, PageTable pPageTable, int pVpn) {
+		if (!pPageTable.isValid(pVpn)) {
+			return false;
+		}
+
+		TranslationEntry[] tlb = pCpu.mTlb;
+		int slot = -1;
+		for (int i = 0; i < Machine.TLBSize; i++) {
+			if (!tlb[i].valid) {
+				slot = i;
+				break;
+			}
+		}
+		if (slot < 0) {
+			slot = mPolicy.chooseVictimEntry(pCpu);
+			writeBack(pCpu, slot);
+		}
+
+		if (pPageTable.isSuper(pVpn)) {
+			int first = pVpn & -Machine.SuperPageSize;
+			tlb[slot].virtualPage = first;
+			tlb[slot].physicalPage = pPageTable.getFrame(pVpn) - (pVpn - first);
+			tlb[slot].superPage = true;
+		} else {
+			tlb[slot].virtualPage = pVpn;
+			tlb[slot].physicalPage = pPageTable.getFrame(pVpn);
+			tlb[slot].superPage = false;
+		}
+		tlb[slot].readOnly = pPageTable.isReadOnly(pVpn);
+		tlb[slot].use = false;
+		tlb[slot].dirty = false;
+		tlb[slot].valid = true;
+		mLoadedFrom[pCpu.mId][slot] = pPageTable;
+		pCpu.mTlbLastUse[slot] = ++pCpu.mTlbAccesses;
+
+		Debug.print('v', "TLB refill: VPN " + pVpn + " into entry " + slot);
+		return true;
+	}
+
+	/**
+	 * Empties the TLB of a CPU, because a different address space is about to
+	 * run on it.
+	 *
+	 * @param pCpu
+	 *            the CPU.
+	 */
+	public static void flush(Cpu pCpu) {
+		for (int i = 0; i < Machine.TLBSize; i++) {
+			if (pCpu.mTlb[i].valid) {
+				writeBack(pCpu, i);
+			}
+		}
+		Statistics.numTlbFlushes++;
+	}
+
+	/**
+	 * Removes every TLB entry that maps a page frame, from the TLBs of all of
+	 * the CPUs, because the page in the frame is being evicted (or its
+	 * superpage is being formed or broken up). On a multiprocessor, the other
+	 * CPUs must have been stopped.
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 */
+	public static void invalidateFrame(int pFrame) {
+		for (int id = 0; id < Machine.getNumCpus(); id++) {
+			Cpu cpu = Machine.getCpu(id);
+			for (int i = 0; i < Machine.TLBSize; i++) {
+				TranslationEntry entry = cpu.mTlb[i];
+				int pages = entry.superPage ? Machine.SuperPageSize : 1;
+				if (entry.valid && pFrame >= entry.physicalPage && pFrame < entry.physicalPage + pages) {
+					writeBack(cpu, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Brings the use bits in the page tables of the pages in a frame up to
+	 * date, by copying set use bits from the TLB entries mapping the frame to
+	 * their page table entries and clearing them in the TLB entries, which
+	 * stay valid. The MMU sets the use bit of a TLB entry again on its next
+	 * hit, so a replacement algorithm can then clear the use bit in the page
+	 * table and see whether the page is referenced again.
+	 *
+	 * @param pFrame
+	 *            the page frame.
+	 */
+	public static void collectUse(int pFrame) {
+		for (int id = 0; id < Machine.getNumCpus(); id++) {
+			Cpu cpu = Machine.getCpu(id);
+			for (int i = 0; i < Machine.TLBSize; i++) {
+				TranslationEntry entry = cpu.mTlb[i];
+				int pages = entry.superPage ? Machine.SuperPageSize : 1;
+				if (pFrame >= entry.physicalPage && pFrame < entry.physicalPage + pages) {
+					collectUse(id, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Brings the use bits in the page tables of all of the pages in memory up
+	 * to date, as collectUse(int) does for a single frame.
+	 */
+	public static void collectUse() {
+		for (int id = 0; id < Machine.getNumCpus(); id++) {
+			for (int i = 0; i < Machine.TLBSize; i++) {
+				collectUse(id, i);
+			}
+		}
+	}
+
+	/**
+	 * Copies the use bit of a TLB entry to the page table entries it maps,
+	 * if it is set, and clears it.
+	 */
+	private static void collectUse(int pCpuId, int pSlot) {
+		TranslationEntry entry = Machine.getCpu(pCpuId).mTlb[pSlot];
+		if (!entry.valid || !entry.use) {
+			return;
+		}
+
+		PageTable pageTable = mLoadedFrom[pCpuId][pSlot];
+		int pages = entry.superPage ? Machine.SuperPageSize : 1;
+		for (int p = 0; p < pages; p++) {
+			if (pageTable.getFrame(entry.virtualPage + p) == entry.physicalPage + p) {
+				pageTable.setUsed(entry.virtualPage + p, true);
+			}
+		}
+		entry.use = false;
+	}
+
+	/**
+	 * Copies the use and dirty bits of a TLB entry back to the page table
+	 * entry it was loaded from, and invalidates the TLB entry.
+	 */
+	private static void writeBack(Cpu pCpu, int pSlot) {
+		TranslationEntry tlbEntry = pCpu.mTlb[pSlot];
+		PageTable pageTable = mLoadedFrom[pCpu.mId][pSlot];
+		int pages = tlbEntry.superPage ? Machine.SuperPageSize : 1;
+		for (int i = 0; i < pages; i++) {
+			int vpn = tlbEntry.virtualPage + i;
+
+			// The page may have been evicted since, in which case the entry
+			// no longer maps this frame
+			if (pageTable.isValid(vpn) && pageTable.getFrame(vpn) == tlbEntry.physicalPage + i) {
+				if (tlbEntry.use) {
+					pageTable.setUsed(vpn, true);
+				}
+				if (tlbEntry.dirty) {
+					pageTable.setDirty(vpn, true);
+				}
+			}
+		}
+
+		tlbEntry.valid = false;
+		mLoadedFrom[pCpu.mId][pSlot] = null;
+	}
+}
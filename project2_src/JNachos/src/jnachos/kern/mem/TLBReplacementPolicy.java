@@ -0,0 +1,18 @@
+package jnachos.kern.mem;
+
+import jnachos.machine.Cpu;
+
+/**
+ * Chooses the TLB entry to replace when a TLB miss is refilled and every
+ * entry of the TLB is in use.
+ */
+public interface TLBReplacementPolicy {
+
+	/**
+	 * 
+	 * @param pCpu
+	 *            the CPU whose TLB is being refilled.
+	 * @return The index of the TLB entry that should be replaced.
+	 */
+	public int chooseVictimEntry(Cpu pCpu);
+}
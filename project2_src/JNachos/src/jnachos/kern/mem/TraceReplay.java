@@ -0,0 +1,465 @@
+package jnachos.kern.mem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jnachos.filesystem.BitMap;
+import jnachos.filesystem.OpenFile;
+import jnachos.kern.AddrSpace;
+import jnachos.kern.JNachos;
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+import jnachos.machine.Statistics;
+import jnachos.machine.TraceRecorder;
+
+/**
+ * Replays a page reference trace recorded with -trace (see TraceRecorder)
+ * under Belady's optimal algorithm (OPT) and under the page replacement
+ * algorithms, for any numbers of page frames, and reports the page faults and
+ * dirty pages written back for each:
+ *
+ * <pre>
+ *   java jnachos.kern.mem.TraceReplay &lt;trace&gt; [-frames 8,16,32] [-algorithms opt,clock]
+ * </pre>
+ *
+ * The algorithms run unchanged, on the real page tables and frame table, but
+ * without a machine: the replay itself takes page faults, evicting the pages
+ * the algorithm chooses, and plays the timer's samples of the use bits and
+ * the virtual time of each process back from the trace. Writes to swap are
+ * counted and thrown away. So a replay takes a small fraction of the time of
+ * the run that recorded the trace, and gives the same counts as the
+ * simulator would up to the timing of the samples, which the trace fixes.
+ *
+ * OPT evicts the page whose next reference is furthest in the future, found
+ * from a precomputed next reference of every reference, with the resident
+ * pages kept in a heap ordered by next reference.
+ */
+public class TraceReplay {
+	/** The kinds of event of a decoded trace. */
+	private static final byte Read = 0;
+	private static final byte Write = 1;
+	private static final byte Switch = 2;
+	private static final byte Time = 3;
+	private static final byte Sample = 4;
+
+	/** The page size the trace was recorded with. */
+	private static int mPageSize;
+
+	/** The events of the trace: their kinds and values. */
+	private static byte[] mKind;
+	private static int[] mValue;
+	private static int mNumEvents;
+
+	/**
+	 * The pages referenced in the trace, numbered densely in the order of
+	 * their first reference: the address space (numbered densely) and virtual
+	 * page number of each. A reference's value is its page.
+	 */
+	private static int[] mPageSpace;
+	private static int[] mPageVpn;
+	private static int mNumPages;
+
+	/** The number of virtual pages of each address space referenced. */
+	private static int[] mSpaceSize;
+	private static int mNumSpaces;
+
+	/**
+	 * Replays a trace.
+	 *
+	 * @param args
+	 *            the trace file, then optionally -frames with a comma
+	 *            separated list of frame counts, and -algorithms with a comma
+	 *            separated list of algorithms.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			usage();
+		}
+
+		String[] frames = { "8", "16", "32", "64" };
+		List<String> names = new ArrayList<String>();
+		names.add("opt");
+		names.addAll(PageReplacementRegistry.getNames());
+		for (int i = 1; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-frames")) {
+				frames = args[i + 1].split(",");
+			} else if (args[i].equals("-algorithms")) {
+				names = Arrays.asList(args[i + 1].split(","));
+			}
+		}
+
+		int[] counts = new int[frames.length];
+		for (int i = 0; i < frames.length; i++) {
+			try {
+				counts[i] = Integer.parseInt(frames[i].trim());
+			} catch (NumberFormatException e) {
+				counts[i] = 0;
+			}
+			if (counts[i] < 1) {
+				System.out.println("The frame counts must be numbers of at least 1, not " + frames[i]);
+				usage();
+			}
+		}
+
+		for (String name : names) {
+			if (!name.equals("opt") && !PageReplacementRegistry.contains(name)) {
+				System.out.println("Unknown page replacement algorithm " + name);
+				System.exit(1);
+			}
+		}
+
+		long start = System.nanoTime();
+		try {
+			read(args[0]);
+		} catch (NoSuchFileException e) {
+			System.out.println("Unable to read trace " + args[0] + ": no such file");
+			System.exit(1);
+		} catch (IOException e) {
+			System.out.println("Unable to read trace " + args[0] + ": " + e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(args[0] + ": " + mNumEvents + " events, " + mNumPages + " pages in " + mNumSpaces
+				+ " address spaces, read in " + (System.nanoTime() - start) / 1000000 + " ms");
+		System.out.println(String.format("%-10s %8s %10s %12s %8s", "algorithm", "frames", "faults", "write-backs",
+				"ms"));
+
+		for (String name : names) {
+			for (int count : counts) {
+				start = System.nanoTime();
+				long[] result = name.equals("opt") ? replayOpt(count) : replay(name, count);
+				System.out.println(String.format("%-10s %8d %10d %12d %8d", name, count, result[0], result[1],
+						(System.nanoTime() - start) / 1000000));
+			}
+		}
+	}
+
+	/**
+	 * Prints how TraceReplay is run, and exits.
+	 */
+	private static void usage() {
+		System.out.println("usage: TraceReplay <trace> [-frames n,...] [-algorithms opt,"
+				+ String.join(",", PageReplacementRegistry.getNames()) + "]");
+		System.exit(1);
+	}
+
+	/**
+	 * Reads and decodes a trace file.
+	 */
+	private static void read(String pFile) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(pFile)));
+		if (in.getInt() != TraceRecorder.TraceMagic || in.getInt() != TraceRecorder.TraceVersion) {
+			System.out.println(pFile + " is not a trace");
+			System.exit(1);
+		}
+		mPageSize = in.getInt();
+
+		mKind = new byte[1 << 16];
+		mValue = new int[1 << 16];
+		mPageSpace = new int[1 << 10];
+		mPageVpn = new int[1 << 10];
+		mSpaceSize = new int[16];
+
+		// The dense numbers of the address spaces, by id, and of the pages of
+		// each address space, by virtual page number
+		Map<Integer, Integer> spaces = new HashMap<Integer, Integer>();
+		int[][] pages = new int[16][];
+		int space = -1;
+
+		byte[] bytes = in.array();
+		int pos = in.position();
+		while (pos < bytes.length) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[pos++];
+				value |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			int kind = (int) (value & 3);
+			if (kind == TraceRecorder.Switch) {
+				Integer number = spaces.get((int) (value >>> 2));
+				if (number == null) {
+					number = mNumSpaces++;
+					spaces.put((int) (value >>> 2), number);
+					if (number == pages.length) {
+						pages = Arrays.copyOf(pages, number * 2);
+						mSpaceSize = Arrays.copyOf(mSpaceSize, number * 2);
+					}
+					pages[number] = new int[0];
+				}
+				space = number;
+				add(Switch, space);
+			} else if (kind == TraceRecorder.Time) {
+				add((value & 4) != 0 ? Sample : Time, (int) (value >>> 3));
+			} else {
+				int vpn = (int) (value >>> 2);
+				if (vpn >= pages[space].length) {
+					int old = pages[space].length;
+					pages[space] = Arrays.copyOf(pages[space], Math.max(vpn + 1, old * 2));
+					Arrays.fill(pages[space], old, pages[space].length, -1);
+				}
+				if (pages[space][vpn] < 0) {
+					if (mNumPages == mPageSpace.length) {
+						mPageSpace = Arrays.copyOf(mPageSpace, mNumPages * 2);
+						mPageVpn = Arrays.copyOf(mPageVpn, mNumPages * 2);
+					}
+					mPageSpace[mNumPages] = space;
+					mPageVpn[mNumPages] = vpn;
+					pages[space][vpn] = mNumPages++;
+					mSpaceSize[space] = Math.max(mSpaceSize[space], vpn + 1);
+				}
+				add(kind == TraceRecorder.Write ? Write : Read, pages[space][vpn]);
+			}
+		}
+	}
+
+	/**
+	 * Appends an event to the decoded trace.
+	 */
+	private static void add(byte pKind, int pValue) {
+		if (mNumEvents == mKind.length) {
+			mKind = Arrays.copyOf(mKind, mNumEvents * 2);
+			mValue = Arrays.copyOf(mValue, mNumEvents * 2);
+		}
+		mKind[mNumEvents] = pKind;
+		mValue[mNumEvents++] = pValue;
+	}
+
+	/**
+	 * Replays the trace under a page replacement algorithm.
+	 *
+	 * @param pAlgorithm
+	 *            the name of the algorithm in the PageReplacementRegistry.
+	 * @return the page faults and the dirty pages written back.
+	 */
+	private static long[] replay(String pAlgorithm, int pFrames) {
+		// A machine with no CPU running, and a swap file that discards
+		Machine.setMemory(pFrames, mPageSize);
+		Machine.mMainMemory = new byte[Machine.MemorySize];
+		AddrSpace.mFreeMap = new BitMap(pFrames);
+		JNachos.mSwapSpace = new DiscardedFile();
+		FrameTable.init();
+		PageReplacementAlgorithm algorithm = PageReplacementRegistry.create(pAlgorithm);
+		JNachos.setPageReplacementAlgorithm(algorithm);
+		Statistics.numPageOuts = 0;
+
+		AddrSpace[] spaces = new AddrSpace[mNumSpaces];
+		for (int i = 0; i < mNumSpaces; i++) {
+			spaces[i] = new AddrSpace(mSpaceSize[i]);
+		}
+
+		long faults = 0;
+		AddrSpace current = null;
+		for (int e = 0; e < mNumEvents; e++) {
+			int value = mValue[e];
+			switch (mKind[e]) {
+			case Switch:
+				current = spaces[value];
+				break;
+
+			case Sample:
+				if (current != null) {
+					current.addVirtualTime(value);
+				}
+				algorithm.sampleReferences();
+				for (int frame = 0; frame < pFrames; frame++) {
+					AddrSpace owner = FrameTable.getOwner(frame);
+					if (owner != null) {
+						owner.mPageTable.setUsed(FrameTable.getVirtualPage(frame), false);
+					}
+				}
+				break;
+
+			case Time:
+				if (current != null) {
+					current.addVirtualTime(value);
+				}
+				break;
+
+			default:
+				AddrSpace space = spaces[mPageSpace[value]];
+				PageTable pageTable = space.mPageTable;
+				int vpn = mPageVpn[value];
+				if (!pageTable.isValid(vpn)) {
+					fault(algorithm, space, vpn);
+					faults++;
+				}
+				pageTable.setUsed(vpn, true);
+				if (mKind[e] == Write) {
+					pageTable.setDirty(vpn, true);
+				}
+				break;
+			}
+		}
+
+		return new long[] { faults, Statistics.numPageOuts };
+	}
+
+	/**
+	 * Brings a page into memory as the page fault handler does, evicting the
+	 * victim of the algorithm if no frame is free.
+	 */
+	private static void fault(PageReplacementAlgorithm pAlgorithm, AddrSpace pSpace, int pVpn) {
+		int frame = AddrSpace.mFreeMap.find();
+		if (frame < 0) {
+			frame = pAlgorithm.chooseVictimPage();
+			AddrSpace victim = FrameTable.getOwner(frame);
+			int victimVpn = FrameTable.getVirtualPage(frame);
+			victim.pageOut(victimVpn, frame);
+
+			PageTable toEvict = victim.mPageTable;
+			toEvict.setFrame(victimVpn, -1);
+			toEvict.setValid(victimVpn, false);
+			toEvict.setUsed(victimVpn, false);
+			toEvict.setDirty(victimVpn, false);
+			FrameTable.unmap(frame);
+		}
+
+		pSpace.mPageTable.setFrame(pVpn, frame);
+		pSpace.mPageTable.setValid(pVpn, true);
+		FrameTable.map(frame, pSpace, pVpn);
+		pSpace.mPageTable.setUsed(pVpn, true);
+	}
+
+	/**
+	 * Replays the trace under OPT.
+	 *
+	 * @return the page faults and the dirty pages written back.
+	 */
+	private static long[] replayOpt(int pFrames) {
+		// The next reference to the same page after each reference
+		int[] next = new int[mNumEvents];
+		int[] following = new int[mNumPages];
+		Arrays.fill(following, Integer.MAX_VALUE);
+		for (int e = mNumEvents - 1; e >= 0; e--) {
+			if (mKind[e] == Read || mKind[e] == Write) {
+				next[e] = following[mValue[e]];
+				following[mValue[e]] = e;
+			}
+		}
+
+		// The resident pages, in a heap with the furthest next reference at
+		// the top; the position of each page in it, or -1
+		int[] heap = new int[pFrames];
+		int size = 0;
+		int[] position = new int[mNumPages];
+		Arrays.fill(position, -1);
+		int[] nextUse = new int[mNumPages];
+		boolean[] dirty = new boolean[mNumPages];
+
+		long faults = 0;
+		long writeBacks = 0;
+		for (int e = 0; e < mNumEvents; e++) {
+			if (mKind[e] != Read && mKind[e] != Write) {
+				continue;
+			}
+
+			int page = mValue[e];
+			if (position[page] < 0) {
+				faults++;
+				if (size == pFrames) {
+					int victim = heap[0];
+					position[victim] = -1;
+					if (dirty[victim]) {
+						writeBacks++;
+						dirty[victim] = false;
+					}
+					if (--size > 0) {
+						heap[0] = heap[size];
+						position[heap[0]] = 0;
+						siftDown(heap, size, position, nextUse, 0);
+					}
+				}
+				heap[size] = page;
+				position[page] = size++;
+			}
+
+			// The next reference is later than this one, so the page can only
+			// move up
+			nextUse[page] = next[e];
+			siftUp(heap, position, nextUse, position[page]);
+			if (mKind[e] == Write) {
+				dirty[page] = true;
+			}
+		}
+
+		return new long[] { faults, writeBacks };
+	}
+
+	/**
+	 * Moves a page up the heap to where it belongs.
+	 */
+	private static void siftUp(int[] pHeap, int[] pPosition, int[] pNextUse, int pIndex) {
+		int page = pHeap[pIndex];
+		while (pIndex > 0) {
+			int parent = (pIndex - 1) / 2;
+			if (pNextUse[pHeap[parent]] >= pNextUse[page]) {
+				break;
+			}
+			pHeap[pIndex] = pHeap[parent];
+			pPosition[pHeap[pIndex]] = pIndex;
+			pIndex = parent;
+		}
+		pHeap[pIndex] = page;
+		pPosition[page] = pIndex;
+	}
+
+	/**
+	 * Moves a page down the heap to where it belongs.
+	 */
+	private static void siftDown(int[] pHeap, int pSize, int[] pPosition, int[] pNextUse, int pIndex) {
+		int page = pHeap[pIndex];
+		while (2 * pIndex + 1 < pSize) {
+			int child = 2 * pIndex + 1;
+			if (child + 1 < pSize && pNextUse[pHeap[child + 1]] > pNextUse[pHeap[child]]) {
+				child++;
+			}
+			if (pNextUse[pHeap[child]] <= pNextUse[page]) {
+				break;
+			}
+			pHeap[pIndex] = pHeap[child];
+			pPosition[pHeap[pIndex]] = pIndex;
+			pIndex = child;
+		}
+		pHeap[pIndex] = page;
+		pPosition[page] = pIndex;
+	}
+
+	/**
+	 * A swap file that counts for nothing: what is written to it is dropped.
+	 */
+	private static class DiscardedFile implements OpenFile {
+		public void closeFile() {
+		}
+
+		public int readAt(byte[] into, int numBytes, int position) {
+			return numBytes;
+		}
+
+		public int writeAt(byte[] from, int numBytes, int position) {
+			return numBytes;
+		}
+
+		public int read(byte[] into, int numBytes) {
+			return numBytes;
+		}
+
+		public int write(byte[] from, int numBytes) {
+			return numBytes;
+		}
+
+		public int length() {
+			return 0;
+		}
+	}
+}
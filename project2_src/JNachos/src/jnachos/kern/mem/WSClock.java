@@ -0,0 +1,139 @@
+package jnachos.kern.mem;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import jnachos.kern.AddrSpace;
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+
+/**
+ * The WSClock page replacement algorithm: CLOCK, evicting only pages that
+ * have left the working set of their process.
+ *
+ * Time is the virtual time of the process owning each page (the user ticks it
+ * has run for, see AddrSpace.getVirtualTime()), so a process that is not
+ * running does not see its pages age. Every frame is stamped with the virtual
+ * time its page was last seen in use, both when the timer samples the use
+ * bits and when the hand passes it. A page is in the working set of its
+ * process if it was used within the last Tau ticks of the process's virtual
+ * time.
+ *
+ * The hand sweeps the frames as in CLOCK. A page in use is stamped and gets a
+ * second chance. A page outside the working set is the victim if it is
+ * clean; if it is dirty, it is written to swap (AddrSpace.clean()) and the
+ * hand moves on, so that it can be taken clean on a later pass. If a whole
+ * turn finds no victim, the hand goes round once more, taking any page it
+ * cleaned on the first turn; failing that, the victim is the page unused for
+ * the longest, a clean one if there is one.
+ *
+ * For local replacement the same hand sweeps, passing over the frames of
+ * other address spaces without touching them.
+ *
+ * Each sample also counts the working set of every process, which the
+ * process reports to Statistics when it finishes.
+ */
+public class WSClock implements PageReplacementAlgorithm {
+	/** The working set window, in ticks of virtual time (-wstau). */
+	public static int Tau = 2000;
+
+	/** The frame the hand points at. */
+	private int mHand;
+
+	/** The virtual time of its owner when the page in each frame was last used. */
+	private int[] mLastUse;
+
+	public WSClock() {
+		mHand = 0;
+		mLastUse = new int[Machine.NumPhysPages];
+	}
+
+	@Override
+	public void sampleReferences() {
+		for (int i = 0; i < Machine.NumPhysPages; i++) {
+			AddrSpace owner = FrameTable.getOwner(i);
+			if (owner != null && owner.mPageTable.isUsed(FrameTable.getVirtualPage(i))) {
+				mLastUse[i] = owner.getVirtualTime();
+			}
+		}
+
+		// Count the pages in the working set of each process
+		Map<AddrSpace, Integer> sizes = new IdentityHashMap<AddrSpace, Integer>();
+		for (int i = 0; i < Machine.NumPhysPages; i++) {
+			AddrSpace owner = FrameTable.getOwner(i);
+			if (owner != null) {
+				int inSet = owner.getVirtualTime() - mLastUse[i] <= Tau ? 1 : 0;
+				sizes.merge(owner, inSet, Integer::sum);
+			}
+		}
+		for (Map.Entry<AddrSpace, Integer> entry : sizes.entrySet()) {
+			AddrSpace owner = entry.getKey();
+			owner.mWorkingSetSamples++;
+			owner.mWorkingSetTotal += entry.getValue();
+			owner.mWorkingSetPeak = Math.max(owner.mWorkingSetPeak, entry.getValue());
+		}
+	}
+
+	@Override
+	public int chooseVictimPage() {
+		return chooseVictimPage(null);
+	}
+
+	/**
+	 * Moves the hand to the next victim.
+	 *
+	 * @param pOwner
+	 *            the address space the victim must belong to, or null for
+	 *            any.
+	 */
+	@Override
+	public int chooseVictimPage(AddrSpace pOwner) {
+		// A TLB may hold a use bit the page tables have not seen yet
+		if (Machine.mUSE_TLB) {
+			TLBManager.collectUse();
+		}
+
+		int oldest = -1;
+		int oldestAge = 0;
+		boolean oldestClean = false;
+		for (int i = 0; i < 2 * Machine.NumPhysPages; i++) {
+			int frame = mHand;
+			mHand = (mHand + 1) % Machine.NumPhysPages;
+
+			AddrSpace owner = FrameTable.getOwner(frame);
+			if (owner == null || (pOwner != null && owner != pOwner)) {
+				continue;
+			}
+
+			PageTable pageTable = owner.mPageTable;
+			int vpn = FrameTable.getVirtualPage(frame);
+			int now = owner.getVirtualTime();
+			if (pageTable.isUsed(vpn)) {
+				mLastUse[frame] = now;
+				pageTable.setUsed(vpn, false);
+				continue;
+			}
+
+			int age = now - mLastUse[frame];
+			boolean clean = !pageTable.isDirty(vpn);
+			if (age > Tau) {
+				if (clean) {
+					return frame;
+				}
+				owner.clean(vpn, frame);
+				clean = true;
+			}
+
+			if (oldest < 0 || (clean && !oldestClean) || (clean == oldestClean && age > oldestAge)) {
+				oldest = frame;
+				oldestAge = age;
+				oldestClean = clean;
+			}
+		}
+
+		if (oldest >= 0) {
+			mHand = (oldest + 1) % Machine.NumPhysPages;
+		}
+		return oldest;
+	}
+}
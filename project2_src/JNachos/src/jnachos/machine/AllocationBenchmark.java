@@ -0,0 +1,180 @@
+package jnachos.machine;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that simulating user instructions allocates nothing on the host. It
+ * maps a few pages of main memory for CPU 0 (no kernel, no interrupts), and
+ * measures the bytes the host thread allocates while it calls
+ * Machine.readMem and Machine.writeMem directly, and while it runs a small
+ * loop of loads and stores through MipsSim.oneInstruction:
+ *
+ * <pre>
+ *   java jnachos.machine.AllocationBenchmark [-n count]
+ * </pre>
+ *
+ * Each part is run once to let the JIT compile it, then measured over count
+ * accesses or instructions (10000000 by default). A count smaller than the
+ * loop leaves some of it undecoded before the measured run, and the
+ * InstructionCache then allocates while decoding it. The exit status is 1 if
+ * either part allocated a byte or more per access or instruction, or if the
+ * JVM cannot count the bytes a thread allocates.
+ */
+public class AllocationBenchmark {
+	/** The pages mapped for the benchmark, code in page 0 and data after. */
+	private static final int NumPages = 4;
+
+	/** Where the loop keeps its data: the first word of page 1. */
+	private static final int DataAddr = 128;
+
+	/**
+	 * The loop run by the instruction part:
+	 *
+	 * <pre>
+	 * loop: lw    $8, 128($0)
+	 *       nop
+	 *       addiu $8, $8, 1
+	 *       sw    $8, 128($0)
+	 *       lbu   $9, 129($0)
+	 *       nop
+	 *       sh    $9, 132($0)
+	 *       sb    $9, 134($0)
+	 *       lh    $10, 132($0)
+	 *       j     loop
+	 *       nop
+	 * </pre>
+	 *
+	 * so that every access size of readMem and writeMem is used, and the word
+	 * at 128 counts the passes made.
+	 */
+	private static final int[] Loop = { 0x8C080080, 0x00000000, 0x25080001, 0xAC080080, 0x90090081, 0x00000000,
+			0xA4090084, 0xA0090086, 0x840A0084, 0x08000000, 0x00000000 };
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            optionally -n with the number of accesses and instructions
+	 *            measured.
+	 */
+	public static void main(String[] args) {
+		long count = 10000000;
+		if (args.length == 2 && args[0].equals("-n")) {
+			try {
+				count = Long.parseLong(args[1]);
+			} catch (NumberFormatException e) {
+				count = 0;
+			}
+		}
+		if (count < 1 || (args.length != 0 && args.length != 2)) {
+			System.out.println("usage: AllocationBenchmark [-n count]");
+			System.exit(1);
+		}
+
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+						.isThreadAllocatedMemorySupported()) {
+			System.out.println("This JVM cannot count the bytes a thread allocates");
+			System.exit(1);
+		}
+
+		Cpu cpu = setUp();
+		boolean clean = true;
+
+		// What measuring itself allocates, taken off every part
+		long overhead = allocatedBytes();
+		overhead = allocatedBytes() - overhead;
+
+		accesses(cpu, count);
+		long bytes = allocatedBytes();
+		accesses(cpu, count);
+		clean &= report("readMem/writeMem", "accesses", 6 * count, allocatedBytes() - bytes - overhead);
+
+		instructions(cpu, count);
+		bytes = allocatedBytes();
+		instructions(cpu, count);
+		clean &= report("oneInstruction", "instructions", count, allocatedBytes() - bytes - overhead);
+
+		System.exit(clean ? 0 : 1);
+	}
+
+	/**
+	 * Creates main memory, maps the first NumPages pages of it one to one for
+	 * CPU 0, and writes the loop to page 0.
+	 *
+	 * @return the CPU.
+	 */
+	private static Cpu setUp() {
+		Machine.mMainMemory = new byte[Machine.MemorySize];
+		InstructionCache.init();
+
+		Cpu cpu = Machine.getCpu(0);
+		cpu.mTlb = null;
+		cpu.mPageTable = new PageTable(NumPages);
+		cpu.mPageTableSize = NumPages;
+		for (int vpn = 0; vpn < NumPages; vpn++) {
+			cpu.mPageTable.setFrame(vpn, vpn);
+			cpu.mPageTable.setValid(vpn, true);
+		}
+
+		for (int i = 0; i < Loop.length; i++) {
+			Machine.writeMem(cpu, 4 * i, 4, Loop[i]);
+		}
+		return cpu;
+	}
+
+	/**
+	 * Reads and writes each size of data pCount times.
+	 */
+	private static void accesses(Cpu pCpu, long pCount) {
+		for (long i = 0; i < pCount; i++) {
+			int addr = DataAddr + (int) (i & 0xF) * 4;
+			Machine.writeMem(pCpu, addr, 4, Machine.readMem(pCpu, addr, 4) + 1);
+			Machine.writeMem(pCpu, addr, 2, Machine.readMem(pCpu, addr + 2, 2));
+			Machine.writeMem(pCpu, addr + 3, 1, Machine.readMem(pCpu, addr + 1, 1));
+		}
+	}
+
+	/**
+	 * Runs pCount instructions of the loop, from its start, and checks that
+	 * it made as many passes as it should have.
+	 */
+	private static void instructions(Cpu pCpu, long pCount) {
+		int passes = Machine.readMem(pCpu, DataAddr, 4);
+		pCpu.mRegisters[Machine.PCReg] = 0;
+		pCpu.mRegisters[Machine.NextPCReg] = 4;
+		for (long i = 0; i < pCount; i++) {
+			if (!MipsSim.oneInstruction(pCpu)) {
+				System.out.println("The loop raised an exception at 0x"
+						+ Integer.toHexString(pCpu.mRegisters[Machine.PCReg]));
+				System.exit(1);
+			}
+		}
+
+		// A pass stores its count from its fourth instruction on
+		passes = Machine.readMem(pCpu, DataAddr, 4) - passes;
+		if (passes != (int) ((pCount + Loop.length - 4) / Loop.length)) {
+			System.out.println("The loop made " + passes + " passes in " + pCount + " instructions");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by this thread so far.
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Prints the bytes allocated by one part.
+	 *
+	 * @return true if it allocated less than a byte per operation.
+	 */
+	private static boolean report(String pPart, String pUnit, long pCount, long pBytes) {
+		System.out.println(String.format("%-18s %12d %-12s %12d bytes %10.4f bytes each", pPart, pCount, pUnit,
+				pBytes, (double) pBytes / pCount));
+		return pBytes < pCount;
+	}
+}
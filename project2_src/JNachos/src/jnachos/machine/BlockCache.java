@@ -0,0 +1,319 @@
+package jnachos.machine;
+
+/**
+ * A basic block of user code in the block cache: the decoded instructions of a
+ * straight line of code that all live in one page frame, shared with the
+ * InstructionCache. It either ends at a control transfer and its delay slot,
+ * or just before an instruction that always traps to the kernel.
+ */
+class CachedBlock {
+	/** The decoded instructions, in program order. */
+	public Instruction[] mInstructions;
+
+	/** Cleared when the frame holding the block is written or replaced. */
+	public boolean mValid;
+
+	/**
+	 * Creates a cached block.
+	 *
+	 * @param pInstructions
+	 *            the decoded instructions of the block.
+	 */
+	public CachedBlock(Instruction[] pInstructions) {
+		mInstructions = pInstructions;
+		mValid = true;
+	}
+}
+
+/**
+ * A block dispatch cache for the CPU simulation. The interpreter in MipsSim
+ * fetches, translates and decodes every instruction, and Interrupt.oneTick()
+ * checks for interrupts after every instruction. The block cache counts how
+ * often each basic block is entered. Once a block has been entered mThreshold
+ * times, the decoded instructions of the block are collected from the
+ * InstructionCache into a CachedBlock. From then on the block is dispatched
+ * as a whole: its instructions are still run one by one through
+ * MipsSim.execute(), but without a per-instruction fetch and address
+ * translation, and the pending interrupts are checked once per block instead
+ * of once per instruction. No code is generated.
+ *
+ * Blocks are only run when their instructions cannot cross the next pending
+ * interrupt. The time for each instruction is then accounted for exactly as
+ * oneTick() would have done it. Whenever anything unusual happens (an
+ * exception, a syscall, a branch delay slot at the start of a block, code
+ * being overwritten) the block cache returns to the interpreter, which handles
+ * the instruction in the normal way.
+ *
+ * Turned on with the -blockcache command line option.
+ */
+public class BlockCache {
+	/** Whether or not the block cache is used. */
+	public static boolean mEnabled;
+
+	/** How many times a block is entered before it is cached. */
+	public static int mThreshold = 50;
+
+	/** The longest block that will be cached. */
+	public static final int MaxBlockSize = 64;
+
+	/** Marks a block entry that could not be cached. */
+	private static final int Uncacheable = Integer.MIN_VALUE;
+
+	/** The cached blocks, indexed by the word of their first instruction. */
+	private static CachedBlock[] mBlocks;
+
+	/** How many times each word has been entered as the start of a block. */
+	private static int[] mCounts;
+
+	/** How many cached blocks start in each page frame. */
+	private static int[] mBlocksInFrame;
+
+	/** The number of words in a page frame. */
+	private static int mWordsPerPage;
+
+	/**
+	 * Create the (empty) block tables. Called when the machine is
+	 * initialized.
+	 */
+	public static void init() {
+		mBlocks = new CachedBlock[Machine.MemorySize / 4];
+		mCounts = new int[Machine.MemorySize / 4];
+		mBlocksInFrame = new int[Machine.NumPhysPages];
+		mWordsPerPage = Machine.PageSize / 4;
+	}
+
+	/**
+	 * Run cached blocks for as long as the current PC is at the start of a
+	 * cached block and the block fits before the next pending interrupt.
+	 * Returns to the interpreter as soon as that is no longer the case.
+	 *
+	 * @param pCpu
+	 *            the CPU to run on.
+	 */
+	public static void runBlocks(Cpu pCpu) {
+		int[] registers = pCpu.mRegisters;
+
+		while (true) {
+			// Time is only charged as user ticks in user mode. (The status can
+			// still be SystemMode here if we were switched back to by a
+			// process that left the CPU from inside the kernel.)
+			if (pCpu.mStatus != Interrupt.UserMode) {
+				return;
+			}
+
+			int pc = registers[Machine.PCReg];
+
+			// A delay slot can not start a block
+			if (registers[Machine.NextPCReg] != pc + 4) {
+				return;
+			}
+
+			// Let the interpreter raise any translation faults
+			int frame = MMU.probe(pCpu, pc);
+			if (frame < 0) {
+				return;
+			}
+			int vpn = pc >>> Machine.PageShift;
+
+			CachedBlock block = lookup((frame << Machine.PageShift) + (pc & (Machine.PageSize - 1)));
+			if (block == null) {
+				return;
+			}
+
+			Instruction[] instructions = block.mInstructions;
+			if (instructions.length > Interrupt.getUserTicksBeforeNextInterrupt()) {
+				return;
+			}
+
+			Statistics.numCachedBlocksRun++;
+
+			for (int i = 0; i < instructions.length; i++) {
+				// Account for the fetch the interpreter would have done
+				Machine.read4++;
+				MMU.recordFetch(pCpu, vpn, frame);
+
+				Instruction instr = instructions[i];
+				if (!MipsSim.execute(pCpu, instr)) {
+					// The exception has been handled; anything may have
+					// happened in the kernel, so do a full tick, in the
+					// kernel as run() does it.
+					Machine.tick();
+					return;
+				}
+
+				// No interrupt can be due, so this is all oneTick() would do
+				pCpu.mTotalTicks += Statistics.UserTick;
+				pCpu.mUserTicks += Statistics.UserTick;
+				Statistics.numCachedInstructions++;
+
+				// A block is straight line code, so its instructions are at
+				// consecutive addresses
+				if (Profiler.mEnabled) {
+					Profiler.record(pc + 4 * i, instr);
+				}
+				if (CallGraphProfiler.mEnabled) {
+					CallGraphProfiler.record(pCpu, instr);
+				}
+
+				// Stop if the block just overwrote its own code
+				if (!block.mValid) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the cached block starting at a physical address, collecting it if
+	 * it has become hot.
+	 *
+	 * @param pPhysAddr
+	 *            the physical address of the first instruction.
+	 * @return the cached block, or null if there is none (yet).
+	 */
+	private static CachedBlock lookup(int pPhysAddr) {
+		int index = pPhysAddr >> 2;
+		CachedBlock block = mBlocks[index];
+		if (block != null) {
+			return block;
+		}
+
+		if (mCounts[index] == Uncacheable || ++mCounts[index] < mThreshold) {
+			return null;
+		}
+
+		block = collect(pPhysAddr);
+		if (block == null) {
+			mCounts[index] = Uncacheable;
+			return null;
+		}
+
+		mBlocks[index] = block;
+		mBlocksInFrame[index / mWordsPerPage]++;
+		Statistics.numCachedBlocks++;
+		return block;
+	}
+
+	/**
+	 * Collects the decoded instructions of the basic block that starts at a
+	 * physical address.
+	 *
+	 * @param pPhysAddr
+	 *            the physical address of the first instruction.
+	 * @return the block, or null if it would hold no instructions.
+	 */
+	private static CachedBlock collect(int pPhysAddr) {
+		int frameEnd = (pPhysAddr / Machine.PageSize + 1) * Machine.PageSize;
+		Instruction[] buffer = new Instruction[MaxBlockSize];
+		int length = 0;
+
+		for (int addr = pPhysAddr; addr < frameEnd && length < MaxBlockSize; addr += 4) {
+			Instruction instr = InstructionCache.lookup(addr);
+
+			if (traps(instr)) {
+				break;
+			}
+
+			if (transfersControl(instr)) {
+				// The delay slot must be in the same frame, and must be an
+				// ordinary instruction
+				if (addr + 4 >= frameEnd || length + 2 > MaxBlockSize) {
+					break;
+				}
+
+				Instruction delaySlot = InstructionCache.lookup(addr + 4);
+				if (traps(delaySlot) || transfersControl(delaySlot)) {
+					break;
+				}
+
+				buffer[length++] = instr;
+				buffer[length++] = delaySlot;
+				break;
+			}
+
+			buffer[length++] = instr;
+		}
+
+		if (length == 0) {
+			return null;
+		}
+
+		Instruction[] instructions = new Instruction[length];
+		System.arraycopy(buffer, 0, instructions, 0, length);
+		return new CachedBlock(instructions);
+	}
+
+	/**
+	 * Checks whether an instruction always traps into the kernel.
+	 */
+	private static boolean traps(Instruction pInstr) {
+		switch (pInstr.opCode) {
+		case MipsSim.OP_SYSCALL:
+		case MipsSim.OP_RES:
+		case MipsSim.OP_UNIMP:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether an instruction is a branch or a jump.
+	 */
+	private static boolean transfersControl(Instruction pInstr) {
+		switch (pInstr.opCode) {
+		case MipsSim.OP_BEQ:
+		case MipsSim.OP_BGEZ:
+		case MipsSim.OP_BGEZAL:
+		case MipsSim.OP_BGTZ:
+		case MipsSim.OP_BLEZ:
+		case MipsSim.OP_BLTZ:
+		case MipsSim.OP_BLTZAL:
+		case MipsSim.OP_BNE:
+		case MipsSim.OP_J:
+		case MipsSim.OP_JAL:
+		case MipsSim.OP_JALR:
+		case MipsSim.OP_JR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Drops the cached blocks in a page frame, if there are any, because the
+	 * frame has been written or given a new page.
+	 *
+	 * @param pFrame
+	 *            the physical page frame.
+	 */
+	public static void invalidateFrame(int pFrame) {
+		if (mBlocksInFrame == null) {
+			return;
+		}
+
+		int first = pFrame * mWordsPerPage;
+		for (int i = first; i < first + mWordsPerPage; i++) {
+			if (mBlocks[i] != null) {
+				mBlocks[i].mValid = false;
+				mBlocks[i] = null;
+			}
+			mCounts[i] = 0;
+		}
+		mBlocksInFrame[pFrame] = 0;
+	}
+
+	/**
+	 * Drops the cached blocks in a page frame if a store to a physical
+	 * address could have changed their code.
+	 *
+	 * @param pPhysAddr
+	 *            the physical address that was written.
+	 */
+	public static void invalidateWord(int pPhysAddr) {
+		int frame = pPhysAddr >>> Machine.PageShift;
+		if (mBlocksInFrame != null && mBlocksInFrame[frame] != 0) {
+			invalidateFrame(frame);
+		}
+	}
+}
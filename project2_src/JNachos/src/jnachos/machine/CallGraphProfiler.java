@@ -0,0 +1,337 @@
+package jnachos.machine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jnachos.kern.AddrSpace;
+import jnachos.kern.JNachos;
+import jnachos.kern.NachosProcess;
+
+/**
+ * A node of a call tree: one function called along one particular path of
+ * calls from the root of the program.
+ */
+class CallNode {
+	/** The entry address of the function. */
+	public int mFunction;
+
+	/** The caller, or null for the root of the program. */
+	public CallNode mParent;
+
+	/** The functions called from here, by entry address. */
+	public Map<Integer, CallNode> mCallees;
+
+	/** The user ticks spent in this function along this path. */
+	public long mTicks;
+
+	/** The page faults taken in this function along this path. */
+	public long mFaults;
+
+	/**
+	 * Creates a call tree node.
+	 *
+	 * @param pFunction
+	 *            the entry address of the function.
+	 * @param pParent
+	 *            the calling node.
+	 */
+	public CallNode(int pFunction, CallNode pParent) {
+		mFunction = pFunction;
+		mParent = pParent;
+		mCallees = new HashMap<Integer, CallNode>();
+	}
+
+	/**
+	 * Gets the node for a call from this function, creating it the first time.
+	 *
+	 * @param pFunction
+	 *            the entry address of the called function.
+	 * @return the node of the callee.
+	 */
+	public CallNode call(int pFunction) {
+		CallNode callee = mCallees.get(pFunction);
+		if (callee == null) {
+			callee = new CallNode(pFunction, this);
+			mCallees.put(pFunction, callee);
+		}
+		return callee;
+	}
+}
+
+/**
+ * The call tree of one user program, with the names of its functions.
+ */
+class CallTree {
+	/** The name of the program (its executable). */
+	public String mName;
+
+	/** The root of the tree, standing for the program itself. */
+	public CallNode mRoot;
+
+	/** The function names from the symbol file, by address. */
+	public TreeMap<Integer, String> mSymbols;
+
+	/**
+	 * Creates an empty call tree, loading the symbol file of the program if
+	 * there is one.
+	 *
+	 * @param pName
+	 *            the name of the program.
+	 */
+	public CallTree(String pName) {
+		mName = pName;
+		mRoot = new CallNode(0, null);
+		mSymbols = new TreeMap<Integer, String>();
+		loadSymbols(pName + CallGraphProfiler.SymbolSuffix);
+	}
+
+	/**
+	 * Reads a symbol file. Each line holds a hexadecimal address and a name,
+	 * optionally with a symbol type in between as printed by nm. Lines that do
+	 * not look like that are skipped.
+	 */
+	private void loadSymbols(String pFile) {
+		if (!new File(pFile).exists()) {
+			return;
+		}
+
+		try (BufferedReader in = new BufferedReader(new FileReader(pFile))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length < 2) {
+					continue;
+				}
+
+				try {
+					mSymbols.put((int) Long.parseLong(fields[0].replaceFirst("^0[xX]", ""), 16),
+							fields[fields.length - 1]);
+				} catch (NumberFormatException e) {
+					// not a symbol line
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to read symbols from " + pFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the name of a function: its symbol, the symbol it lies in plus an
+	 * offset, or its address if there are no symbols before it.
+	 */
+	public String nameOf(int pFunction) {
+		Map.Entry<Integer, String> symbol = mSymbols.floorEntry(pFunction);
+		if (symbol == null) {
+			return String.format("0x%x", pFunction);
+		}
+		if (symbol.getKey() == pFunction) {
+			return symbol.getValue();
+		}
+		return symbol.getValue() + "+0x" + Integer.toHexString(pFunction - symbol.getKey());
+	}
+}
+
+/**
+ * An optional call graph profiler for user programs. It keeps a shadow call
+ * stack for every process: a completed JAL, JALR or BGEZAL/BLTZAL that was
+ * taken pushes the called function, and a completed JR $31 pops it. The
+ * stack is a path in the call tree of the program, so the current stack is
+ * just the current node. Every completed user instruction charges its user
+ * tick, and every page fault is charged, to the node of the running process.
+ *
+ * When the machine halts, the trees are written in the folded stack format
+ * used by flame graph tools, one line per call path ("prog;main;sort 1234").
+ * The ticks go to the output file and the page faults to the output file
+ * with ".faults" appended.
+ *
+ * Function names are taken from the file named after the executable with
+ * SymbolSuffix appended (for example test/sort.sym), if it exists. Otherwise
+ * functions are named by their entry address.
+ *
+ * Turned on with the -callprof command line option.
+ */
+public class CallGraphProfiler {
+	/** Whether or not call stacks are being tracked. */
+	public static boolean mEnabled;
+
+	/** The file the folded stacks are written to. */
+	public static String mFoldedFile;
+
+	/** Appended to the name of an executable to find its symbol file. */
+	public static final String SymbolSuffix = ".sym";
+
+	/** The register holding the return address. */
+	private static final int ReturnAddressReg = 31;
+
+	/** The call trees, by program name, in the order the programs started. */
+	private static Map<String, CallTree> mTrees = new LinkedHashMap<String, CallTree>();
+
+	/** The current node (the top of the shadow stack) of each process. */
+	private static Map<NachosProcess, CallNode> mStacks = new IdentityHashMap<NachosProcess, CallNode>();
+
+	/** The process of the last instruction counted. */
+	private static NachosProcess mLastProcess;
+
+	/** The current node of mLastProcess. */
+	private static CallNode mCurrent;
+
+	/**
+	 * Tracks an instruction that has just completed in the current process.
+	 *
+	 * @param pCpu
+	 *            the CPU that executed the instruction.
+	 * @param pInstr
+	 *            the decoded instruction.
+	 */
+	public static void record(Cpu pCpu, Instruction pInstr) {
+		CallNode node = currentNode();
+		node.mTicks += Statistics.UserTick;
+
+		switch (pInstr.opCode) {
+		case MipsSim.OP_JAL:
+		case MipsSim.OP_JALR:
+		case MipsSim.OP_BGEZAL:
+		case MipsSim.OP_BLTZAL:
+			// The delay slot is next; NextPC holds the target if the call was
+			// taken
+			int target = pCpu.mRegisters[Machine.NextPCReg];
+			if (target != pCpu.mRegisters[Machine.PCReg] + 4) {
+				mCurrent = node.call(target);
+			}
+			break;
+
+		case MipsSim.OP_JR:
+			if (pInstr.rs == ReturnAddressReg && node.mParent != null) {
+				mCurrent = node.mParent;
+			}
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Charges a page fault to the current call stack of the current process.
+	 */
+	public static void recordFault() {
+		currentNode().mFaults++;
+	}
+
+	/**
+	 * Gives a newly forked process the call stack of the current process,
+	 * since the child returns from the same calls as its parent.
+	 *
+	 * @param pChild
+	 *            the new process.
+	 */
+	public static void forked(NachosProcess pChild) {
+		mStacks.put(pChild, currentNode());
+	}
+
+	/**
+	 * Forgets the call stack of a process that is finishing.
+	 *
+	 * @param pProcess
+	 *            the process.
+	 */
+	public static void exited(NachosProcess pProcess) {
+		mStacks.remove(pProcess);
+		if (pProcess == mLastProcess) {
+			mLastProcess = null;
+			mCurrent = null;
+		}
+	}
+
+	/**
+	 * Gets the current node of the current process, switching the shadow
+	 * stack over if a different process is now running.
+	 */
+	private static CallNode currentNode() {
+		NachosProcess process = JNachos.getCurrentProcess();
+		if (process != mLastProcess) {
+			if (mLastProcess != null) {
+				mStacks.put(mLastProcess, mCurrent);
+			}
+
+			mCurrent = mStacks.get(process);
+			if (mCurrent == null) {
+				mCurrent = treeFor(process).mRoot;
+			}
+			mLastProcess = process;
+		}
+		return mCurrent;
+	}
+
+	/**
+	 * Finds (or creates) the call tree of the program a process is running.
+	 */
+	private static CallTree treeFor(NachosProcess pProcess) {
+		AddrSpace space = pProcess.getSpace();
+		String name = space == null ? null : space.getProgramName();
+		if (name == null) {
+			name = pProcess.getName();
+		}
+
+		CallTree tree = mTrees.get(name);
+		if (tree == null) {
+			tree = new CallTree(name);
+			mTrees.put(name, tree);
+		}
+		return tree;
+	}
+
+	/**
+	 * Writes the folded stacks of every program. Called when the machine
+	 * halts.
+	 */
+	public static void report() {
+		try (PrintWriter ticks = new PrintWriter(new FileWriter(mFoldedFile));
+				PrintWriter faults = new PrintWriter(new FileWriter(mFoldedFile + ".faults"))) {
+			for (CallTree tree : mTrees.values()) {
+				fold(tree, ticks, faults);
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to write call graph to " + mFoldedFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the folded stack lines of every node of a call tree. The tree is
+	 * as deep as the deepest recursion of the program, so it is walked with
+	 * an explicit stack rather than by recursing.
+	 */
+	private static void fold(CallTree pTree, PrintWriter pTicks, PrintWriter pFaults) {
+		Deque<CallNode> nodes = new ArrayDeque<CallNode>();
+		Deque<String> stacks = new ArrayDeque<String>();
+		nodes.push(pTree.mRoot);
+		stacks.push(pTree.mName);
+
+		while (!nodes.isEmpty()) {
+			CallNode node = nodes.pop();
+			String stack = stacks.pop();
+			if (node.mTicks != 0) {
+				pTicks.println(stack + " " + node.mTicks);
+			}
+			if (node.mFaults != 0) {
+				pFaults.println(stack + " " + node.mFaults);
+			}
+
+			for (CallNode callee : node.mCallees.values()) {
+				nodes.push(callee);
+				stacks.push(stack + ";" + pTree.nameOf(callee.mFunction));
+			}
+		}
+	}
+}
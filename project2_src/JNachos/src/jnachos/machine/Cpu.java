@@ -0,0 +1,175 @@
+package jnachos.machine;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * The state of one simulated MIPS CPU: its registers, the page table or TLB
+ * its MMU translates through, and its interrupt hardware (the interrupt
+ * level, the processor status, and the interrupts scheduled to occur).
+ *
+ * MipsSim, MMU and the exception handler work on the Cpu they are given,
+ * rather than on static machine state, so that the interpreter's hot loop can
+ * keep the CPU in a local variable. Main memory is not part of the CPU; it is
+ * the physical memory of the machine, shared by every CPU (Machine.mMainMemory).
+ *
+ * Each CPU also keeps its own clock. On a multiprocessor (-smp) the CPUs run
+ * in parallel, each driven by the host thread of the process running on it,
+ * so time advances separately on every CPU.
+ *
+ * Machine.currentCpu() is the CPU the calling thread is running on. The static
+ * kernel interfaces (Machine.readRegister(), Interrupt.setLevel(), ...) act on
+ * that CPU.
+ */
+public class Cpu {
+	/** The number of this CPU. */
+	public final int mId;
+
+	/**
+	 * The full set of MIPS registers, plus a few more because we need to be
+	 * able to start/stop a user program between any two instructions (thus we
+	 * need to keep track of things like load delay slots, etc.)
+	 */
+	public final int[] mRegisters;
+
+	/**
+	 * The translation lookaside buffer, or null if the page table is used.
+	 * This pointer should be considered "read-only" to Nachos kernel code.
+	 */
+	public TranslationEntry[] mTlb;
+
+	/**
+	 * When each TLB entry was last used, as a value of mTlbAccesses, so that
+	 * the kernel can replace the least recently used entry.
+	 */
+	public long[] mTlbLastUse;
+
+	/** The number of translations done through the TLB. */
+	public long mTlbAccesses;
+
+	/**
+	 * The host-side translation cache of this CPU (see MMU.translate()),
+	 * indexed by virtual page number modulo MMU.SoftTlbSize: the virtual page
+	 * cached in each slot (or -1), the address of its page frame, and whether
+	 * it may be written without going through the page table.
+	 */
+	final int[] mSoftTag;
+	final int[] mSoftBase;
+	final boolean[] mSoftWritable;
+
+	/** The page table of the process running on this CPU. */
+	public PageTable mPageTable;
+
+	/** The size of the current page table. */
+	public int mPageTableSize;
+
+	/** The physical address produced by the last successful translate. */
+	public int mPhysAddr;
+
+	/**
+	 * Set by Machine.readMem when the read raised an exception instead of
+	 * returning a value.
+	 */
+	public boolean mMemoryFault;
+
+	/** The high and low words of the last multiplication. */
+	final int[] mMultResult;
+
+	/**
+	 * User instructions executed by Machine.runUntilNextInterrupt() whose time
+	 * has not been added to the statistics yet.
+	 */
+	int mBatchedInstructions;
+
+	/** Are interrupts enabled or disabled? */
+	boolean mInterruptsEnabled;
+
+	/** The list of interrupts scheduled to occur in the future. */
+	LinkedList<PendingInterrupt> mPending;
+
+	/** true if we are running an interrupt handler */
+	boolean mInHandler;
+
+	/**
+	 * true if we are to context switch on return from the interrupt handler.
+	 */
+	boolean mYieldOnReturn;
+
+	/** current status (idle, kernel mode, user mode). */
+	int mStatus;
+
+	/** The time on this CPU. */
+	public int mTotalTicks;
+
+	/** Time this CPU spent idle (no process to run). */
+	public int mIdleTicks;
+
+	/** Time this CPU spent executing system code. */
+	public int mSystemTicks;
+
+	/** Time this CPU spent executing user code. */
+	public int mUserTicks;
+
+	/** The number of timer interrupts this CPU has taken. */
+	public int mTimerInterrupts;
+
+	/**
+	 * Creates a CPU with all registers zero, no translation set up, and
+	 * interrupts off with nothing pending.
+	 *
+	 * @param pId
+	 *            the number of the CPU.
+	 */
+	public Cpu(int pId) {
+		mId = pId;
+		mRegisters = new int[Machine.NumTotalRegs];
+		mMultResult = new int[2];
+		mSoftTag = new int[MMU.SoftTlbSize];
+		mSoftBase = new int[MMU.SoftTlbSize];
+		mSoftWritable = new boolean[MMU.SoftTlbSize];
+		Arrays.fill(mSoftTag, -1);
+		mPending = new LinkedList<PendingInterrupt>();
+		mStatus = Interrupt.SystemMode;
+	}
+
+	/**
+	 * Reads a register.
+	 *
+	 * @param pNum
+	 *            the register to read.
+	 * @return the value held in that register.
+	 */
+	public int readRegister(int pNum) {
+		return mRegisters[pNum];
+	}
+
+	/**
+	 * Writes a register.
+	 *
+	 * @param pNum
+	 *            the register to write.
+	 * @param pValue
+	 *            the value to write.
+	 */
+	public void writeRegister(int pNum, int pValue) {
+		mRegisters[pNum] = pValue;
+	}
+
+	/**
+	 * Simulate effects of a delayed load.
+	 *
+	 * NOTE -- RaiseException/CheckInterrupts must also call DelayedLoad, since
+	 * any delayed load must get applied before we trap to the kernel.
+	 *
+	 * @param pNextReg
+	 *            the register the next delayed load is to.
+	 * @param pNextValue
+	 *            the value the next delayed load is to load.
+	 */
+	public void delayedLoad(int pNextReg, int pNextValue) {
+		mRegisters[mRegisters[Machine.LoadReg]] = mRegisters[Machine.LoadValueReg];
+		mRegisters[Machine.LoadReg] = pNextReg;
+		mRegisters[Machine.LoadValueReg] = pNextValue;
+		mRegisters[0] = 0; // and always make sure R0 stays zero.
+	}
+}
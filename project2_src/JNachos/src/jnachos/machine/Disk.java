@@ -16,14 +16,14 @@ public class Disk implements VoidFunctionPtr {
 	/** Number of bytes per disk sector. */
 	public static final int SectorSize = 128;
 
-	/** Number of sectors per disk track. */
-	public static final int SectorsPerTrack = 32;
+	/** Number of sectors per disk track. Set at boot by setGeometry(). */
+	public static int SectorsPerTrack = 32;
 
-	/** Number of tracks per disk. */
-	public static final int NumTracks = 32;
+	/** Number of tracks per disk. Set at boot by setGeometry(). */
+	public static int NumTracks = 32;
 
 	/** Total # of sectors per disk. */
-	public static final int NumSectors = (SectorsPerTrack * NumTracks);
+	public static int NumSectors = (SectorsPerTrack * NumTracks);
 
 	/** Nachos Magic Number. */
 	public static final int MagicNumber = 0x456789ab;
@@ -32,7 +32,7 @@ public class Disk implements VoidFunctionPtr {
 	public static final int MagicSize = 4;
 
 	/** Calculate the size of the disk. */
-	public static final int DiskSize = (MagicSize + (NumSectors * SectorSize));
+	public static int DiskSize = (MagicSize + (NumSectors * SectorSize));
 
 	/** UNIX file number for simulated disk. */
 	private int mFileno;
@@ -56,6 +56,34 @@ public class Disk implements VoidFunctionPtr {
 	 */
 	private int mBufferInit;
 
+	/**
+	 * Sets the geometry of the disk. Must be called before the disk is
+	 * created. The sector size is fixed, since the layout of the file system
+	 * depends on it.
+	 *
+	 * @param pNumTracks
+	 *            the number of tracks.
+	 * @param pSectorsPerTrack
+	 *            the number of sectors per track.
+	 * @throws IllegalArgumentException
+	 *             if there is no such disk.
+	 */
+	public static void setGeometry(int pNumTracks, int pSectorsPerTrack) {
+		if (pNumTracks < 1 || pSectorsPerTrack < 1) {
+			throw new IllegalArgumentException(
+					"a disk of " + pNumTracks + " tracks of " + pSectorsPerTrack + " sectors has no sectors");
+		}
+		if ((long) pNumTracks * pSectorsPerTrack * SectorSize + MagicSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"a disk of " + pNumTracks + " tracks of " + pSectorsPerTrack + " sectors is too large");
+		}
+
+		NumTracks = pNumTracks;
+		SectorsPerTrack = pSectorsPerTrack;
+		NumSectors = SectorsPerTrack * NumTracks;
+		DiskSize = MagicSize + NumSectors * SectorSize;
+	}
+
 	/**
 	 * Initialize a simulated disk. Open the file (creating it if it doesn't
 	 * exist), and check the magic number to make sure it's OK to treat it as
@@ -96,6 +124,14 @@ public class Disk implements VoidFunctionPtr {
 			Debug.print('j', "Magic: " + magicNum);
 
 			assert (magicNum == MagicNumber);
+
+			// The disk may have been made bigger since the file was created
+			JavaSys.lseek(mFileno, DiskSize - 4);
+			byte[] buf = new byte[4];
+			if (JavaSys.readPartial(mFileno, buf, 4) < 4) {
+				JavaSys.lseek(mFileno, DiskSize - 4);
+				JavaSys.writeFile(mFileno, buf, 4);
+			}
 		}
 
 		// file doesn't exist, create it
@@ -254,7 +290,7 @@ public class Disk implements VoidFunctionPtr {
 		int oldTrack = mLastSector / SectorsPerTrack;
 		int seek = Math.abs(newTrack - oldTrack) * Statistics.SeekTime;
 		// how long will seek take?
-		int over = (Statistics.totalTicks + seek) % Statistics.RotationTime;
+		int over = (Machine.currentCpu().mTotalTicks + seek) % Statistics.RotationTime;
 		// will we be in the middle of a sector when
 		// we finish the seek?
 
@@ -297,7 +333,7 @@ public class Disk implements VoidFunctionPtr {
 	public int computeLatency(int newSector, boolean writing) {
 		int[] rotation = new int[1];
 		int seek = timeToSeek(newSector, rotation);
-		int timeAfter = Statistics.totalTicks + seek + rotation[0];
+		int timeAfter = Machine.currentCpu().mTotalTicks + seek + rotation[0];
 
 		/*
 		 * // turn this on if you don't want the track buffer stuff // check if
@@ -324,7 +360,7 @@ public class Disk implements VoidFunctionPtr {
 		int seek = timeToSeek(newSector, rotate);
 
 		if (seek != 0) {
-			mBufferInit = Statistics.totalTicks + seek + rotate[0];
+			mBufferInit = Machine.currentCpu().mTotalTicks + seek + rotate[0];
 		}
 
 		mLastSector = newSector;
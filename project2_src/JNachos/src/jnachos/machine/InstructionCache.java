@@ -0,0 +1,87 @@
+package jnachos.machine;
+
+/**
+ * A cache of decoded instructions, keyed by physical page frame and the word
+ * offset within that frame. Tight loops in user programs fetch the same few
+ * words over and over again, so instead of re-reading main memory and
+ * re-running Instruction.decode() on every fetch, the first fetch of a word
+ * decodes it and every later fetch reuses the decoded form.
+ *
+ * The cache must never hand out an instruction that no longer matches main
+ * memory. Any store into main memory drops the decoded word it overwrites, and
+ * the kernel drops a whole frame whenever the frame is paged in, evicted, or
+ * handed to a different process.
+ */
+public class InstructionCache {
+	/** The decoded instructions, one slot per word of main memory. */
+	private static Instruction[] mDecoded;
+
+	/** The number of words in a page frame. */
+	private static int mWordsPerPage;
+
+	/**
+	 * Create an empty cache covering all of main memory. Called when the
+	 * machine is initialized.
+	 */
+	public static void init() {
+		mDecoded = new Instruction[Machine.MemorySize / 4];
+		mWordsPerPage = Machine.PageSize / 4;
+	}
+
+	/**
+	 * Gets the decoded form of the instruction stored at a physical address,
+	 * decoding it from main memory if it is not already cached.
+	 *
+	 * @param pPhysAddr
+	 *            the word aligned physical address of the instruction.
+	 * @return the decoded instruction.
+	 */
+	public static Instruction lookup(int pPhysAddr) {
+		int index = pPhysAddr >> 2;
+		Instruction instr = mDecoded[index];
+
+		if (instr != null) {
+			Statistics.numDecodeHits++;
+			return instr;
+		}
+
+		Statistics.numDecodeMisses++;
+
+		// Decode the word straight out of main memory
+		byte[] memory = Machine.mMainMemory;
+		instr = new Instruction();
+		instr.value = MipsSim.wordToHost((memory[pPhysAddr] << 24) + ((memory[pPhysAddr + 1] & 0xFF) << 16)
+				+ ((memory[pPhysAddr + 2] & 0xFF) << 8) + (memory[pPhysAddr + 3] & 0xFF));
+		instr.decode();
+
+		mDecoded[index] = instr;
+		return instr;
+	}
+
+	/**
+	 * Drops the decoded instruction for the word containing a physical
+	 * address. Called whenever the word is written.
+	 *
+	 * @param pPhysAddr
+	 *            a physical address within the word that was written.
+	 */
+	public static void invalidateWord(int pPhysAddr) {
+		mDecoded[pPhysAddr >> 2] = null;
+		BlockCache.invalidateWord(pPhysAddr);
+	}
+
+	/**
+	 * Drops every decoded instruction in a page frame. Called whenever the
+	 * contents of the frame are replaced or the frame changes owner.
+	 *
+	 * @param pFrame
+	 *            the physical page frame.
+	 */
+	public static void invalidateFrame(int pFrame) {
+		int first = pFrame * mWordsPerPage;
+		for (int i = first; i < first + mWordsPerPage; i++) {
+			mDecoded[i] = null;
+		}
+		BlockCache.invalidateFrame(pFrame);
+	}
+}
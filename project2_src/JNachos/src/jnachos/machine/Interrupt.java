@@ -11,80 +11,6 @@ import jnachos.kern.*;
 import java.util.LinkedList;
 import java.util.ListIterator;
 
-/**
- * Pending Interrupt describes an interrupt that is scheduled to occur at some
- * time in the future
- */
-class PendingInterrupt {
-
-	/** The function (in the hardware device). */
-	private VoidFunctionPtr mHandler;
-
-	/** The argument to the function. */
-	private Object mArg;
-
-	/** When the interrupt is supposed to fire. */
-	private int mWhen;
-
-	/** Used for Debug printing */
-	private InterruptType mType;
-
-	/**
-	 * Default Constructor.
-	 * 
-	 * @param pFunc
-	 *            The call-back function
-	 * @param pArg
-	 *            The argument to the call-back function.
-	 * @param pTime
-	 *            The time that the interrupt should fire.
-	 * @param pKind
-	 *            The kind of interrupt.
-	 */
-	public PendingInterrupt(VoidFunctionPtr pFunc, Object pArg, int pTime, InterruptType pKind) {
-		mHandler = pFunc;
-		mArg = pArg;
-		mWhen = pTime;
-		mType = pKind;
-	}
-
-	/**
-	 * Gets the interrupt handler
-	 * 
-	 * @return The call-back function (interrupt handler)
-	 */
-	public VoidFunctionPtr getHandler() {
-		return mHandler;
-	}
-
-	/**
-	 * Gets the interrupt handler argument.
-	 * 
-	 * @return The interrupt handler argument
-	 */
-	public Object getArgument() {
-		return mArg;
-	}
-
-	/**
-	 * Gets the time when the interrupt should fire.
-	 * 
-	 * @return The time when the interrupt should fire.
-	 */
-	public int getWhen() {
-		return mWhen;
-	}
-
-	/**
-	 * Gets the type of interrupt
-	 * 
-	 * @return The type of interrupt
-	 */
-	public InterruptType getType() {
-		return mType;
-	}
-}
-
 /**
  * Data structures to emulate low-level interrupt hardware.
  *
@@ -107,6 +33,11 @@ class PendingInterrupt {
  * on real hardware. (Just because we can't always detect when your program
  * would fail in real life, does not mean it's ok to write incorrectly
  * synchronized code!)
+ *
+ * The interrupt state itself (the level, the status and the pending
+ * interrupts) belongs to a Cpu; these routines act on the current CPU,
+ * Machine.currentCpu(). So does the simulated time: every CPU has a clock and
+ * a timer of its own.
  */
 public class Interrupt {
 
@@ -126,30 +57,13 @@ public class Interrupt {
 	public final static String intTypeNames[] = { "timer", "disk", "console write", "console read", "network send",
 			"network recv" };
 
-	/** Are interrupts enabled or disabled? */
-	private static boolean mEnabled;
-
-	/** The list of interrupts scheduled to occur in the future. */
-	private static LinkedList<PendingInterrupt> mPending;
-
-	/** true if we are running an interrupt handler */
-	private static boolean mInHandler;
-
-	/**
-	 * true if we are to context switch on return from the interrupt handler.
-	 */
-	private static boolean mYieldOnReturn;
-
-	/** current status. */
-	private static int mStatus; // idle, kernel mode, user mode
-
 	/**
 	 * Gets the current interrupt status.
 	 * 
 	 * @return The current interrupt status.
 	 */
 	public static int getStatus() {
-		return mStatus;
+		return Machine.currentCpu().mStatus;
 	}
 
 	/**
@@ -157,11 +71,13 @@ public class Interrupt {
 	 * disabled, with no interrupts pending, etc.
 	 */
 	public static void init() {
-		mEnabled = false;
-		mPending = new LinkedList<PendingInterrupt>();
-		mInHandler = false;
-		mYieldOnReturn = false;
-		mStatus = SystemMode;
+		Cpu cpu = Machine.currentCpu();
+
+		cpu.mInterruptsEnabled = false;
+		cpu.mPending = new LinkedList<PendingInterrupt>();
+		cpu.mInHandler = false;
+		cpu.mYieldOnReturn = false;
+		cpu.mStatus = SystemMode;
 	}
 
 	/**
@@ -170,14 +86,16 @@ public class Interrupt {
 	 * lsit.
 	 */
 	public static void killInterrupt() {
+		Cpu cpu = Machine.currentCpu();
+
 		// while there are more interrupts
-		while (!mPending.isEmpty()) {
+		while (!cpu.mPending.isEmpty()) {
 			// remove the interrupt
-			mPending.remove();
+			cpu.mPending.remove();
 		}
 
 		// set the list to null
-		mPending = null;
+		cpu.mPending = null;
 	}
 
 	/**
@@ -192,8 +110,10 @@ public class Interrupt {
 	 *            the new interrupt mStatus.
 	 */
 	public static void changeLevel(boolean pOld, boolean pNow) {
-		mEnabled = pNow;
-		Debug.print('i', "\tinterrupts:" + pOld + "-> " + pNow);
+		Machine.currentCpu().mInterruptsEnabled = pNow;
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "\tinterrupts:" + pOld + "-> " + pNow);
+		}
 	}
 
 	/**
@@ -205,10 +125,12 @@ public class Interrupt {
 	 *            the new interrupt mStatus.
 	 */
 	public static boolean setLevel(boolean pNow) {
-		boolean old = mEnabled;
+		Cpu cpu = Machine.currentCpu();
+
+		boolean old = cpu.mInterruptsEnabled;
 
 		// interrupt handlers are prohibited from enabling interrupts
-		assert ((pNow == false) || (mInHandler == false));
+		assert ((pNow == false) || (cpu.mInHandler == false));
 
 		// change to new state
 		changeLevel(old, pNow);
@@ -228,7 +150,7 @@ public class Interrupt {
 	 * @return The current interrupt level.
 	 */
 	public static boolean getLevel() {
-		return mEnabled;
+		return Machine.currentCpu().mInterruptsEnabled;
 	}
 
 	/**
@@ -238,7 +160,7 @@ public class Interrupt {
 	 *            the new interrupt level.
 	 */
 	public static void setStatus(int pStatus) {
-		mStatus = pStatus;
+		Machine.currentCpu().mStatus = pStatus;
 	}
 
 	/**
@@ -257,16 +179,20 @@ public class Interrupt {
 	 * user instruction is executed
 	 */
 	public static void oneTick() {
+		Cpu cpu = Machine.currentCpu();
+
 		// advance simulated time
-		if (mStatus == SystemMode) {
-			Statistics.totalTicks += Statistics.SystemTick;
-			Statistics.systemTicks += Statistics.SystemTick;
+		if (cpu.mStatus == SystemMode) {
+			cpu.mTotalTicks += Statistics.SystemTick;
+			cpu.mSystemTicks += Statistics.SystemTick;
 		} else { // USER_PROGRAM
-			Statistics.totalTicks += Statistics.UserTick;
-			Statistics.userTicks += Statistics.UserTick;
+			cpu.mTotalTicks += Statistics.UserTick;
+			cpu.mUserTicks += Statistics.UserTick;
 		}
 
-		Debug.print('i', "\n== Tick " + Statistics.totalTicks + "==");
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "\n== Tick " + cpu.mTotalTicks + "==");
+		}
 
 		// check any pending interrupts are now ready to fire
 		// first, turn off interrupts (interrupt handlers run with interrupts
@@ -281,13 +207,40 @@ public class Interrupt {
 		changeLevel(false, true);
 
 		// if the timer device handler asked
-		// for a context switch, ok to do it now
-		if (mYieldOnReturn) {
-			mYieldOnReturn = false;
+		// for a context switch, ok to do it now. The process that ran in
+		// the meantime may have left the CPU from inside the kernel, so go
+		// back to the mode this one was in, on whichever CPU it is now.
+		if (cpu.mYieldOnReturn) {
+			cpu.mYieldOnReturn = false;
+			int old = cpu.mStatus;
 			JNachos.getCurrentProcess().yield();
+			Machine.currentCpu().mStatus = old;
 		}
 	}
 
+	/**
+	 * Gets the number of user instructions that can be executed, each
+	 * advancing the time by Statistics.UserTick, before the earliest pending
+	 * interrupt falls due. Until then a call to oneTick() from user mode would
+	 * only advance the clock.
+	 *
+	 * @return the number of user instructions before the next interrupt.
+	 */
+	public static int getUserTicksBeforeNextInterrupt() {
+		Cpu cpu = Machine.currentCpu();
+
+		if (cpu.mPending.isEmpty()) {
+			return Integer.MAX_VALUE;
+		}
+
+		int until = cpu.mPending.getFirst().getWhen() - cpu.mTotalTicks;
+		if (until <= 0) {
+			return 0;
+		}
+
+		return (until - 1) / Statistics.UserTick;
+	}
+
 	/**
 	 * Called from within an interrupt handler, to cause a context switch (for
 	 * example, on a time slice) in the interrupted thread, when the handler
@@ -297,8 +250,10 @@ public class Interrupt {
 	 * interrupt handler, and we want to switch out the interrupted thread.
 	 */
 	public static void yieldOnReturn() {
-		assert (mInHandler);
-		mYieldOnReturn = true;
+		Cpu cpu = Machine.currentCpu();
+
+		assert (cpu.mInHandler);
+		cpu.mYieldOnReturn = true;
 	}
 
 	/**
@@ -309,11 +264,14 @@ public class Interrupt {
 	 * scheduled hardware interrupt.
 	 *
 	 * If there are no pending interrupts, stop. There's nothing more for us to
-	 * do.
+	 * do. On a multiprocessor, another CPU may still make a process ready, so
+	 * the CPU waits for that instead, unless every CPU is idle.
 	 */
 	public static void idle() {
+		Cpu cpu = Machine.currentCpu();
+
 		Debug.print('i', "Machine idling; checking for interrupts.\n");
-		mStatus = IdleMode;
+		cpu.mStatus = IdleMode;
 
 		// check for any pending interrupts
 		if (checkIfDue(true)) {
@@ -323,15 +281,21 @@ public class Interrupt {
 
 			// Since there's nothing in the
 			// ready queue, the yield is automatic
-			mYieldOnReturn = false;
+			cpu.mYieldOnReturn = false;
 
 			// we are in the kernel
-			mStatus = SystemMode;
+			cpu.mStatus = SystemMode;
 
 			// return in case there's now a runnable process
 			return;
 		}
 
+		// Wait for another CPU to make a process ready to run
+		if (KernelLock.waitForWork(cpu)) {
+			cpu.mStatus = SystemMode;
+			return;
+		}
+
 		// if there are no pending interrupts, and nothing is on the ready
 		// queue, it is time to stop. If the console or the network is
 		// operating, there are *always* pending interrupts, so this code
@@ -349,6 +313,15 @@ public class Interrupt {
 	public static void halt() {
 		System.out.println("Machine halting!\n\n");
 		Statistics.Print();
+		if (Profiler.mEnabled) {
+			Profiler.report();
+		}
+		if (CallGraphProfiler.mEnabled) {
+			CallGraphProfiler.report();
+		}
+		if (TraceRecorder.mEnabled) {
+			TraceRecorder.close();
+		}
 		JNachos.cleanUp(); // Never returns.
 	}
 
@@ -372,10 +345,12 @@ public class Interrupt {
 	 *            the hardware device that generated the interrupt
 	 */
 	public static void schedule(VoidFunctionPtr handler, Object arg, int fromNow, InterruptType type) {
-		int when = Statistics.totalTicks + fromNow;
+		int when = Machine.currentCpu().mTotalTicks + fromNow;
 		PendingInterrupt toOccur = new PendingInterrupt(handler, arg, when, type);
 
-		Debug.print('i', "Scheduling interrupt handler the " + intTypeNames[type.ordinal()] + " at time =" + when);
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "Scheduling interrupt handler the " + intTypeNames[type.ordinal()] + " at time =" + when);
+		}
 
 		assert (fromNow > 0);
 
@@ -394,51 +369,57 @@ public class Interrupt {
 	 *            time-slice daemon, however, then we're done!
 	 */
 	public static boolean checkIfDue(boolean advanceClock) {
+		Cpu cpu = Machine.currentCpu();
+
 		// MachineStatus
-		int old = mStatus;
+		int old = cpu.mStatus;
 		int when;
 
 		// interrupts need to be disabled, to invoke an interrupt handler
-		assert (mEnabled == false);
+		assert (cpu.mInterruptsEnabled == false);
 
 		if (Debug.isEnabled('i'))
 			dumpState();
 
-		if (mPending.isEmpty())
+		if (cpu.mPending.isEmpty())
 			return false;
 
-		PendingInterrupt toOccur = mPending.removeFirst();
+		// Look before removing, so that nothing is allocated on the (very
+		// common) path where no interrupt is due yet
+		PendingInterrupt toOccur = cpu.mPending.getFirst();
 
-		if (advanceClock && toOccur.getWhen() > Statistics.totalTicks) { // advance
-																			// the
-																			// clock
-			Statistics.idleTicks += (toOccur.getWhen() - Statistics.totalTicks);
-			Statistics.totalTicks = toOccur.getWhen();
-		} else if (toOccur.getWhen() > Statistics.totalTicks) { // not time yet,
-																// put it back
-			mPending.addFirst(toOccur);
+		if (advanceClock && toOccur.getWhen() > cpu.mTotalTicks) { // advance
+																	// the
+																	// clock
+			cpu.mIdleTicks += (toOccur.getWhen() - cpu.mTotalTicks);
+			cpu.mTotalTicks = toOccur.getWhen();
+		} else if (toOccur.getWhen() > cpu.mTotalTicks) { // not time yet
 			return false;
 		}
 
+		cpu.mPending.removeFirst();
+
 		// Check if there is nothing more to do, and if so, quit
-		if ((mStatus == IdleMode) && (toOccur.getType() == InterruptType.TimerInt) && mPending.isEmpty()) {
+		if ((cpu.mStatus == IdleMode) && (toOccur.getType() == InterruptType.TimerInt) && cpu.mPending.isEmpty()) {
 			SortedInsert(toOccur, toOccur.getWhen());
 			return false;
 		}
 
-		Debug.print('i', "Invoking interrupt handler for the " + intTypeNames[toOccur.getType().ordinal()] + " at time "
-				+ toOccur.getWhen());
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "Invoking interrupt handler for the " + intTypeNames[toOccur.getType().ordinal()]
+					+ " at time " + toOccur.getWhen());
+		}
 
-		Machine.delayedLoad(0, 0);
-		mInHandler = true;
-		mStatus = SystemMode; // whatever we were doing,
+		cpu.delayedLoad(0, 0);
+		cpu.mInHandler = true;
+		cpu.mStatus = SystemMode; // whatever we were doing,
 		// we are now going to be
 		// running in the kernel
 
 		toOccur.getHandler().call(toOccur.getArgument()); // call the interrupt
 															// handler
-		mStatus = old; // restore the machine mStatus
-		mInHandler = false;
+		cpu.mStatus = old; // restore the machine mStatus
+		cpu.mInHandler = false;
 		toOccur = null;
 		return true;
 	}
@@ -458,7 +439,9 @@ public class Interrupt {
 	 * are scheduled to occur in the future.
 	 */
 	public static void dumpState() {
-		System.out.println("Time: " + Statistics.totalTicks + ", interrupts " + mEnabled);
+		Cpu cpu = Machine.currentCpu();
+
+		System.out.println("Time: " + cpu.mTotalTicks + ", interrupts " + cpu.mInterruptsEnabled);
 		System.out.println("Pending interrupts:\n");
 		System.out.flush();
 		// pending.Mapcar(PrintPending);
@@ -476,13 +459,15 @@ public class Interrupt {
 	 *            The time when the interrupt should be thrown.
 	 */
 	public static void SortedInsert(PendingInterrupt pPending, int pWhen) {
-		for (int i = 0; i < mPending.size(); i++) {
-			PendingInterrupt next = mPending.get(i);
+		Cpu cpu = Machine.currentCpu();
+
+		for (int i = 0; i < cpu.mPending.size(); i++) {
+			PendingInterrupt next = cpu.mPending.get(i);
 			if (next.getWhen() > pWhen) {
-				mPending.add(i, pPending);
+				cpu.mPending.add(i, pPending);
 				return;
 			}
 		}
-		mPending.addLast(pPending);
+		cpu.mPending.addLast(pPending);
 	}
 }
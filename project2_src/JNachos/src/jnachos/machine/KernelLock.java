@@ -0,0 +1,180 @@
+package jnachos.machine;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The locks that make the kernel safe on a multiprocessor (-smp).
+ *
+ * On a uniprocessor, the kernel gets mutual exclusion by turning interrupts
+ * off. With several CPUs that is not enough, so the kernel is protected by a
+ * single big kernel lock instead: a process thread holds it whenever it runs
+ * kernel code, and lets go of it only while it runs user code on its CPU, or
+ * while it is suspended. Everything the kernel shares (the ready queues, the
+ * free frame map, the frame table, the process table, the swap
+ * space) is therefore only ever touched by one CPU at a time.
+ *
+ * User code runs in parallel on all CPUs. A CPU running user code holds the
+ * user lock for reading. A kernel that has to change a mapping that another
+ * CPU may be using (evicting a page of a process that could be running)
+ * takes the user lock for writing, which waits until every other CPU has
+ * trapped into the kernel. They can not get back into user code until the
+ * mapping has been changed.
+ *
+ * None of this is used on a uniprocessor; every method returns straight away
+ * unless mEnabled is set.
+ */
+public class KernelLock {
+	/** Whether or not there is more than one CPU to lock against. */
+	public static boolean mEnabled;
+
+	/** The big kernel lock. */
+	private static ReentrantLock mKernel = new ReentrantLock();
+
+	/** Signalled when a process is put on a ready queue. */
+	private static Condition mWork = mKernel.newCondition();
+
+	/** Held for reading by every CPU running user code. */
+	private static ReentrantReadWriteLock mUser = new ReentrantReadWriteLock();
+
+	/** The number of CPUs waiting for work in waitForWork(). */
+	private static int mWaitingCpus;
+
+	/** The clock of the CPU that last made work available. */
+	private static int mWorkTime;
+
+	/**
+	 * Takes the kernel lock.
+	 */
+	public static void acquire() {
+		if (mEnabled) {
+			mKernel.lock();
+		}
+	}
+
+	/**
+	 * Lets go of the kernel lock completely, because the calling process is
+	 * about to be suspended.
+	 *
+	 * @return how many times the lock was held, for reacquire().
+	 */
+	public static int releaseAll() {
+		if (!mEnabled) {
+			return 0;
+		}
+
+		int holds = mKernel.getHoldCount();
+		for (int i = 0; i < holds; i++) {
+			mKernel.unlock();
+		}
+		return holds;
+	}
+
+	/**
+	 * Takes the kernel lock again after releaseAll().
+	 *
+	 * @param pHolds
+	 *            the value returned by releaseAll().
+	 */
+	public static void reacquire(int pHolds) {
+		for (int i = 0; i < pHolds; i++) {
+			mKernel.lock();
+		}
+	}
+
+	/**
+	 * Called when a CPU traps (or is interrupted) out of user code. If the
+	 * calling thread was running user code, it stops counting as a user of
+	 * the mappings and takes the kernel lock.
+	 *
+	 * @return true if the thread was running user code, in which case
+	 *         leaveKernel(true) must be called before it runs user code again.
+	 */
+	public static boolean enterKernel() {
+		if (!mEnabled || mUser.getReadHoldCount() == 0) {
+			return false;
+		}
+
+		mUser.readLock().unlock();
+		mKernel.lock();
+		return true;
+	}
+
+	/**
+	 * Goes back to user code after enterKernel(), or for the first time from
+	 * Machine.run().
+	 *
+	 * @param pToUser
+	 *            the value returned by enterKernel() (true when starting user
+	 *            code for the first time).
+	 */
+	public static void leaveKernel(boolean pToUser) {
+		if (!mEnabled || !pToUser) {
+			return;
+		}
+
+		mKernel.unlock();
+		mUser.readLock().lock();
+	}
+
+	/**
+	 * Waits for every other CPU to leave user code. Called with the kernel lock
+	 * held, before changing a mapping that another CPU could be using.
+	 */
+	public static void stopOtherCpus() {
+		if (mEnabled) {
+			mUser.writeLock().lock();
+		}
+	}
+
+	/**
+	 * Lets the other CPUs go back to user code after stopOtherCpus().
+	 */
+	public static void resumeOtherCpus() {
+		if (mEnabled) {
+			mUser.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Wakes up the CPUs waiting for work, because a process has been made
+	 * ready to run. Called with the kernel lock held.
+	 *
+	 * @param pNow
+	 *            the clock of the calling CPU.
+	 */
+	public static void workAvailable(int pNow) {
+		if (mEnabled && mWaitingCpus > 0) {
+			mWorkTime = Math.max(mWorkTime, pNow);
+			mWork.signalAll();
+		}
+	}
+
+	/**
+	 * Waits, with the kernel lock released, until some process is made ready
+	 * to run. Called by an idle CPU that has no interrupts pending. The time
+	 * the CPU spent waiting is counted as idle time.
+	 *
+	 * @param pCpu
+	 *            the calling CPU.
+	 * @return false if every CPU is idle with nothing pending (so nothing will
+	 *         ever become ready), true once there may be work.
+	 */
+	public static boolean waitForWork(Cpu pCpu) {
+		if (!mEnabled || mWaitingCpus + 1 == Machine.getNumCpus()) {
+			return false;
+		}
+
+		mWaitingCpus++;
+		mWork.awaitUninterruptibly();
+		mWaitingCpus--;
+
+		// Catch up with the CPU that woke us
+		if (mWorkTime > pCpu.mTotalTicks) {
+			pCpu.mIdleTicks += mWorkTime - pCpu.mTotalTicks;
+			pCpu.mTotalTicks = mWorkTime;
+		}
+		return true;
+	}
+}
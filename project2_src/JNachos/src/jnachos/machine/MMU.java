@@ -7,8 +7,9 @@
  */
 package jnachos.machine;
 
+import java.util.Arrays;
+
 import jnachos.kern.*;
-import jnachos.kern.mem.NFU;
 
 /**
  * NOTE: the hardware translation of virtual addresses in the user program to
@@ -22,31 +23,20 @@ import jnachos.kern.mem.NFU;
  * kernel can use any data structure it wants (eg, segmented paging) for
  * handling TLB cache misses.
  *
- * For simplicity, both the page table pointer and the TLB pointer are public.
- * However, while there can be multiple page tables (one per address space,
- * stored in memory), there is only one TLB (implemented in hardware). Thus the
- * TLB pointer should be considered as *read-only*, although the contents of the
- * TLB are free to be modified by the kernel software.
+ * For simplicity, both the page table pointer and the TLB pointer are public
+ * fields of the Cpu doing the translation. However, while there can be
+ * multiple page tables (one per address space, stored in memory), there is
+ * only one TLB per CPU (implemented in hardware). Thus the TLB pointer should
+ * be considered as *read-only*, although the contents of the TLB are free to be
+ * modified by the kernel software.
  */
 public class MMU {
 
-	/**
-	 * The translation LookAside buffer this pointer should be considered
-	 * "read-only" to Nachos kernel code.
-	 */
-	public static TranslationEntry[] mTlb;
-
-	/** The page table used by the currently running process. */
-	public static TranslationEntry mPageTable[];
-
-	/** The size of the current page table. */
-	public static int mPageTableSize;
-
 	/** States whether or not to used the TLB. */
 	public static boolean mUSE_TLB;
 
-	/** The size of a page. The same as a disk sector for simplicity. */
-	public static final int PageSize = 128;
+	/** The number of slots of the host-side translation cache of a CPU. */
+	public static final int SoftTlbSize = 64;
 
 	/**
 	 * ??
@@ -59,117 +49,268 @@ public class MMU {
 	 * Translate a virtual address into a physical address, using either a page
 	 * table or a TLB. Check for alignment and all sorts of other errors, and if
 	 * everything is ok, set the use/dirty bits in the translation table entry,
-	 * and store the translated physical address in "physAddr". If there was an
-	 * error, returns the type of the exception.
+	 * and store the translated physical address in the CPU's "mPhysAddr". If
+	 * there was an error, returns the type of the exception.
+	 *
+	 * Nothing is allocated here, since this is called for every load, store and
+	 * instruction fetch.
+	 *
+	 * Translations through the page table are remembered in a small direct
+	 * mapped cache in the Cpu, which is not visible to the simulated machine.
+	 * A hit there skips all of the checks below: only a translation that has
+	 * already succeeded is cached, and it stays valid until the page table
+	 * entry changes, at which point the kernel must drop it (flushSoftTlb(),
+	 * invalidateFrame()). Writes only hit once the page is dirty, so that
+	 * setting the dirty bit always goes through the page table. The use bit is
+	 * still set on every hit, since the kernel clears use bits without telling
+	 * the MMU; setting it is all the MMU does to help page replacement.
+	 *
+	 * A TLB entry for a superpage (TranslationEntry.superPage) matches every
+	 * page of its aligned run, and the frame is found at the same offset from
+	 * its first frame.
 	 *
+	 * @param cpu
+	 *            the CPU whose page table or TLB is used
 	 * @param virtAddr
 	 *            the virtual address to translate
-	 * @param physAddr
-	 *            the place to store the physical address
 	 * @param size
 	 *            the amount of memory being read or written
 	 * @param writing
 	 *            if TRUE, check the "read-only" bit in the TLB
 	 */
-	public static ExceptionType translate(int virtAddr, int[] physAddr, int size, boolean writing) {
+	public static ExceptionType translate(Cpu cpu, int virtAddr, int size, boolean writing) {
+		// The common case: an aligned access to a page translated before
+		if ((virtAddr & (size - 1)) == 0) {
+			int softVpn = virtAddr >>> Machine.PageShift;
+			int slot = softVpn & (SoftTlbSize - 1);
+			if (cpu.mSoftTag[slot] == softVpn && (!writing || cpu.mSoftWritable[slot])) {
+				cpu.mPageTable.setUsed(softVpn, true);
+				if (TraceRecorder.mEnabled) {
+					TraceRecorder.record(cpu, softVpn, writing);
+				}
+				cpu.mPhysAddr = cpu.mSoftBase[slot] + (virtAddr & (Machine.PageSize - 1));
+				return ExceptionType.NoException;
+			}
+		}
+
+		TranslationEntry[] tlb = cpu.mTlb;
+		PageTable pageTable = cpu.mPageTable;
 		int i = 0;
 		int vpn, offset;
-		TranslationEntry entry;
+		TranslationEntry entry = null;
 		int pageFrame;
+		boolean readOnly;
 
-		Debug.print('a', "Translate 0x" + Integer.toHexString(virtAddr) + ", writing " + (writing ? "write" : "read"));
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Translate 0x" + Integer.toHexString(virtAddr) + ", writing " + (writing ? "write" : "read"));
+		}
 
 		// check for alignment errors
 		if (((size == 4) && ((virtAddr & 0x3) != 0)) || ((size == 2) && ((virtAddr & 0x1) != 0))) {
-			Debug.print('a', "alignment problem at " + virtAddr + ", size " + size);
+			if (Debug.isEnabled('a')) {
+				Debug.print('a', "alignment problem at " + virtAddr + ", size " + size);
+			}
 			return ExceptionType.AddressErrorException;
 		}
 
 		// we must have either a TLB or a page table, but not both!
-		assert (mTlb == null || mPageTable == null);
-		assert (mTlb != null || mPageTable != null);
+		assert (tlb == null || pageTable == null);
+		assert (tlb != null || pageTable != null);
 
 		// calculate the virtual page number, and offset within the page,
-		// from the virtual address
-		vpn = (int) virtAddr / PageSize;
-		offset = (int) virtAddr % PageSize;
+		// from the virtual address (a negative address is a page number too
+		// large for any page table)
+		vpn = virtAddr >>> Machine.PageShift;
+		offset = virtAddr & (Machine.PageSize - 1);
 
-		if (mTlb == null) { // => page table => vpn is index into table
-			if (vpn >= mPageTableSize) {
-				Debug.print('a', "virtual page # " + virtAddr + " too large for page table size " + mPageTableSize);
+		if (tlb == null) { // => page table => vpn is index into table
+			if (vpn >= cpu.mPageTableSize) {
+				if (Debug.isEnabled('a')) {
+					Debug.print('a', "virtual page # " + virtAddr + " too large for page table size " + cpu.mPageTableSize);
+				}
 				return ExceptionType.AddressErrorException;
-			} else if (!mPageTable[vpn].valid) {
-				Debug.print('a', "virtual page # " + virtAddr + "  too large for page table size " + mPageTableSize);
+			} else if (!pageTable.isValid(vpn)) {
+				if (Debug.isEnabled('a')) {
+					Debug.print('a', "virtual page # " + virtAddr + "  too large for page table size " + cpu.mPageTableSize);
+				}
 				return ExceptionType.PageFaultException;
 			}
 
-			entry = mPageTable[vpn];
+			readOnly = pageTable.isReadOnly(vpn);
+			pageFrame = pageTable.getFrame(vpn);
 		}
 
 		else {
-			for (entry = null, i = 0; i < Machine.TLBSize; i++) {
-				if (mTlb[i].valid && (mTlb[i].virtualPage == vpn)) {
-					entry = mTlb[i]; // FOUND!
+			int superVpn = vpn & -Machine.SuperPageSize;
+			for (i = 0; i < Machine.TLBSize; i++) {
+				if (tlb[i].valid && (tlb[i].virtualPage == (tlb[i].superPage ? superVpn : vpn))) {
+					entry = tlb[i]; // FOUND!
+					cpu.mTlbLastUse[i] = ++cpu.mTlbAccesses;
+					Statistics.numTlbHits++;
 					break;
 				}
 			}
 
 			if (entry == null) { // not found
+				Statistics.numTlbMisses++;
 				Debug.print('a', "*** no valid TLB entry found for this virtual page!\n");
 				return ExceptionType.PageFaultException; // really, this is a
 															// TLB fault,
 				// the page may be in memory,
 				// but not in the TLB
 			}
+
+			readOnly = entry.readOnly;
+			pageFrame = entry.physicalPage + (vpn - entry.virtualPage);
 		}
 
-		if (entry.readOnly && writing) { // trying to write to a read-only page
-			Debug.print('a', virtAddr + " mapped read-only at " + i + " in TLB!\n");
+		if (readOnly && writing) { // trying to write to a read-only page
+			if (Debug.isEnabled('a')) {
+				Debug.print('a', virtAddr + " mapped read-only at " + i + " in TLB!\n");
+			}
 			return ExceptionType.ReadOnlyException;
 		}
 
-		pageFrame = entry.physicalPage;
-
 		// if the pageFrame is too big, there is something really wrong!
 		// An invalid translation was loaded into the page table or TLB.
 		if (pageFrame >= Machine.NumPhysPages) {
-			Debug.print('a', "*** frame " + pageFrame + " > " + Machine.NumPhysPages);
+			if (Debug.isEnabled('a')) {
+				Debug.print('a', "*** frame " + pageFrame + " > " + Machine.NumPhysPages);
+			}
 			return ExceptionType.BusErrorException;
 		}
 
-		entry.use = true; // set the use, dirty bits
-		NFU.counter[entry.physicalPage]++; //for NFU
-		if (writing) {
-			entry.dirty = true;
+		// set the use, dirty bits
+		if (tlb == null) {
+			pageTable.setUsed(vpn, true);
+			if (writing) {
+				pageTable.setDirty(vpn, true);
+			}
+		} else {
+			entry.use = true;
+			if (writing) {
+				entry.dirty = true;
+			}
 		}
+		if (TraceRecorder.mEnabled) {
+			TraceRecorder.record(cpu, vpn, writing);
+		}
+		cpu.mPhysAddr = (pageFrame << Machine.PageShift) + offset;
 
-		physAddr[0] = pageFrame * PageSize + offset;
-
-		assert ((physAddr[0] >= 0) && ((physAddr[0] + size) <= Machine.MemorySize));
-		Debug.print('a', "phys addr = 0x" + Integer.toHexString(physAddr[0]));
+		assert ((cpu.mPhysAddr >= 0) && ((cpu.mPhysAddr + size) <= Machine.MemorySize));
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "phys addr = 0x" + Integer.toHexString(cpu.mPhysAddr));
+		} else if (tlb == null) {
+			// Remember the translation (the TLB, if there is one, keeps its
+			// own use bits and hit counts, so it is not cached)
+			int slot = vpn & (SoftTlbSize - 1);
+			cpu.mSoftTag[slot] = vpn;
+			cpu.mSoftBase[slot] = pageFrame << Machine.PageShift;
+			cpu.mSoftWritable[slot] = pageTable.isDirty(vpn) && !readOnly;
+		}
 
 		return ExceptionType.NoException;
 	}
 
-	//for project 02
-	//cis 486
-	public static TranslationEntry translationEntryForPhysicalPage(int physicalPage)
-	{
-    int victimPid = JNachos.getPageFrameMap()[physicalPage];
-    if (victimPid < 0) {
-	return null;
-    }
-    NachosProcess victim = NachosProcess.mProcessHash.get(victimPid);
-    if (victim == null) {
-	return null;
-    }
-    TranslationEntry entry = null;
-    for (int i = 0; i < victim.getSpace().mPageTable.length; i++) {
-	if (victim.getSpace().mPageTable[i].physicalPage == physicalPage) {
-	    entry = victim.getSpace().mPageTable[i];
-	    break;
+	/**
+	 * Drops every translation cached by a CPU. Called when a different page
+	 * table is loaded into it.
+	 *
+	 * @param cpu
+	 *            the CPU.
+	 */
+	public static void flushSoftTlb(Cpu cpu) {
+		Arrays.fill(cpu.mSoftTag, -1);
+	}
+
+	/**
+	 * Drops every cached translation to a page frame, on every CPU. Called
+	 * when the page in the frame is evicted or freed.
+	 *
+	 * @param physicalPage
+	 *            the page frame.
+	 */
+	public static void invalidateFrame(int physicalPage) {
+		int base = physicalPage << Machine.PageShift;
+		for (int id = 0; id < Machine.getNumCpus(); id++) {
+			Cpu cpu = Machine.getCpu(id);
+			for (int i = 0; i < SoftTlbSize; i++) {
+				if (cpu.mSoftTag[i] >= 0 && cpu.mSoftBase[i] == base) {
+					cpu.mSoftTag[i] = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks up the page frame of an instruction fetch without raising an
+	 * exception and without touching the use bits, so that the caller can
+	 * decide whether the fetch should be done by the interpreter instead.
+	 *
+	 * @param cpu
+	 *            the CPU whose page table or TLB is used.
+	 * @param virtAddr
+	 *            the virtual address of the instruction.
+	 * @return the page frame holding the instruction, or -1 if translate
+	 *         would not succeed.
+	 */
+	public static int probe(Cpu cpu, int virtAddr) {
+		TranslationEntry[] tlb = cpu.mTlb;
+		PageTable pageTable = cpu.mPageTable;
+		if ((virtAddr & 0x3) != 0) {
+			return -1;
+		}
+
+		int vpn = virtAddr >>> Machine.PageShift;
+		int frame = -1;
+
+		if (tlb == null) {
+			if (vpn >= 0 && vpn < cpu.mPageTableSize && pageTable.isValid(vpn)) {
+				frame = pageTable.getFrame(vpn);
+			}
+		} else {
+			int superVpn = vpn & -Machine.SuperPageSize;
+			for (int i = 0; i < Machine.TLBSize; i++) {
+				if (tlb[i].valid && (tlb[i].virtualPage == (tlb[i].superPage ? superVpn : vpn))) {
+					frame = tlb[i].physicalPage + (vpn - tlb[i].virtualPage);
+					break;
+				}
+			}
+		}
+
+		if (frame >= Machine.NumPhysPages) {
+			return -1;
+		}
+
+		return frame;
+	}
+
+	/**
+	 * Records an instruction fetch from a page found by probe, exactly as
+	 * translate would have recorded it.
+	 *
+	 * @param cpu
+	 *            the CPU that fetched the instruction.
+	 * @param vpn
+	 *            the virtual page the instruction was fetched from.
+	 * @param frame
+	 *            the page frame returned by probe.
+	 */
+	public static void recordFetch(Cpu cpu, int vpn, int frame) {
+		if (TraceRecorder.mEnabled) {
+			TraceRecorder.record(cpu, vpn, false);
+		}
+		if (cpu.mTlb == null) {
+			cpu.mPageTable.setUsed(vpn, true);
+		} else {
+			int superVpn = vpn & -Machine.SuperPageSize;
+			for (int i = 0; i < Machine.TLBSize; i++) {
+				TranslationEntry entry = cpu.mTlb[i];
+				if (entry.valid && (entry.virtualPage == (entry.superPage ? superVpn : vpn))) {
+					entry.use = true;
+					break;
+				}
+			}
+		}
 	}
-    }
-    return entry;
-}
 }
@@ -27,20 +27,24 @@ public class Machine {
 	public static boolean mUSE_TLB;
 	public static boolean mSingleStep;
 
-	// Set the page size equal to the disk sector size, for simplicity
-	public static final int PageSize = 128;
-	public static final int NumPhysPages = 16; // changed from 1024 to 32 for
-												// testing
-	public static final int MemorySize = (NumPhysPages * PageSize);
-	public static final int TLBSize = 4; // if there is a TLB, make it small
+	// The geometry of main memory, set at boot by setMemory(). By default the
+	// page size equals the disk sector size, for simplicity
+	public static int PageSize = 128;
+	public static int PageShift = 7; // log2(PageSize)
+	public static int NumPhysPages = 16; // changed from 1024 to 32 for
+											// testing
+	public static int MemorySize = (NumPhysPages * PageSize);
+	public static int TLBSize = 4; // if there is a TLB, make it small (-tlb)
+	public static int SuperPageSize = 1; // pages per superpage (-superpage);
+											// 1 for no superpages
 
 	// Textual names of the exceptions that can be generated by user program
 	// execution, for debugging.
 	public static String[] exceptionNames = { "no exception", "syscall", "page fault/no TLB entry", "page read only",
 			"bus error", "address error", "overflow", "illegal instruction" };
 
-	// User program CPU state. The full set of MIPS Machine.mRegisters, plus a
-	// few
+	// User program CPU state. The full set of MIPS registers (Cpu.mRegisters),
+	// plus a few
 	// more because we need to be able to start/stop a user program between
 	// any two instructions (thus we need to keep track of things like load
 	// delay slots, etc.)
@@ -48,7 +52,7 @@ public class Machine {
 	public static final int RetAddrReg = 31; // Holds return address for
 												// procedure calls
 	public static final int NumGPRegs = 32; // 32 general purpose
-											// Machine.mRegisters on MIPS
+											// registers on MIPS
 	public static final int HiReg = 32; // Double register to hold multiply
 										// result
 	public static final int LoReg = 33;
@@ -68,12 +72,18 @@ public class Machine {
 	// The main memory RAM for the machine
 	public static byte[] mMainMemory;
 
-	// The registers in the CPU
-	public static int mRegisters[];
+	// The CPU of a uniprocessor
+	private static Cpu mCpu = new Cpu(0);
+
+	// All of the CPUs; mCpus[0] is mCpu
+	private static Cpu[] mCpus = { mCpu };
+
+	// The CPU each host thread is running on, on a multiprocessor
+	private static ThreadLocal<Cpu> mThreadCpu = new ThreadLocal<Cpu>();
 
 	/**
-	 * The hardware timer. This class can throw interrupts at scheduable
-	 * intervals.
+	 * The hardware timer of the first CPU. This class can throw interrupts at
+	 * scheduable intervals.
 	 */
 	private static Timer mTimer;
 
@@ -87,12 +97,17 @@ public class Machine {
 	public Machine(boolean debug, VoidFunctionPtr timerHandler, int seed, boolean randomYield) {
 		setTimer(new Timer(timerHandler, seed, randomYield));
 
-		// Create the CPU registers
-		mRegisters = new int[NumTotalRegs];
+		// Every other CPU gets a timer of its own, interrupting it
+		for (int i = 1; i < mCpus.length; i++) {
+			Cpu boot = currentCpu();
+			setCurrentCpu(mCpus[i]);
+			new Timer(timerHandler, seed + i, randomYield);
+			setCurrentCpu(boot);
+		}
 
 		// Initialize the registers
 		for (int i = 0; i < NumTotalRegs; i++) {
-			mRegisters[i] = 0;
+			mCpu.mRegisters[i] = 0;
 		}
 
 		// Create the main memory
@@ -101,21 +116,29 @@ public class Machine {
 			mMainMemory[i] = 0;
 		}
 
-		// If we are using the TLB
-		if (mUSE_TLB) {
-			// Create a new TLB
-			MMU.mTlb = new TranslationEntry[TLBSize];
-			for (int i = 0; i < TLBSize; i++) {
-				// Set the valid bits to false
-				MMU.mTlb[i].valid = false;
+		// Nothing has been decoded or translated yet
+		InstructionCache.init();
+		BlockCache.init();
+
+		for (Cpu cpu : mCpus) {
+			// If we are using the TLB
+			if (mUSE_TLB) {
+				// Create a new TLB
+				cpu.mTlb = new TranslationEntry[TLBSize];
+				cpu.mTlbLastUse = new long[TLBSize];
+				for (int i = 0; i < TLBSize; i++) {
+					// Set the valid bits to false
+					cpu.mTlb[i] = new TranslationEntry();
+					cpu.mTlb[i].valid = false;
+				}
 
 				// Initialze the page table
-				MMU.mPageTable = null;
+				cpu.mPageTable = null;
+			} else {
+				// Set both to null
+				cpu.mTlb = null;
+				cpu.mPageTable = null;
 			}
-		} else {
-			// Set both to null
-			MMU.mTlb = null;
-			MMU.mPageTable = null;
 		}
 
 		mSingleStep = debug;
@@ -131,6 +154,107 @@ public class Machine {
 
 	}
 
+	/**
+	 * Sets the size of main memory. Must be called before the machine is
+	 * created, since everything sized by the number or the size of the page
+	 * frames is sized from here.
+	 *
+	 * @param pNumPhysPages
+	 *            the number of page frames.
+	 * @param pPageSize
+	 *            the size of a page in bytes, a power of two.
+	 * @throws IllegalArgumentException
+	 *             if there is no such memory.
+	 */
+	public static void setMemory(int pNumPhysPages, int pPageSize) {
+		if (pNumPhysPages < 1) {
+			throw new IllegalArgumentException("there must be at least one page frame, not " + pNumPhysPages);
+		}
+		if (pPageSize < 4 || Integer.bitCount(pPageSize) != 1) {
+			throw new IllegalArgumentException("the page size must be a power of two of at least 4, not " + pPageSize);
+		}
+		if ((long) pNumPhysPages * pPageSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"main memory of " + pNumPhysPages + " pages of " + pPageSize + " bytes is too large");
+		}
+
+		NumPhysPages = pNumPhysPages;
+		PageSize = pPageSize;
+		PageShift = Integer.numberOfTrailingZeros(pPageSize);
+		MemorySize = NumPhysPages * PageSize;
+	}
+
+	/**
+	 * Sets the number of CPUs. Must be called before anything is scheduled on
+	 * a CPU, that is, before Interrupt.init().
+	 *
+	 * @param pNumCpus
+	 *            the number of CPUs (1 for a uniprocessor).
+	 * @throws IllegalArgumentException
+	 *             if there is not at least one CPU.
+	 */
+	public static void setNumCpus(int pNumCpus) {
+		if (pNumCpus < 1) {
+			throw new IllegalArgumentException("there must be at least one CPU, not " + pNumCpus);
+		}
+
+		mCpus = new Cpu[pNumCpus];
+		mCpus[0] = mCpu;
+		for (int i = 1; i < pNumCpus; i++) {
+			mCpus[i] = new Cpu(i);
+		}
+
+		KernelLock.mEnabled = pNumCpus > 1;
+		if (KernelLock.mEnabled) {
+			mThreadCpu.set(mCpu);
+		}
+	}
+
+	/**
+	 * Gets the number of CPUs.
+	 *
+	 * @return the number of CPUs.
+	 */
+	public static int getNumCpus() {
+		return mCpus.length;
+	}
+
+	/**
+	 * Gets a CPU by number.
+	 *
+	 * @param pId
+	 *            the number of the CPU.
+	 * @return the CPU.
+	 */
+	public static Cpu getCpu(int pId) {
+		return mCpus[pId];
+	}
+
+	/**
+	 * Gets the CPU the calling thread is running on.
+	 *
+	 * @return the current CPU.
+	 */
+	public static Cpu currentCpu() {
+		if (!KernelLock.mEnabled) {
+			return mCpu;
+		}
+		return mThreadCpu.get();
+	}
+
+	/**
+	 * Sets the CPU the calling thread is running on. Called by a process when
+	 * it is started or resumed on a CPU.
+	 *
+	 * @param pCpu
+	 *            the CPU.
+	 */
+	public static void setCurrentCpu(Cpu pCpu) {
+		if (KernelLock.mEnabled) {
+			mThreadCpu.set(pCpu);
+		}
+	}
+
 	/**
 	 * Simulate the execution of a user-level program on Nachos. Called by the
 	 * kernel when the program starts up; never returns.
@@ -139,25 +263,39 @@ public class Machine {
 	 * concurrently -- one for each thread executing user code.
 	 */
 	public static void run() {
-		// Storage for decoded instruction
-		Instruction instr = new Instruction();
-
 		if (Debug.isEnabled('m')) {
-			System.out.println(
-					"Starting process " + JNachos.getCurrentProcess().getName() + " at time " + Statistics.totalTicks);
+			System.out.println("Starting process " + JNachos.getCurrentProcess().getName() + " at time "
+					+ currentCpu().mTotalTicks);
 		}
 
 		// Set to user mode while executing user instructions
 		Interrupt.setStatus(Interrupt.UserMode);
 
+		// Let the other CPUs into the kernel while we run user code
+		KernelLock.leaveKernel(true);
+
 		// Continuously execute user code
 		while (true) {
+			// The CPU this process runs on (it may have moved to another one
+			// while it was in the kernel)
+			Cpu cpu = currentCpu();
+
+			// Run any hot code from the block cache
+			if (BlockCache.mEnabled && !mSingleStep) {
+				BlockCache.runBlocks(cpu);
+			}
+
+			// Run straight up to the next pending interrupt
+			if (!mSingleStep && !Debug.isEnabled('i')) {
+				runUntilNextInterrupt(cpu);
+			}
+
 			// Execute one instruction
 			/// Machine.dumpState();
-			MipsSim.oneInstruction(instr);
+			MipsSim.oneInstruction(cpu);
 
 			// Update the time
-			Interrupt.oneTick();
+			tick();
 
 			if (mSingleStep)// && (runUntilTime <= Statistics.totalTicks))
 			{
@@ -167,7 +305,69 @@ public class Machine {
 	}
 
 	/**
-	 * Reads the specified register
+	 * Executes user instructions for as long as no pending interrupt can
+	 * become due. Interrupt.oneTick() would only advance the time after each
+	 * of these instructions, so instead of calling it every time, the
+	 * instructions are counted in Cpu.mBatchedInstructions and the time is
+	 * advanced once at the end (or before an exception hands control to the
+	 * kernel, see settleTicks()). The instruction that reaches the next
+	 * interrupt, and any instruction that raises an exception, are still
+	 * followed by a full oneTick() in run().
+	 *
+	 * @param pCpu
+	 *            the CPU to run on.
+	 */
+	private static void runUntilNextInterrupt(Cpu pCpu) {
+		// Only user mode time can be batched
+		if (pCpu.mStatus != Interrupt.UserMode) {
+			return;
+		}
+
+		int budget = Interrupt.getUserTicksBeforeNextInterrupt();
+
+		while (pCpu.mBatchedInstructions < budget) {
+			if (!MipsSim.oneInstruction(pCpu)) {
+				// The exception has been handled (and the time settled);
+				// finish the tick of the faulting instruction.
+				tick();
+				return;
+			}
+			pCpu.mBatchedInstructions++;
+		}
+
+		settleTicks(pCpu);
+	}
+
+	/**
+	 * Advances the time after a user instruction, in the kernel since the
+	 * interrupt handlers that may be due are kernel code.
+	 */
+	static void tick() {
+		boolean fromUser = KernelLock.enterKernel();
+		Interrupt.oneTick();
+		KernelLock.leaveKernel(fromUser);
+	}
+
+	/**
+	 * Charges the instructions run by runUntilNextInterrupt() so far as user
+	 * time. Called before anything that may look at the time, that is, before
+	 * the kernel is entered.
+	 *
+	 * @param pCpu
+	 *            the CPU that ran the instructions.
+	 */
+	public static void settleTicks(Cpu pCpu) {
+		int batched = pCpu.mBatchedInstructions;
+		if (batched != 0) {
+			pCpu.mTotalTicks += batched * Statistics.UserTick;
+			pCpu.mUserTicks += batched * Statistics.UserTick;
+			Statistics.numBatchedInstructions += batched;
+			pCpu.mBatchedInstructions = 0;
+		}
+	}
+
+	/**
+	 * Reads the specified register of the current CPU
 	 * 
 	 * @param (int)
 	 *            num: The register to read.
@@ -175,12 +375,14 @@ public class Machine {
 	 */
 	public static int readRegister(int num) {
 		assert ((num >= 0) && (num < NumTotalRegs));
-		Debug.print('m', "ReadRegister " + num + ", value" + Machine.mRegisters[num]);
-		return Machine.mRegisters[num];
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "ReadRegister " + num + ", value" + currentCpu().mRegisters[num]);
+		}
+		return currentCpu().readRegister(num);
 	}
 
 	/**
-	 * Writes the specified register
+	 * Writes the specified register of the current CPU
 	 * 
 	 * @param (int)
 	 *            num: The register to read.
@@ -189,85 +391,112 @@ public class Machine {
 	 */
 	public static void writeRegister(int num, int value) {
 		assert ((num >= 0) && (num < NumTotalRegs));
-		Debug.print('m', "WriteRegister " + num + ", value" + value);
-		Machine.mRegisters[num] = value;
-	}
-
-	/**
-	 *
-	 */
-	public static void delayedLoad(int pNextReg, int pNextValue) {
-		Machine.mRegisters[Machine.mRegisters[LoadReg]] = Machine.mRegisters[LoadValueReg];
-		Machine.mRegisters[LoadReg] = pNextReg;
-		Machine.mRegisters[LoadValueReg] = pNextValue;
-		Machine.mRegisters[0] = 0; // and always make sure R0 stays zero.
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "WriteRegister " + num + ", value" + value);
+		}
+		currentCpu().writeRegister(num, value);
 	}
 
 	/**
-	 * Read "size" (1, 2, or 4) bytes of virtual memory at "addr" into the
-	 * location pointed to by "value".
+	 * Read "size" (1, 2, or 4) bytes of virtual memory at "addr" and return
+	 * them.
 	 *
-	 * Returns FALSE if the translation step from virtual to physical memory
-	 * failed.
+	 * Sets pCpu.mMemoryFault if the translation step from virtual to physical
+	 * memory failed (the exception has then already been raised, and the
+	 * value returned is meaningless). Nothing is allocated on this path.
 	 *
-	 * "addr" -- the virtual address to read from "size" -- the number of bytes
-	 * to read (1, 2, or 4) "value" -- the place to write the result
+	 * "pCpu" -- the CPU doing the read "addr" -- the virtual address to read
+	 * from "size" -- the number of bytes to read (1, 2, or 4)
 	 */
-	public static Integer readMem(int addr, int size) {
-		Integer data = null;
+	public static int readMem(Cpu pCpu, int addr, int size) {
+		int data = 0;
 		ExceptionType exception;
-		int[] physicalAddress = new int[1];
 
-		Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size " + size);
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size " + size);
+		}
 
-		exception = MMU.translate(addr, physicalAddress, size, false);
+		exception = MMU.translate(pCpu, addr, size, false);
 
 		if (exception != ExceptionType.NoException) {
-			raiseException(exception, addr);
-			return null;
+			// Set only once the kernel is done: it may have run other
+			// processes on this CPU meanwhile, whose reads clear it
+			raiseException(pCpu, exception, addr);
+			pCpu.mMemoryFault = true;
+			return 0;
 		}
+		pCpu.mMemoryFault = false;
 
+		int physicalAddress = pCpu.mPhysAddr;
 		switch (size) {
 		case 1:
-			data = new Integer(mMainMemory[physicalAddress[0]]);
+			data = mMainMemory[physicalAddress];
 			read1++;
-			/// new Integer(mMainMemory[addr]); //No descernable change
 			break;
 
 		case 2:
-			data = new Integer(MipsSim.shortToHost(
-					(mMainMemory[physicalAddress[0]] << 8) + (mMainMemory[physicalAddress[0] + 1] & 0xFF)));
+			data = MipsSim.shortToHost(
+					(mMainMemory[physicalAddress] << 8) + (mMainMemory[physicalAddress + 1] & 0xFF));
 			read2++;
 			break;
 
 		case 4:
-			data = new Integer(MipsSim.wordToHost(
-					(mMainMemory[physicalAddress[0]] << 24) + ((mMainMemory[physicalAddress[0] + 1] & 0xFF) << 16)
-							+ ((mMainMemory[physicalAddress[0] + 2] & 0xFF) << 8)
-							+ (mMainMemory[physicalAddress[0] + 3] & 0xFF)));
+			data = MipsSim.wordToHost((mMainMemory[physicalAddress] << 24)
+					+ ((mMainMemory[physicalAddress + 1] & 0xFF) << 16)
+					+ ((mMainMemory[physicalAddress + 2] & 0xFF) << 8) + (mMainMemory[physicalAddress + 3] & 0xFF));
 			read4++;
 
-			Debug.print('a', mMainMemory[physicalAddress[0]] + "," + mMainMemory[physicalAddress[0] + 1] + ","
-					+ mMainMemory[physicalAddress[0] + 2] + "," + mMainMemory[physicalAddress[0] + 3]);
-
+			if (Debug.isEnabled('a')) {
+				Debug.print('a', mMainMemory[physicalAddress] + "," + mMainMemory[physicalAddress + 1] + ","
+						+ mMainMemory[physicalAddress + 2] + "," + mMainMemory[physicalAddress + 3]);
+			}
 			break;
 
 		default:
 			assert (false);
 		}
 
-		Debug.print('a', "\tvalue read = " + Integer.toHexString(data));
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "\tvalue read = " + Integer.toHexString(data));
+		}
 
 		return data;
 	}
 
+	/**
+	 * Fetch the instruction at virtual address "addr". The instruction is
+	 * served from the InstructionCache, so it is only decoded the first time
+	 * its word is fetched.
+	 *
+	 * Returns null if the translation step from virtual to physical memory
+	 * failed, in which case the exception has already been raised.
+	 *
+	 * @param pCpu
+	 *            -- the CPU doing the fetch
+	 * @param addr
+	 *            -- the virtual address of the instruction
+	 */
+	public static Instruction fetchInstruction(Cpu pCpu, int addr) {
+		ExceptionType exception = MMU.translate(pCpu, addr, 4, false);
+
+		if (exception != ExceptionType.NoException) {
+			raiseException(pCpu, exception, addr);
+			return null;
+		}
+
+		read4++;
+		return InstructionCache.lookup(pCpu.mPhysAddr);
+	}
+
 	/**
 	 * Write "size" (1, 2, or 4) bytes of the contents of "value" into virtual
 	 * memory at location "addr".
 	 *
 	 * Returns FALSE if the translation step from virtual to physical memory
-	 * failed.
+	 * failed. Nothing is allocated on this path.
 	 *
+	 * @param pCpu
+	 *            -- the CPU doing the write
 	 * @param addr
 	 *            -- the virtual address to write to
 	 * @param size
@@ -276,46 +505,48 @@ public class Machine {
 	 *            -- the data to be written
 	 */
 
-	public static boolean writeMem(int addr, int size, int value) {
+	public static boolean writeMem(Cpu pCpu, int addr, int size, int value) {
 		ExceptionType exception;
-		int[] physicalAddress = new int[1];
 
-		Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size " + size + ", value " + value);
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size " + size + ", value " + value);
+		}
 
-		exception = MMU.translate(addr, physicalAddress, size, true);
+		exception = MMU.translate(pCpu, addr, size, true);
 
 		if (exception != ExceptionType.NoException) {
-			Machine.raiseException(exception, addr);
+			Machine.raiseException(pCpu, exception, addr);
 			return false;
 		}
 
+		int physicalAddress = pCpu.mPhysAddr;
 		switch (size) {
 		case 1:
-			// int res = MipsSim.shortToMachine(value);
-			mMainMemory[physicalAddress[0]] = (byte) (value);
+			mMainMemory[physicalAddress] = (byte) (value);
 			write1++;
 			break;
 
 		case 2:
 			int res1 = MipsSim.shortToMachine(value);// & 0xffff );
 
-			mMainMemory[physicalAddress[0]] = (byte) (res1 >>> 8);
-			mMainMemory[physicalAddress[0] + 1] = (byte) (res1);
+			mMainMemory[physicalAddress] = (byte) (res1 >>> 8);
+			mMainMemory[physicalAddress + 1] = (byte) (res1);
 			write2++;
 			break;
 
 		case 4:
 
 			int res2 = MipsSim.wordToMachine(value);
-			mMainMemory[physicalAddress[0]] = (byte) (res2 >>> 24);
-			mMainMemory[physicalAddress[0] + 1] = (byte) (res2 >>> 16);
-			mMainMemory[physicalAddress[0] + 2] = (byte) (res2 >>> 8);
-			mMainMemory[physicalAddress[0] + 3] = (byte) (res2);
-
-			Debug.print('d',
-					"Wrote: " + value + "\t" + mMainMemory[physicalAddress[0]] + ","
-							+ mMainMemory[physicalAddress[0] + 1] + "," + mMainMemory[physicalAddress[0] + 2] + ","
-							+ mMainMemory[physicalAddress[0] + 3]);
+			mMainMemory[physicalAddress] = (byte) (res2 >>> 24);
+			mMainMemory[physicalAddress + 1] = (byte) (res2 >>> 16);
+			mMainMemory[physicalAddress + 2] = (byte) (res2 >>> 8);
+			mMainMemory[physicalAddress + 3] = (byte) (res2);
+
+			if (Debug.isEnabled('d')) {
+				Debug.print('d', "Wrote: " + value + "\t" + mMainMemory[physicalAddress] + ","
+						+ mMainMemory[physicalAddress + 1] + "," + mMainMemory[physicalAddress + 2] + ","
+						+ mMainMemory[physicalAddress + 3]);
+			}
 			write4++;
 			break;
 
@@ -323,6 +554,9 @@ public class Machine {
 			assert (false);
 		}
 
+		// The word may hold code that has already been decoded
+		InstructionCache.invalidateWord(physicalAddress);
+
 		return true;
 	}
 
@@ -336,13 +570,21 @@ public class Machine {
 	 *
 	 *
 	 */
-	public static void raiseException(ExceptionType which, int badVAddr) {
-		Debug.print('m', "Exception: " + which);
-		Machine.mRegisters[BadVAddrReg] = badVAddr;
-		delayedLoad(0, 0); // finish anything in progress
+	public static void raiseException(Cpu pCpu, ExceptionType which, int badVAddr) {
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "Exception: " + which);
+		}
+		// The kernel must see the time up to (but not including) this
+		// instruction
+		settleTicks(pCpu);
+
+		pCpu.mRegisters[BadVAddrReg] = badVAddr;
+		pCpu.delayedLoad(0, 0); // finish anything in progress
 		Interrupt.setStatus(Interrupt.SystemMode);
-		ExceptionHandler.handleException(which); // interrupts are enabled at
+		boolean fromUser = KernelLock.enterKernel();
+		ExceptionHandler.handleException(pCpu, which); // interrupts are enabled at
 													// this point
+		KernelLock.leaveKernel(fromUser);
 		Interrupt.setStatus(Interrupt.UserMode);
 
 	}
@@ -357,33 +599,35 @@ public class Machine {
 	public static void dumpState() {
 		int i;
 
-		System.out.println("Machine Machine.mRegisters:\n");
+		int[] registers = currentCpu().mRegisters;
+
+		System.out.println("Machine registers:\n");
 		for (i = 0; i < NumGPRegs; i++) {
 			switch (i) {
 			case StackReg:
-				System.out.println("\tSP(" + i + ")=" + Machine.mRegisters[i]);
+				System.out.println("\tSP(" + i + ")=" + registers[i]);
 				// ((i % 4) == 3) ? "\n" : "");
 				break;
 
 			case RetAddrReg:
-				System.out.println("\tRA(" + i + ")=" + Machine.mRegisters[i]);
+				System.out.println("\tRA(" + i + ")=" + registers[i]);
 				// ((i % 4) == 3) ? "\n" : "");
 				break;
 
 			default:
-				System.out.println("\t" + i + "  =" + Machine.mRegisters[i]);
+				System.out.println("\t" + i + "  =" + registers[i]);
 				// ((i % 4) == 3) ? "\n" : "");
 				break;
 			}
 		}
 
-		System.out.println("\tHi: " + Machine.mRegisters[HiReg]);
-		System.out.println("\tLo: " + Machine.mRegisters[LoReg]);
-		System.out.println("\tPC: " + Machine.mRegisters[PCReg]);
-		System.out.println("\tNextPC: " + Machine.mRegisters[NextPCReg]);
-		System.out.println("\tPrevPC: " + Machine.mRegisters[PrevPCReg]);
-		System.out.println("\tLoad: " + Machine.mRegisters[LoadReg]);
-		System.out.println("\tLoadV: " + Machine.mRegisters[LoadValueReg]);
+		System.out.println("\tHi: " + registers[HiReg]);
+		System.out.println("\tLo: " + registers[LoReg]);
+		System.out.println("\tPC: " + registers[PCReg]);
+		System.out.println("\tNextPC: " + registers[NextPCReg]);
+		System.out.println("\tPrevPC: " + registers[PrevPCReg]);
+		System.out.println("\tLoad: " + registers[LoadReg]);
+		System.out.println("\tLoadV: " + registers[LoadValueReg]);
 
 	}
 
@@ -301,172 +301,198 @@ public class MipsSim {
 	 * re-entrancy by never caching any data -- we always re-start the
 	 * simulation from scratch each time we are called (or after trapping back
 	 * to the Nachos kernel on an exception or interrupt), and we always store
-	 * all data back to the Machine Machine.mRegisters and memory before
+	 * all data back to the CPU's registers and memory before
 	 * leaving. This allows the Nachos kernel to control our behavior by
 	 * controlling the contents of memory, the translation table, and the
 	 * register set.
+	 *
+	 * @param cpu
+	 *            the CPU to execute the instruction on.
+	 * @return false if the instruction raised an exception (which has already
+	 *         been handled), true if it completed.
 	 */
-	public static void oneInstruction(Instruction instr) {
-
-		int nextLoadReg = 0;
-		int nextLoadValue = 0; // record delayed load operation, to apply in the
-								// future
+	public static boolean oneInstruction(Cpu cpu) {
+		int pc = cpu.mRegisters[Machine.PCReg];
 
-		// Fetch instruction
-		Integer raw = (Integer) Machine.readMem(Machine.mRegisters[Machine.PCReg], 4);
-		if (raw == null) {
-			return; // exception occurred
+		// Fetch the (already decoded) instruction
+		Instruction instr = Machine.fetchInstruction(cpu, pc);
+		if (instr == null) {
+			return false; // exception occurred
 		}
 
-		instr.value = raw.intValue();
-		instr.decode();
-
 		if (Debug.isEnabled('m')) {
 			OpString str = opStrings[(char) instr.opCode];
 			assert (instr.opCode <= MaxOpcode);
-			Debug.print('a', "At PC = " + Integer.toHexString(Machine.mRegisters[Machine.PCReg]));
+			Debug.print('a', "At PC = " + Integer.toHexString(pc));
 			Debug.print('p', "VAL: " + str.string + ", r" + typeToReg(str.mA, instr) + ", r" + typeToReg(str.mB, instr)
 					+ "," + typeToReg(str.mC, instr));
 			Debug.print('a', "\n");
 		}
 
+		boolean completed = execute(cpu, instr);
+
+		if (Profiler.mEnabled && completed) {
+			Profiler.record(pc, instr);
+		}
+		if (CallGraphProfiler.mEnabled && completed) {
+			CallGraphProfiler.record(cpu, instr);
+		}
+		return completed;
+	}
+
+	/**
+	 * Execute an instruction that has already been fetched and decoded, and
+	 * advance the program counters past it. Used by oneInstruction, and by the
+	 * BlockCache to run the instructions of a cached block.
+	 *
+	 * @param cpu
+	 *            the CPU to execute the instruction on.
+	 * @param instr
+	 *            the decoded instruction found at the current PC.
+	 * @return false if the instruction raised an exception (which has already
+	 *         been handled), true if it completed.
+	 */
+	public static boolean execute(Cpu cpu, Instruction instr) {
+		int[] registers = cpu.mRegisters;
+
+		int nextLoadReg = 0;
+		int nextLoadValue = 0; // record delayed load operation, to apply in the
+								// future
+
 		// Compute next pc, but don't install in case there's an error or
 		// branch.
-		int pcAfter = Machine.mRegisters[Machine.NextPCReg] + 4;
+		int pcAfter = registers[Machine.NextPCReg] + 4;
 		int sum, diff, tmp, value;
 		int rs, rt, imm;
-		Integer result;
 
 		// Execute the instruction (cf. Kane's book)
 		switch (instr.opCode) {
 
 		case OP_ADD:
-			sum = Machine.mRegisters[instr.rs] + Machine.mRegisters[instr.rt];
-			if (!(((Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt]) & SIGN_BIT) != 0)
-					&& (((Machine.mRegisters[instr.rs] ^ sum) & SIGN_BIT) != 0)) {
-				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
+			sum = registers[instr.rs] + registers[instr.rt];
+			if (!(((registers[instr.rs] ^ registers[instr.rt]) & SIGN_BIT) != 0)
+					&& (((registers[instr.rs] ^ sum) & SIGN_BIT) != 0)) {
+				Machine.raiseException(cpu, ExceptionType.OverflowException, 0);
+				return false;
 			}
-			Machine.mRegisters[instr.rd] = sum;
+			registers[instr.rd] = sum;
 			break;
 
 		case OP_ADDI:
-			sum = Machine.mRegisters[instr.rs] + instr.extra;
-			if (!(((Machine.mRegisters[instr.rs] ^ instr.extra) & SIGN_BIT) != 0)
+			sum = registers[instr.rs] + instr.extra;
+			if (!(((registers[instr.rs] ^ instr.extra) & SIGN_BIT) != 0)
 					&& (((instr.extra ^ sum) & SIGN_BIT) != 0)) {
-				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
+				Machine.raiseException(cpu, ExceptionType.OverflowException, 0);
+				return false;
 			}
 
-			Machine.mRegisters[instr.rt] = sum;
+			registers[instr.rt] = sum;
 			break;
 
 		case OP_ADDIU:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] + instr.extra;
+			registers[instr.rt] = registers[instr.rs] + instr.extra;
 			break;
 
 		case OP_ADDU:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] + Machine.mRegisters[instr.rt];
+			registers[instr.rd] = registers[instr.rs] + registers[instr.rt];
 			break;
 
 		case OP_AND:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] & Machine.mRegisters[instr.rt];
+			registers[instr.rd] = registers[instr.rs] & registers[instr.rt];
 			break;
 
 		case OP_ANDI:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] & (instr.extra & 0xffff);
+			registers[instr.rt] = registers[instr.rs] & (instr.extra & 0xffff);
 			break;
 
 		case OP_BEQ:
-			if (Machine.mRegisters[instr.rs] == Machine.mRegisters[instr.rt]) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
+			if (registers[instr.rs] == registers[instr.rt]) {
+				pcAfter = registers[Machine.NextPCReg] + indexToAddr(instr.extra);
 			}
 			break;
 
 		case OP_BGEZAL:
-			Machine.mRegisters[R31] = Machine.mRegisters[Machine.NextPCReg] + 4;
+			registers[R31] = registers[Machine.NextPCReg] + 4;
 
 		case OP_BGEZ:
-			if (!((Machine.mRegisters[instr.rs] & SIGN_BIT) != 0)) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
+			if (!((registers[instr.rs] & SIGN_BIT) != 0)) {
+				pcAfter = registers[Machine.NextPCReg] + indexToAddr(instr.extra);
 			}
 			break;
 
 		case OP_BGTZ:
-			if (Machine.mRegisters[instr.rs] > 0) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
+			if (registers[instr.rs] > 0) {
+				pcAfter = registers[Machine.NextPCReg] + indexToAddr(instr.extra);
 			}
 			break;
 
 		case OP_BLEZ:
-			if (Machine.mRegisters[instr.rs] <= 0) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
+			if (registers[instr.rs] <= 0) {
+				pcAfter = registers[Machine.NextPCReg] + indexToAddr(instr.extra);
 			}
 			break;
 
 		case OP_BLTZAL:
-			Machine.mRegisters[R31] = Machine.mRegisters[Machine.NextPCReg] + 4;
+			registers[R31] = registers[Machine.NextPCReg] + 4;
 
 		case OP_BLTZ:
-			if ((Machine.mRegisters[instr.rs] & SIGN_BIT) != 0) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
+			if ((registers[instr.rs] & SIGN_BIT) != 0) {
+				pcAfter = registers[Machine.NextPCReg] + indexToAddr(instr.extra);
 			}
 			break;
 
 		case OP_BNE:
-			if (Machine.mRegisters[instr.rs] != Machine.mRegisters[instr.rt]) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
+			if (registers[instr.rs] != registers[instr.rt]) {
+				pcAfter = registers[Machine.NextPCReg] + indexToAddr(instr.extra);
 			}
 			break;
 
 		case OP_DIV:
-			if (Machine.mRegisters[instr.rt] == 0) {
-				Machine.mRegisters[Machine.LoReg] = 0;
-				Machine.mRegisters[Machine.HiReg] = 0;
+			if (registers[instr.rt] == 0) {
+				registers[Machine.LoReg] = 0;
+				registers[Machine.HiReg] = 0;
 			} else {
-				Machine.mRegisters[Machine.LoReg] = Machine.mRegisters[instr.rs] / Machine.mRegisters[instr.rt];
-				Machine.mRegisters[Machine.HiReg] = Machine.mRegisters[instr.rs] % Machine.mRegisters[instr.rt];
+				registers[Machine.LoReg] = registers[instr.rs] / registers[instr.rt];
+				registers[Machine.HiReg] = registers[instr.rs] % registers[instr.rt];
 			}
 			break;
 
 		case OP_DIVU:
-			rs = Machine.mRegisters[instr.rs];
-			rt = Machine.mRegisters[instr.rt];
+			rs = registers[instr.rs];
+			rt = registers[instr.rt];
 			if (rt == 0) {
-				Machine.mRegisters[Machine.LoReg] = 0;
-				Machine.mRegisters[Machine.HiReg] = 0;
+				registers[Machine.LoReg] = 0;
+				registers[Machine.HiReg] = 0;
 			} else {
 				tmp = rs / rt;
-				Machine.mRegisters[Machine.LoReg] = (int) tmp;
+				registers[Machine.LoReg] = (int) tmp;
 				tmp = rs % rt;
-				Machine.mRegisters[Machine.HiReg] = (int) tmp;
+				registers[Machine.HiReg] = (int) tmp;
 			}
 			break;
 
 		case OP_JAL:
-			Machine.mRegisters[R31] = Machine.mRegisters[Machine.NextPCReg] + 4;
+			registers[R31] = registers[Machine.NextPCReg] + 4;
 
 		case OP_J:
 			pcAfter = (pcAfter & 0xf0000000) | indexToAddr(instr.extra);
 			break;
 
 		case OP_JALR:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[Machine.NextPCReg] + 4;
+			registers[instr.rd] = registers[Machine.NextPCReg] + 4;
 
 		case OP_JR:
-			pcAfter = Machine.mRegisters[instr.rs];
+			pcAfter = registers[instr.rs];
 			break;
 
 		case OP_LB:
 		case OP_LBU:
-			tmp = Machine.mRegisters[instr.rs] + instr.extra;
-			result = Machine.readMem(tmp, 1);
-			if (result == null) {
-				return;
+			tmp = registers[instr.rs] + instr.extra;
+			value = Machine.readMem(cpu, tmp, 1);
+			if (cpu.mMemoryFault) {
+				return false;
 			}
 
-			value = result.intValue();
-
 			if (((value & 0x80) != 0) && (instr.opCode == OP_LB)) {
 				value |= 0xffffff00;
 			} else {
@@ -478,16 +504,15 @@ public class MipsSim {
 
 		case OP_LH:
 		case OP_LHU:
-			tmp = Machine.mRegisters[instr.rs] + instr.extra;
+			tmp = registers[instr.rs] + instr.extra;
 			if ((tmp & 0x1) != 0) {
-				Machine.raiseException(ExceptionType.AddressErrorException, tmp);
-				return;
+				Machine.raiseException(cpu, ExceptionType.AddressErrorException, tmp);
+				return false;
 			}
-			result = Machine.readMem(tmp, 2);
-			if (result == null) {
-				return;
+			value = Machine.readMem(cpu, tmp, 2);
+			if (cpu.mMemoryFault) {
+				return false;
 			}
-			value = result.intValue();
 
 			if (((value & 0x8000) != 0) && (instr.opCode == OP_LH)) {
 				value |= 0xffff0000;
@@ -500,44 +525,44 @@ public class MipsSim {
 			break;
 
 		case OP_LUI:
-			Debug.print('m', "Executing: LUI r" + instr.rt + ", " + instr.extra);
-			Machine.mRegisters[instr.rt] = instr.extra << 16;
+			if (Debug.isEnabled('m')) {
+				Debug.print('m', "Executing: LUI r" + instr.rt + ", " + instr.extra);
+			}
+			registers[instr.rt] = instr.extra << 16;
 			break;
 
 		case OP_LW:
-			tmp = Machine.mRegisters[instr.rs] + instr.extra;
+			tmp = registers[instr.rs] + instr.extra;
 			if ((tmp & 0x3) != 0) {
-				Machine.raiseException(ExceptionType.AddressErrorException, tmp);
-				return;
+				Machine.raiseException(cpu, ExceptionType.AddressErrorException, tmp);
+				return false;
 			}
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
-				return;
+			value = Machine.readMem(cpu, tmp, 4);
+			if (cpu.mMemoryFault) {
+				return false;
 			}
-			value = result.intValue();
 
 			nextLoadReg = instr.rt;
 			nextLoadValue = value;
 			break;
 
 		case OP_LWL:
-			tmp = Machine.mRegisters[instr.rs] + instr.extra;
+			tmp = registers[instr.rs] + instr.extra;
 			// readMem assumes all 4 byte requests are aligned on an even
 			// word boundary. Also, the little endian/big endian swap code would
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
-				return;
+			value = Machine.readMem(cpu, tmp, 4);
+			if (cpu.mMemoryFault) {
+				return false;
 			}
-			value = result.intValue();
 
-			if (Machine.mRegisters[Machine.LoadReg] == instr.rt) {
-				nextLoadValue = Machine.mRegisters[Machine.LoadValueReg];
+			if (registers[Machine.LoadReg] == instr.rt) {
+				nextLoadValue = registers[Machine.LoadValueReg];
 			} else {
-				nextLoadValue = Machine.mRegisters[instr.rt];
+				nextLoadValue = registers[instr.rt];
 			}
 
 			switch (tmp & 0x3) {
@@ -559,22 +584,21 @@ public class MipsSim {
 			break;
 
 		case OP_LWR:
-			tmp = Machine.mRegisters[instr.rs] + instr.extra;
+			tmp = registers[instr.rs] + instr.extra;
 
 			// readMem assumes all 4 byte requests are aligned on an even
 			// word boundary. Also, the little endian/big endian swap code would
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
-				return;
+			value = Machine.readMem(cpu, tmp, 4);
+			if (cpu.mMemoryFault) {
+				return false;
 			}
-			value = result.intValue();
-			if (Machine.mRegisters[Machine.LoadReg] == instr.rt) {
-				nextLoadValue = Machine.mRegisters[Machine.LoadValueReg];
+			if (registers[Machine.LoadReg] == instr.rt) {
+				nextLoadValue = registers[Machine.LoadValueReg];
 			} else {
-				nextLoadValue = Machine.mRegisters[instr.rt];
+				nextLoadValue = registers[instr.rt];
 			}
 
 			switch (tmp & 0x3) {
@@ -596,233 +620,229 @@ public class MipsSim {
 			break;
 
 		case OP_MFHI:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[Machine.HiReg];
+			registers[instr.rd] = registers[Machine.HiReg];
 			break;
 
 		case OP_MFLO:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[Machine.LoReg];
+			registers[instr.rd] = registers[Machine.LoReg];
 			break;
 
 		case OP_MTHI:
-			Machine.mRegisters[Machine.HiReg] = Machine.mRegisters[instr.rs];
+			registers[Machine.HiReg] = registers[instr.rs];
 			break;
 
 		case OP_MTLO:
-			Machine.mRegisters[Machine.LoReg] = Machine.mRegisters[instr.rs];
+			registers[Machine.LoReg] = registers[instr.rs];
 			break;
 
 		case OP_MULT:
-			int[] result1 = new int[2];
-			Mult(Machine.mRegisters[instr.rs], Machine.mRegisters[instr.rt], true, result1);
-			Machine.mRegisters[Machine.HiReg] = result1[1];
-			Machine.mRegisters[Machine.LoReg] = result1[0];
+			Mult(registers[instr.rs], registers[instr.rt], true, cpu.mMultResult);
+			registers[Machine.HiReg] = cpu.mMultResult[1];
+			registers[Machine.LoReg] = cpu.mMultResult[0];
 			break;
 
 		case OP_MULTU:
-			int[] result2 = new int[2];
-			Mult(Machine.mRegisters[instr.rs], Machine.mRegisters[instr.rt], false, result2);
-			Machine.mRegisters[Machine.HiReg] = result2[1];
-			Machine.mRegisters[Machine.LoReg] = result2[0];
+			Mult(registers[instr.rs], registers[instr.rt], false, cpu.mMultResult);
+			registers[Machine.HiReg] = cpu.mMultResult[1];
+			registers[Machine.LoReg] = cpu.mMultResult[0];
 			break;
 
 		case OP_NOR:
-			Machine.mRegisters[instr.rd] = ~(Machine.mRegisters[instr.rs] | Machine.mRegisters[instr.rt]);
+			registers[instr.rd] = ~(registers[instr.rs] | registers[instr.rt]);
 			break;
 
 		case OP_OR:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] | Machine.mRegisters[instr.rs];
+			registers[instr.rd] = registers[instr.rs] | registers[instr.rs];
 			break;
 
 		case OP_ORI:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] | (instr.extra & 0xffff);
+			registers[instr.rt] = registers[instr.rs] | (instr.extra & 0xffff);
 			break;
 
 		case OP_SB:
-			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 1, Machine.mRegisters[instr.rt])) {
-				return;
+			if (!Machine.writeMem(cpu, (registers[instr.rs] + instr.extra), 1, registers[instr.rt])) {
+				return false;
 			}
 			break;
 
 		case OP_SH:
-			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 2, Machine.mRegisters[instr.rt])) {
-				return;
+			if (!Machine.writeMem(cpu, (registers[instr.rs] + instr.extra), 2, registers[instr.rt])) {
+				return false;
 			}
 			break;
 
 		case OP_SLL:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] << instr.extra;
+			registers[instr.rd] = registers[instr.rt] << instr.extra;
 			break;
 
 		case OP_SLLV:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] << (Machine.mRegisters[instr.rs] & 0x1f);
+			registers[instr.rd] = registers[instr.rt] << (registers[instr.rs] & 0x1f);
 			break;
 
 		case OP_SLT:
-			if (Machine.mRegisters[instr.rs] < Machine.mRegisters[instr.rt]) {
-				Machine.mRegisters[instr.rd] = 1;
+			if (registers[instr.rs] < registers[instr.rt]) {
+				registers[instr.rd] = 1;
 			} else {
-				Machine.mRegisters[instr.rd] = 0;
+				registers[instr.rd] = 0;
 			}
 			break;
 
 		case OP_SLTI:
-			if (Machine.mRegisters[instr.rs] < instr.extra) {
-				Machine.mRegisters[instr.rt] = 1;
+			if (registers[instr.rs] < instr.extra) {
+				registers[instr.rt] = 1;
 			} else {
-				Machine.mRegisters[instr.rt] = 0;
+				registers[instr.rt] = 0;
 			}
 			break;
 
 		case OP_SLTIU:
-			rs = Machine.mRegisters[instr.rs];
+			rs = registers[instr.rs];
 			imm = instr.extra;
 			if (rs < imm) {
-				Machine.mRegisters[instr.rt] = 1;
+				registers[instr.rt] = 1;
 			} else {
-				Machine.mRegisters[instr.rt] = 0;
+				registers[instr.rt] = 0;
 			}
 			break;
 
 		case OP_SLTU:
-			rs = Machine.mRegisters[instr.rs];
-			rt = Machine.mRegisters[instr.rt];
+			rs = registers[instr.rs];
+			rt = registers[instr.rt];
 			if (rs < rt) {
-				Machine.mRegisters[instr.rd] = 1;
+				registers[instr.rd] = 1;
 			} else {
-				Machine.mRegisters[instr.rd] = 0;
+				registers[instr.rd] = 0;
 			}
 			break;
 
 		case OP_SRA:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] >> instr.extra;
+			registers[instr.rd] = registers[instr.rt] >> instr.extra;
 			break;
 
 		case OP_SRAV:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] >> (Machine.mRegisters[instr.rs] & 0x1f);
+			registers[instr.rd] = registers[instr.rt] >> (registers[instr.rs] & 0x1f);
 			break;
 
 		case OP_SRL:
-			tmp = Machine.mRegisters[instr.rt];
+			tmp = registers[instr.rt];
 			tmp >>= instr.extra;
-			Machine.mRegisters[instr.rd] = tmp;
+			registers[instr.rd] = tmp;
 			break;
 
 		case OP_SRLV:
-			tmp = Machine.mRegisters[instr.rt];
-			tmp >>= (Machine.mRegisters[instr.rs] & 0x1f);
-			Machine.mRegisters[instr.rd] = tmp;
+			tmp = registers[instr.rt];
+			tmp >>= (registers[instr.rs] & 0x1f);
+			registers[instr.rd] = tmp;
 			break;
 
 		case OP_SUB:
-			diff = Machine.mRegisters[instr.rs] - Machine.mRegisters[instr.rt];
-			if ((((Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt]) & SIGN_BIT) != 0)
-					&& (((Machine.mRegisters[instr.rs] ^ diff) & SIGN_BIT) != 0)) {
-				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
+			diff = registers[instr.rs] - registers[instr.rt];
+			if ((((registers[instr.rs] ^ registers[instr.rt]) & SIGN_BIT) != 0)
+					&& (((registers[instr.rs] ^ diff) & SIGN_BIT) != 0)) {
+				Machine.raiseException(cpu, ExceptionType.OverflowException, 0);
+				return false;
 			}
-			Machine.mRegisters[instr.rd] = diff;
+			registers[instr.rd] = diff;
 			break;
 
 		case OP_SUBU:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] - Machine.mRegisters[instr.rt];
+			registers[instr.rd] = registers[instr.rs] - registers[instr.rt];
 			break;
 
 		case OP_SW:
-			// long l = (long)(Machine.mRegisters[instr.rs] + instr.extra);
+			// long l = (long)(registers[instr.rs] + instr.extra);
 
-			// System.out.println(Machine.mRegisters[instr.rs] + "\t" +
-			// instr.extra + "\t" + (Machine.mRegisters[instr.rs] +
+			// System.out.println(registers[instr.rs] + "\t" +
+			// instr.extra + "\t" + (registers[instr.rs] +
 			// instr.extra));
-			// System.out.println(Machine.mRegisters[instr.rt]);
-			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 4, Machine.mRegisters[instr.rt])) {
-				return;
+			// System.out.println(registers[instr.rt]);
+			if (!Machine.writeMem(cpu, (registers[instr.rs] + instr.extra), 4, registers[instr.rt])) {
+				return false;
 			}
 			break;
 
 		case OP_SWL:
-			tmp = Machine.mRegisters[instr.rs] + instr.extra;
+			tmp = registers[instr.rs] + instr.extra;
 			// The little endian/big endian swap code would
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem((tmp & ~0x3), 4);
-			if (result == null) {
-				return;
+			value = Machine.readMem(cpu, (tmp & ~0x3), 4);
+			if (cpu.mMemoryFault) {
+				return false;
 			}
-			value = result.intValue();
 			switch (tmp & 0x3) {
 			case 0:
-				value = Machine.mRegisters[instr.rt];
+				value = registers[instr.rt];
 				break;
 
 			case 1:
-				value = (value & 0xff000000) | ((Machine.mRegisters[instr.rt] >> 8) & 0xffffff);
+				value = (value & 0xff000000) | ((registers[instr.rt] >> 8) & 0xffffff);
 				break;
 
 			case 2:
-				value = (value & 0xffff0000) | ((Machine.mRegisters[instr.rt] >> 16) & 0xffff);
+				value = (value & 0xffff0000) | ((registers[instr.rt] >> 16) & 0xffff);
 				break;
 
 			case 3:
-				value = (value & 0xffffff00) | ((Machine.mRegisters[instr.rt] >> 24) & 0xff);
+				value = (value & 0xffffff00) | ((registers[instr.rt] >> 24) & 0xff);
 				break;
 			}
 
-			if (!Machine.writeMem((tmp & ~0x3), 4, value)) {
-				return;
+			if (!Machine.writeMem(cpu, (tmp & ~0x3), 4, value)) {
+				return false;
 			}
 			break;
 
 		case OP_SWR:
-			tmp = Machine.mRegisters[instr.rs] + instr.extra;
+			tmp = registers[instr.rs] + instr.extra;
 
 			// The little endian/big endian swap code would
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
-			result = Machine.readMem((tmp & ~0x3), 4);
-			if (result == null) {
-				return;
+			value = Machine.readMem(cpu, (tmp & ~0x3), 4);
+			if (cpu.mMemoryFault) {
+				return false;
 			}
-			value = result.intValue();
 			switch (tmp & 0x3) {
 			case 0:
-				value = (value & 0xffffff) | (Machine.mRegisters[instr.rt] << 24);
+				value = (value & 0xffffff) | (registers[instr.rt] << 24);
 				break;
 
 			case 1:
-				value = (value & 0xffff) | (Machine.mRegisters[instr.rt] << 16);
+				value = (value & 0xffff) | (registers[instr.rt] << 16);
 				break;
 
 			case 2:
-				value = (value & 0xff) | (Machine.mRegisters[instr.rt] << 8);
+				value = (value & 0xff) | (registers[instr.rt] << 8);
 				break;
 
 			case 3:
-				value = Machine.mRegisters[instr.rt];
+				value = registers[instr.rt];
 				break;
 			}
 
-			if (!Machine.writeMem((tmp & ~0x3), 4, value)) {
-				return;
+			if (!Machine.writeMem(cpu, (tmp & ~0x3), 4, value)) {
+				return false;
 			}
 			break;
 
 		case OP_SYSCALL:
-			Machine.raiseException(ExceptionType.SyscallException, 0);
-			return;
+			Machine.raiseException(cpu, ExceptionType.SyscallException, 0);
+			return false;
 
 		case OP_XOR:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt];
+			registers[instr.rd] = registers[instr.rs] ^ registers[instr.rt];
 			break;
 
 		case OP_XORI:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] ^ (instr.extra & 0xffff);
+			registers[instr.rt] = registers[instr.rs] ^ (instr.extra & 0xffff);
 			break;
 
 		case OP_RES:
 		case OP_UNIMP:
-			Machine.raiseException(ExceptionType.IllegalInstrException, 0);
-			return;
+			Machine.raiseException(cpu, ExceptionType.IllegalInstrException, 0);
+			return false;
 
 		default:
 			assert (false);
@@ -831,17 +851,19 @@ public class MipsSim {
 		// Now we have successfully executed the instruction.
 
 		// Do any delayed load operation
-		Machine.delayedLoad(nextLoadReg, nextLoadValue);
+		cpu.delayedLoad(nextLoadReg, nextLoadValue);
 
 		// Advance program counters.
-		Machine.mRegisters[Machine.PrevPCReg] = Machine.mRegisters[Machine.PCReg]; // for
+		registers[Machine.PrevPCReg] = registers[Machine.PCReg]; // for
 																					// debugging,
 																					// in
 																					// case
 																					// we
 		// are jumping into lala-land
-		Machine.mRegisters[Machine.PCReg] = Machine.mRegisters[Machine.NextPCReg];
-		Machine.mRegisters[Machine.NextPCReg] = pcAfter;
+		registers[Machine.PCReg] = registers[Machine.NextPCReg];
+		registers[Machine.NextPCReg] = pcAfter;
+
+		return true;
 	}
 
 	/**
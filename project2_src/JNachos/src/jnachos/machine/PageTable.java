@@ -0,0 +1,283 @@
+package jnachos.machine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A page table, indexed by virtual page number. Each entry is packed into one
+ * long, instead of being a TranslationEntry object:
+ *
+ * <pre>
+ *   bits  0-23  the page frame plus one (0 when the page has no frame)
+ *   bits 24-55  the swap slot holding the page when it is not in memory
+ *   bit  56     valid
+ *   bit  57     read-only
+ *   bit  58     use
+ *   bit  59     dirty
+ *   bit  60     swapped (the swap slot holds the contents of the page)
+ *   bit  61     super (the page is part of a resident superpage)
+ * </pre>
+ *
+ * A new table is all zeros: no page has a frame, every flag is clear, and
+ * every swap slot is 0.
+ *
+ * The entries are kept in leaves of a two-level table, found through a
+ * directory indexed by the high bits of the virtual page number. A linear
+ * table is the special case of a single leaf covering every page. A sparse
+ * table has small leaves that are only created when an entry in them is first
+ * set, so that the regions of an address space that are never touched cost
+ * nothing but a null in the directory.
+ *
+ * The MMU sets the use and dirty bits while the kernel may be clearing them
+ * from another CPU, so the flags are only ever changed by atomic operations
+ * on the entry, and only when they actually change (so that setting the use
+ * bit of a page that is already in use costs a single read).
+ */
+public class PageTable {
+	/** The bits holding the page frame, plus one. */
+	private static final long FrameMask = 0xffffffL;
+
+	/** Where the swap slot starts. */
+	private static final int SwapShift = 24;
+
+	/** The bits holding the swap slot. */
+	private static final long SwapMask = 0xffffffffL << SwapShift;
+
+	/** The flags. */
+	private static final long Valid = 1L << 56;
+	private static final long ReadOnly = 1L << 57;
+	private static final long Use = 1L << 58;
+	private static final long Dirty = 1L << 59;
+	private static final long Swapped = 1L << 60;
+	private static final long Super = 1L << 61;
+
+	/** The log2 of the number of entries in a leaf of a sparse table. */
+	public static final int SparseLeafBits = 6;
+
+	/** The leaves, by virtual page number shifted right by mLeafBits. */
+	private final AtomicLongArray[] mLeaves;
+
+	/** The log2 of the number of entries in a leaf. */
+	private final int mLeafBits;
+
+	/** Selects the index into a leaf from a virtual page number. */
+	private final int mLeafMask;
+
+	/** The number of virtual pages. */
+	private final int mNumPages;
+
+	/**
+	 * Creates a linear page table with every page out of memory.
+	 *
+	 * @param pNumPages
+	 *            the number of virtual pages.
+	 */
+	public PageTable(int pNumPages) {
+		this(pNumPages, false);
+	}
+
+	/**
+	 * Creates a page table with every page out of memory.
+	 *
+	 * @param pNumPages
+	 *            the number of virtual pages.
+	 * @param pSparse
+	 *            whether leaves are SparseLeafBits wide and created on demand,
+	 *            rather than there being one leaf for the whole table.
+	 */
+	public PageTable(int pNumPages, boolean pSparse) {
+		mNumPages = pNumPages;
+		if (pSparse) {
+			mLeafBits = SparseLeafBits;
+			mLeaves = new AtomicLongArray[(pNumPages + (1 << mLeafBits) - 1) >>> mLeafBits];
+		} else {
+			mLeafBits = 31;
+			mLeaves = new AtomicLongArray[] { new AtomicLongArray(pNumPages) };
+		}
+		mLeafMask = (int) ((1L << mLeafBits) - 1);
+	}
+
+	/**
+	 * @return the number of virtual pages.
+	 */
+	public int size() {
+		return mNumPages;
+	}
+
+	/**
+	 * @return the number of leaves that have been created.
+	 */
+	public int getNumLeaves() {
+		int leaves = 0;
+		for (AtomicLongArray leaf : mLeaves) {
+			if (leaf != null) {
+				leaves++;
+			}
+		}
+		return leaves;
+	}
+
+	/**
+	 * Gets the entry of a page, which is 0 if its leaf does not exist.
+	 */
+	private long entry(int pVpn) {
+		AtomicLongArray leaf = mLeaves[pVpn >>> mLeafBits];
+		return leaf == null ? 0 : leaf.get(pVpn & mLeafMask);
+	}
+
+	/**
+	 * Gets the leaf holding the entry of a page, creating it the first time.
+	 */
+	private AtomicLongArray leafFor(int pVpn) {
+		AtomicLongArray leaf = mLeaves[pVpn >>> mLeafBits];
+		if (leaf == null) {
+			leaf = new AtomicLongArray(1 << mLeafBits);
+			mLeaves[pVpn >>> mLeafBits] = leaf;
+		}
+		return leaf;
+	}
+
+	/**
+	 * Gets the page frame of a page.
+	 *
+	 * @param pVpn
+	 *            the virtual page number.
+	 * @return the frame, or -1 if the page has none.
+	 */
+	public int getFrame(int pVpn) {
+		return (int) (entry(pVpn) & FrameMask) - 1;
+	}
+
+	/**
+	 * Sets the page frame of a page.
+	 *
+	 * @param pVpn
+	 *            the virtual page number.
+	 * @param pFrame
+	 *            the frame, or -1 for none.
+	 */
+	public void setFrame(int pVpn, int pFrame) {
+		assert (pFrame >= -1 && pFrame < FrameMask);
+		replace(pVpn, FrameMask, pFrame + 1);
+	}
+
+	/**
+	 * Gets the swap slot of a page.
+	 *
+	 * @param pVpn
+	 *            the virtual page number.
+	 * @return the swap slot.
+	 */
+	public int getSwapSlot(int pVpn) {
+		return (int) (entry(pVpn) >>> SwapShift);
+	}
+
+	/**
+	 * Sets the swap slot of a page.
+	 *
+	 * @param pVpn
+	 *            the virtual page number.
+	 * @param pSlot
+	 *            the swap slot.
+	 */
+	public void setSwapSlot(int pVpn, int pSlot) {
+		replace(pVpn, SwapMask, ((long) pSlot << SwapShift) & SwapMask);
+	}
+
+	/**
+	 * @return whether or not the page is in memory.
+	 */
+	public boolean isValid(int pVpn) {
+		return (entry(pVpn) & Valid) != 0;
+	}
+
+	public void setValid(int pVpn, boolean pValid) {
+		setFlag(pVpn, Valid, pValid);
+	}
+
+	/**
+	 * @return whether or not the user program may not write to the page.
+	 */
+	public boolean isReadOnly(int pVpn) {
+		return (entry(pVpn) & ReadOnly) != 0;
+	}
+
+	public void setReadOnly(int pVpn, boolean pReadOnly) {
+		setFlag(pVpn, ReadOnly, pReadOnly);
+	}
+
+	/**
+	 * @return whether or not the page has been referenced since the use bit
+	 *         was last cleared.
+	 */
+	public boolean isUsed(int pVpn) {
+		return (entry(pVpn) & Use) != 0;
+	}
+
+	public void setUsed(int pVpn, boolean pUsed) {
+		setFlag(pVpn, Use, pUsed);
+	}
+
+	/**
+	 * @return whether or not the page has been modified since it was last
+	 *         written to swap.
+	 */
+	public boolean isDirty(int pVpn) {
+		return (entry(pVpn) & Dirty) != 0;
+	}
+
+	public void setDirty(int pVpn, boolean pDirty) {
+		setFlag(pVpn, Dirty, pDirty);
+	}
+
+	/**
+	 * @return whether or not the swap slot of the page holds its contents.
+	 */
+	public boolean isSwapped(int pVpn) {
+		return (entry(pVpn) & Swapped) != 0;
+	}
+
+	public void setSwapped(int pVpn, boolean pSwapped) {
+		setFlag(pVpn, Swapped, pSwapped);
+	}
+
+	/**
+	 * @return whether or not the page is part of a superpage: the aligned run
+	 *         of Machine.SuperPageSize pages around it is resident in the
+	 *         aligned run of frames around its frame, and can be mapped by a
+	 *         single TLB entry.
+	 */
+	public boolean isSuper(int pVpn) {
+		return (entry(pVpn) & Super) != 0;
+	}
+
+	public void setSuper(int pVpn, boolean pSuper) {
+		setFlag(pVpn, Super, pSuper);
+	}
+
+	/**
+	 * Sets or clears one flag of an entry, if it is not already so.
+	 */
+	private void setFlag(int pVpn, long pFlag, boolean pSet) {
+		if (((entry(pVpn) & pFlag) != 0) == pSet) {
+			return;
+		}
+
+		if (pSet) {
+			leafFor(pVpn).getAndAccumulate(pVpn & mLeafMask, pFlag, (pOld, pBits) -> pOld | pBits);
+		} else {
+			leafFor(pVpn).getAndAccumulate(pVpn & mLeafMask, ~pFlag, (pOld, pBits) -> pOld & pBits);
+		}
+	}
+
+	/**
+	 * Replaces the bits of an entry under a mask.
+	 */
+	private void replace(int pVpn, long pMask, long pBits) {
+		AtomicLongArray leaf = leafFor(pVpn);
+		int index = pVpn & mLeafMask;
+		long old;
+		do {
+			old = leaf.get(index);
+		} while (!leaf.compareAndSet(index, old, (old & ~pMask) | pBits));
+	}
+}
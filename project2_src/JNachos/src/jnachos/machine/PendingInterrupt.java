@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation 
+ * of liability and disclaimer of warranty provisions.
+ *  
+ *  Created by Patrick McSweeney on 12/5/08.
+ */
+package jnachos.machine;
+
+import jnachos.kern.VoidFunctionPtr;
+
+/**
+ * Pending Interrupt describes an interrupt that is scheduled to occur at some
+ * time in the future
+ */
+class PendingInterrupt {
+
+	/** The function (in the hardware device). */
+	private VoidFunctionPtr mHandler;
+
+	/** The argument to the function. */
+	private Object mArg;
+
+	/** When the interrupt is supposed to fire. */
+	private int mWhen;
+
+	/** Used for Debug printing */
+	private InterruptType mType;
+
+	/**
+	 * Default Constructor.
+	 * 
+	 * @param pFunc
+	 *            The call-back function
+	 * @param pArg
+	 *            The argument to the call-back function.
+	 * @param pTime
+	 *            The time that the interrupt should fire.
+	 * @param pKind
+	 *            The kind of interrupt.
+	 */
+	public PendingInterrupt(VoidFunctionPtr pFunc, Object pArg, int pTime, InterruptType pKind) {
+		mHandler = pFunc;
+		mArg = pArg;
+		mWhen = pTime;
+		mType = pKind;
+	}
+
+	/**
+	 * Gets the interrupt handler
+	 * 
+	 * @return The call-back function (interrupt handler)
+	 */
+	public VoidFunctionPtr getHandler() {
+		return mHandler;
+	}
+
+	/**
+	 * Gets the interrupt handler argument.
+	 * 
+	 * @return The interrupt handler argument
+	 */
+	public Object getArgument() {
+		return mArg;
+	}
+
+	/**
+	 * Gets the time when the interrupt should fire.
+	 * 
+	 * @return The time when the interrupt should fire.
+	 */
+	public int getWhen() {
+		return mWhen;
+	}
+
+	/**
+	 * Gets the type of interrupt
+	 * 
+	 * @return The type of interrupt
+	 */
+	public InterruptType getType() {
+		return mType;
+	}
+}
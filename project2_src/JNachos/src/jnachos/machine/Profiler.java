@@ -0,0 +1,247 @@
+package jnachos.machine;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jnachos.kern.AddrSpace;
+import jnachos.kern.JNachos;
+
+/**
+ * The execution counts of one user program.
+ */
+class ProgramProfile {
+	/** The name of the program (its executable). */
+	public String mName;
+
+	/** How many times the instruction at each word address has completed. */
+	public long[] mPcCounts;
+
+	/** The opcode last seen at each word address. */
+	public byte[] mPcOpCodes;
+
+	/** How many times each opcode has completed, indexed by the OP_ constants. */
+	public long[] mOpCounts;
+
+	/** The number of instructions completed. */
+	public long mTotal;
+
+	/**
+	 * Creates an empty profile.
+	 *
+	 * @param pName
+	 *            the name of the program.
+	 */
+	public ProgramProfile(String pName) {
+		mName = pName;
+		mPcCounts = new long[256];
+		mPcOpCodes = new byte[256];
+		mOpCounts = new long[MipsSim.MaxOpcode + 1];
+	}
+
+	/**
+	 * Counts one completed instruction.
+	 *
+	 * @param pPc
+	 *            the virtual address of the instruction.
+	 * @param pOpCode
+	 *            the opcode of the instruction.
+	 */
+	public void count(int pPc, int pOpCode) {
+		int index = pPc >>> 2;
+		if (index >= mPcCounts.length) {
+			int length = Math.max(index + 1, mPcCounts.length * 2);
+			mPcCounts = Arrays.copyOf(mPcCounts, length);
+			mPcOpCodes = Arrays.copyOf(mPcOpCodes, length);
+		}
+		mPcCounts[index]++;
+		mPcOpCodes[index] = (byte) pOpCode;
+		mOpCounts[pOpCode]++;
+		mTotal++;
+	}
+}
+
+/**
+ * An optional profiler for user programs. For every program it counts how
+ * often each instruction (by PC) and each opcode completes. From the opcode
+ * counts it also works out how many memory reads and writes of each size the
+ * program did, which Machine.read1 ... Machine.write4 only give for the whole
+ * system.
+ *
+ * When the machine halts, a report of the hottest instructions, the opcode
+ * histogram and the memory accesses is printed, and every counted instruction
+ * is written to a CSV file with the columns program, pc, opcode and count.
+ *
+ * Turned on with the -prof command line option. When the profiler is off,
+ * the CPU loop only pays for testing mEnabled.
+ */
+public class Profiler {
+	/** Whether or not user programs are being profiled. */
+	public static boolean mEnabled;
+
+	/** The file the CSV output is written to. */
+	public static String mCsvFile;
+
+	/** The number of instructions listed in the hot spot report. */
+	public static final int HotSpots = 20;
+
+	/** The profiles, by program name, in the order the programs started. */
+	private static Map<String, ProgramProfile> mProfiles = new LinkedHashMap<String, ProgramProfile>();
+
+	/** The address space of the last instruction counted. */
+	private static AddrSpace mLastSpace;
+
+	/** The profile of mLastSpace. */
+	private static ProgramProfile mLastProfile;
+
+	/**
+	 * Counts an instruction that has just completed in the current process.
+	 *
+	 * @param pPc
+	 *            the virtual address of the instruction.
+	 * @param pInstr
+	 *            the decoded instruction.
+	 */
+	public static void record(int pPc, Instruction pInstr) {
+		AddrSpace space = JNachos.getCurrentProcess().getSpace();
+		if (space != mLastSpace) {
+			mLastSpace = space;
+			mLastProfile = profileFor(space);
+		}
+		mLastProfile.count(pPc, pInstr.opCode);
+	}
+
+	/**
+	 * Finds (or creates) the profile of the program running in an address
+	 * space.
+	 */
+	private static ProgramProfile profileFor(AddrSpace pSpace) {
+		String name = pSpace.getProgramName();
+		if (name == null) {
+			name = JNachos.getCurrentProcess().getName();
+		}
+
+		ProgramProfile profile = mProfiles.get(name);
+		if (profile == null) {
+			profile = new ProgramProfile(name);
+			mProfiles.put(name, profile);
+		}
+		return profile;
+	}
+
+	/**
+	 * Prints the profile report and writes the CSV file. Called when the
+	 * machine halts.
+	 */
+	public static void report() {
+		for (ProgramProfile profile : mProfiles.values()) {
+			printProfile(profile);
+		}
+
+		if (mCsvFile != null) {
+			writeCsv(mCsvFile);
+		}
+	}
+
+	/**
+	 * Prints the hot spots, the opcode histogram and the memory access counts
+	 * of a program.
+	 */
+	private static void printProfile(ProgramProfile pProfile) {
+		System.out.println("Profile of " + pProfile.mName + ": " + pProfile.mTotal + " instructions");
+		if (pProfile.mTotal == 0) {
+			return;
+		}
+
+		System.out.println("  Hot spots:");
+		System.out.println(String.format("  %10s %12s %7s  %s", "pc", "count", "%", "opcode"));
+		List<Integer> pcs = sortedPcs(pProfile);
+		for (int i = 0; i < pcs.size() && i < HotSpots; i++) {
+			int index = pcs.get(i);
+			long count = pProfile.mPcCounts[index];
+			System.out.println(String.format("  0x%08x %12d %7.2f  %s", index << 2, count,
+					100.0 * count / pProfile.mTotal, opcodeAt(pProfile, index)));
+		}
+
+		System.out.println("  Opcodes:");
+		List<Integer> ops = new ArrayList<Integer>();
+		for (int op = 0; op < pProfile.mOpCounts.length; op++) {
+			if (pProfile.mOpCounts[op] != 0) {
+				ops.add(op);
+			}
+		}
+		final long[] opCounts = pProfile.mOpCounts;
+		Collections.sort(ops, new Comparator<Integer>() {
+			public int compare(Integer pA, Integer pB) {
+				return Long.compare(opCounts[pB], opCounts[pA]);
+			}
+		});
+		for (int op : ops) {
+			System.out.println(String.format("  %-10s %12d %7.2f", MipsSim.opStrings[op].string, opCounts[op],
+					100.0 * opCounts[op] / pProfile.mTotal));
+		}
+
+		long reads1 = opCounts[MipsSim.OP_LB] + opCounts[MipsSim.OP_LBU];
+		long reads2 = opCounts[MipsSim.OP_LH] + opCounts[MipsSim.OP_LHU];
+		long reads4 = opCounts[MipsSim.OP_LW] + opCounts[MipsSim.OP_LWL] + opCounts[MipsSim.OP_LWR];
+		long writes1 = opCounts[MipsSim.OP_SB];
+		long writes2 = opCounts[MipsSim.OP_SH];
+		long writes4 = opCounts[MipsSim.OP_SW] + opCounts[MipsSim.OP_SWL] + opCounts[MipsSim.OP_SWR];
+		System.out.println("  Memory reads: 1 byte " + reads1 + ", 2 bytes " + reads2 + ", 4 bytes " + reads4);
+		System.out.println("  Memory writes: 1 byte " + writes1 + ", 2 bytes " + writes2 + ", 4 bytes " + writes4);
+		System.out.println("  Instruction fetches: " + pProfile.mTotal);
+	}
+
+	/**
+	 * Gets the word indices of the counted instructions of a program, most
+	 * executed first.
+	 */
+	private static List<Integer> sortedPcs(ProgramProfile pProfile) {
+		List<Integer> pcs = new ArrayList<Integer>();
+		final long[] counts = pProfile.mPcCounts;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				pcs.add(i);
+			}
+		}
+
+		Collections.sort(pcs, new Comparator<Integer>() {
+			public int compare(Integer pA, Integer pB) {
+				int result = Long.compare(counts[pB], counts[pA]);
+				return result != 0 ? result : Integer.compare(pA, pB);
+			}
+		});
+		return pcs;
+	}
+
+	/**
+	 * Gets the name of the opcode that was counted at a word index.
+	 */
+	private static String opcodeAt(ProgramProfile pProfile, int pIndex) {
+		return MipsSim.opStrings[pProfile.mPcOpCodes[pIndex]].string;
+	}
+
+	/**
+	 * Writes every counted instruction of every program to a CSV file.
+	 */
+	private static void writeCsv(String pFile) {
+		try (PrintWriter out = new PrintWriter(new FileWriter(pFile))) {
+			out.println("program,pc,opcode,count");
+			for (ProgramProfile profile : mProfiles.values()) {
+				for (int index : sortedPcs(profile)) {
+					out.println(profile.mName + ",0x" + Integer.toHexString(index << 2) + ","
+							+ opcodeAt(profile, index) + "," + profile.mPcCounts[index]);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to write profile to " + pFile + ": " + e.getMessage());
+		}
+	}
+}
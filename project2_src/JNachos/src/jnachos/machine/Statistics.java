@@ -7,6 +7,14 @@
  */
 package jnachos.machine;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import jnachos.kern.JNachos;
+import jnachos.kern.mem.CAR;
+import jnachos.kern.mem.FaultAround;
+import jnachos.kern.mem.PageDaemon;
+
 /**
  *
  */
@@ -37,12 +45,8 @@ public class Statistics {
 	//
 	// The fields in this class are public to make it easier to update.
 
-	public static int totalTicks; // Total time running Nachos
-	public static int idleTicks; // Time spent idle (no threads to run)
-	public static int systemTicks; // Time spent executing system code
-	public static int userTicks; // Time spent executing user code
-	// (this is also equal to # of
-	// user instructions executed)
+	// The time (total, idle, system and user ticks) is kept by each Cpu;
+	// see Cpu.mTotalTicks.
 
 	public static int numDiskReads; // number of disk read requests
 	public static int numDiskWrites; // number of disk write requests
@@ -55,14 +59,88 @@ public class Statistics {
 	public static int numPacketsRecvd; // number of packets received over the
 										// network
 
+	public static int numDecodeHits; // instruction fetches served already
+										// decoded
+	public static int numDecodeMisses; // instruction fetches that had to be
+										// decoded
+	public static int numCachedBlocks; // basic blocks cached
+	public static int numCachedBlocksRun; // cached blocks executed
+	public static int numCachedInstructions; // user instructions executed
+												// in cached blocks
+	public static int numBatchedInstructions; // user instructions executed
+												// without a per-instruction tick
+	public static int numTlbHits; // translations found in the TLB
+	public static int numTlbMisses; // translations missing from the TLB
+	public static int numTlbFlushes; // times a TLB was flushed
+	public static int numSuperPromotions; // superpages formed
+	public static int numSuperDemotions; // superpages broken up
+	public static int numPageOuts; // dirty pages written to swap
+	public static int numDaemonRuns; // times the page daemon ran
+	public static int numDaemonEvictions; // pages evicted by the page daemon
+	public static int numDaemonCleans; // dirty pages cleaned by the page daemon
+	public static int numDaemonRescues; // faults on pages still in a free frame
+	public static int numDirectReclaims; // faults that found no free frame
+											// with the page daemon running
+	public static int numSwapReads; // reads of the swap space
+	public static int numPrefetched; // pages brought in around a fault
+	public static int numPrefetchHits; // of those, pages used before evicted
+
+	/** The working sets of finished processes (WSClock), one line each. */
+	private static List<String> mWorkingSets = new ArrayList<String>();
+
+	/** The frame quotas of finished processes (-pff), one line each. */
+	private static List<String> mFrameQuotas = new ArrayList<String>();
+
 	/**
 	 * Initialize performance metrics to zero, at system startup.
 	 */
 	public Statistics() {
-		totalTicks = idleTicks = systemTicks = userTicks = 0;
 		numDiskReads = numDiskWrites = 0;
 		numConsoleCharsRead = numConsoleCharsWritten = 0;
 		numPageFaults = numPacketsSent = numPacketsRecvd = 0;
+		numDecodeHits = numDecodeMisses = 0;
+		numCachedBlocks = numCachedBlocksRun = numCachedInstructions = 0;
+		numBatchedInstructions = 0;
+		numTlbHits = numTlbMisses = numTlbFlushes = 0;
+		numSuperPromotions = numSuperDemotions = 0;
+		numPageOuts = 0;
+		numDaemonRuns = numDaemonEvictions = numDaemonCleans = numDaemonRescues = numDirectReclaims = 0;
+		numSwapReads = numPrefetched = numPrefetchHits = 0;
+	}
+
+	/**
+	 * Records the working set size of a process that has finished, as
+	 * sampled by WSClock page replacement.
+	 *
+	 * @param pName
+	 *            the name of the program.
+	 * @param pAverage
+	 *            the average number of pages in its working set.
+	 * @param pPeak
+	 *            the largest number of pages in its working set.
+	 */
+	public static synchronized void recordWorkingSet(String pName, int pAverage, int pPeak) {
+		mWorkingSets.add(pName + ": average " + pAverage + ", peak " + pPeak);
+	}
+
+	/**
+	 * Records the frame quota and fault rate of a process that has finished,
+	 * with local frame allocation.
+	 *
+	 * @param pName
+	 *            the name of the program.
+	 * @param pQuota
+	 *            its quota when it finished.
+	 * @param pPeak
+	 *            its largest quota.
+	 * @param pFaults
+	 *            the page faults it took.
+	 * @param pTicks
+	 *            the user ticks it ran for.
+	 */
+	public static synchronized void recordFrameQuota(String pName, int pQuota, int pPeak, int pFaults, int pTicks) {
+		mFrameQuotas.add(pName + ": quota " + pQuota + ", peak " + pPeak + ", faults " + pFaults + " in " + pTicks
+				+ " ticks");
 	}
 
 	/**
@@ -70,12 +148,63 @@ public class Statistics {
 	 * shutdown.
 	 */
 	public static void Print() {
+		// On a multiprocessor the machine has run for as long as its busiest
+		// CPU; the idle, system and user time is the sum over the CPUs
+		int totalTicks = 0, idleTicks = 0, systemTicks = 0, userTicks = 0;
+		for (int i = 0; i < Machine.getNumCpus(); i++) {
+			Cpu cpu = Machine.getCpu(i);
+			totalTicks = Math.max(totalTicks, cpu.mTotalTicks);
+			idleTicks += cpu.mIdleTicks;
+			systemTicks += cpu.mSystemTicks;
+			userTicks += cpu.mUserTicks;
+		}
+
 		System.out.println("Ticks: total " + totalTicks + ", idle " + idleTicks + ", system " + systemTicks + ", user "
 				+ userTicks);
+		if (Machine.getNumCpus() > 1) {
+			for (int i = 0; i < Machine.getNumCpus(); i++) {
+				Cpu cpu = Machine.getCpu(i);
+				System.out.println("CPU " + i + ": total " + cpu.mTotalTicks + ", idle " + cpu.mIdleTicks + ", system "
+						+ cpu.mSystemTicks + ", user " + cpu.mUserTicks);
+			}
+		}
 
 		System.out.println("Disk I/O: reads " + numDiskReads + ", writes " + numDiskWrites);
 		System.out.println("Console I/O: reads " + numConsoleCharsRead + ", writes " + numConsoleCharsWritten);
-		System.out.println("Paging: faults " + numPageFaults);
+		System.out.println("Paging: faults " + numPageFaults + ", page outs " + numPageOuts + ", swap slots "
+				+ JNachos.swapspace_counter);
+		if (JNachos.getPageReplacementAlgorithm() instanceof CAR) {
+			System.out.println("CAR: target " + ((CAR) JNachos.getPageReplacementAlgorithm()).getTarget() + " of "
+					+ Machine.NumPhysPages + " frames");
+		}
+		for (String workingSet : mWorkingSets) {
+			System.out.println("Working set of " + workingSet);
+		}
+		if (PageDaemon.mEnabled) {
+			System.out.println("Page daemon: watermarks " + PageDaemon.LowWatermark + "/" + PageDaemon.HighWatermark
+					+ ", runs " + numDaemonRuns + ", evictions " + numDaemonEvictions + ", cleaned "
+					+ numDaemonCleans + ", rescued " + numDaemonRescues + ", direct reclaims " + numDirectReclaims);
+		}
+		if (FaultAround.isEnabled()) {
+			System.out.println("Fault-around: window " + FaultAround.Window + ", prefetched " + numPrefetched
+					+ ", used " + numPrefetchHits + " (" + (numPrefetched == 0 ? 0 : 100L * numPrefetchHits / numPrefetched)
+					+ "%), swap reads " + numSwapReads);
+		}
+		for (String frameQuota : mFrameQuotas) {
+			System.out.println("Frames of " + frameQuota);
+		}
+		if (Machine.mUSE_TLB) {
+			System.out.println("TLB: hits " + numTlbHits + ", misses " + numTlbMisses + ", flushes " + numTlbFlushes);
+		}
+		if (Machine.SuperPageSize > 1) {
+			System.out.println("Superpages: promotions " + numSuperPromotions + ", demotions " + numSuperDemotions);
+		}
+		System.out.println("Decode cache: hits " + numDecodeHits + ", misses " + numDecodeMisses);
+		System.out.println("Batched: instructions " + numBatchedInstructions);
+		if (BlockCache.mEnabled) {
+			System.out.println("Block cache: blocks " + numCachedBlocks + ", blocks run " + numCachedBlocksRun
+					+ ", instructions " + numCachedInstructions);
+		}
 
 		System.out.println("Network I/O: packets received " + numPacketsRecvd + ", sent " + numPacketsSent);
 	}
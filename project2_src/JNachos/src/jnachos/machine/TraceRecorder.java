@@ -0,0 +1,203 @@
+package jnachos.machine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records the page reference string of the user programs to a file, for
+ * replaying offline under any page replacement algorithm (see
+ * jnachos.kern.mem.TraceReplay).
+ *
+ * Every translation that succeeds in the MMU is a reference to a virtual page
+ * of the address space running on the CPU. A reference to the same page as
+ * the previous reference on the same CPU is left out, unless it is the first
+ * write after reads, since it can neither fault nor change the state of any
+ * page (the use bit is already set). What is left is typically one record for
+ * every change of page between instruction fetches and data accesses.
+ *
+ * The file starts with three ints: TraceMagic, TraceVersion and the page
+ * size. Then come the records, each an unsigned variable length integer (7
+ * bits a byte, least significant first, the top bit set on every byte but the
+ * last). The low two bits give the kind of record:
+ *
+ * <pre>
+ *   0  a read of the page (value &gt;&gt;&gt; 2)
+ *   1  a write of the page (value &gt;&gt;&gt; 2)
+ *   2  the following records are in the address space with the id
+ *      (value &gt;&gt;&gt; 2)
+ *   3  the current address space has run for (value &gt;&gt;&gt; 3) more user
+ *      ticks; if bit 2 is set, the timer has also sampled the use bits
+ * </pre>
+ *
+ * On a multiprocessor, the references of the CPUs are interleaved in the
+ * order they were made, with a switch of address space between them where
+ * needed.
+ *
+ * Turned on with the -trace command line option.
+ */
+public class TraceRecorder {
+	/** The first int of a trace file. */
+	public static final int TraceMagic = 0x4a4e5452;
+
+	/** The version of the format, the second int of a trace file. */
+	public static final int TraceVersion = 1;
+
+	/** The kinds of record. */
+	public static final int Read = 0;
+	public static final int Write = 1;
+	public static final int Switch = 2;
+	public static final int Time = 3;
+
+	/** Whether or not references are being recorded. */
+	public static boolean mEnabled;
+
+	/** The file the trace is written to. */
+	public static String mTraceFile;
+
+	/** The trace being written. */
+	private static DataOutputStream mOut;
+
+	/** The address space running on each CPU, or -1. */
+	private static int[] mSpace;
+
+	/** The page of the last reference recorded from each CPU, or -1. */
+	private static int[] mLastVpn;
+
+	/** Whether the last reference recorded from each CPU was a write. */
+	private static boolean[] mLastWrite;
+
+	/** The user ticks of each CPU at its last time record. */
+	private static int[] mTicksAt;
+
+	/** The address space of the records being written. */
+	private static int mStreamSpace = -1;
+
+	/**
+	 * Opens the trace file, once the CPUs exist.
+	 */
+	public static synchronized void start() {
+		int cpus = Machine.getNumCpus();
+		mSpace = new int[cpus];
+		mLastVpn = new int[cpus];
+		mLastWrite = new boolean[cpus];
+		mTicksAt = new int[cpus];
+		Arrays.fill(mSpace, -1);
+		Arrays.fill(mLastVpn, -1);
+
+		try {
+			mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTraceFile), 1 << 16));
+			mOut.writeInt(TraceMagic);
+			mOut.writeInt(TraceVersion);
+			mOut.writeInt(Machine.PageSize);
+		} catch (IOException e) {
+			System.out.println("Unable to write trace " + mTraceFile + ": " + e.getMessage());
+			mEnabled = false;
+		}
+	}
+
+	/**
+	 * Records a reference to a page by the address space running on a CPU.
+	 *
+	 * @param pCpu
+	 *            the CPU making the reference.
+	 * @param pVpn
+	 *            the virtual page referenced.
+	 * @param pWriting
+	 *            whether the reference is a write.
+	 */
+	public static void record(Cpu pCpu, int pVpn, boolean pWriting) {
+		int id = pCpu.mId;
+		if (pVpn == mLastVpn[id] && (mLastWrite[id] || !pWriting)) {
+			return;
+		}
+		synchronized (TraceRecorder.class) {
+			mLastVpn[id] = pVpn;
+			mLastWrite[id] = pWriting;
+			inSpace(mSpace[id]);
+			write(((long) pVpn << 2) | (pWriting ? Write : Read));
+		}
+	}
+
+	/**
+	 * Records that an address space is starting to run on a CPU.
+	 *
+	 * @param pCpu
+	 *            the CPU.
+	 * @param pSpace
+	 *            the id of the address space.
+	 */
+	public static synchronized void switchTo(Cpu pCpu, int pSpace) {
+		time(pCpu, false);
+		mSpace[pCpu.mId] = pSpace;
+		mLastVpn[pCpu.mId] = -1;
+	}
+
+	/**
+	 * Records that the timer has sampled the use bits, on a CPU.
+	 *
+	 * @param pCpu
+	 *            the CPU whose timer interrupted.
+	 */
+	public static synchronized void sample(Cpu pCpu) {
+		time(pCpu, true);
+	}
+
+	/**
+	 * Finishes the trace file, when the machine halts.
+	 */
+	public static synchronized void close() {
+		try {
+			mOut.close();
+		} catch (IOException e) {
+			System.out.println("Unable to write trace " + mTraceFile + ": " + e.getMessage());
+		}
+		mEnabled = false;
+	}
+
+	/**
+	 * Writes a time record for the address space running on a CPU, with the
+	 * user ticks it has run since the last one.
+	 */
+	private static void time(Cpu pCpu, boolean pSample) {
+		int id = pCpu.mId;
+		int ticks = pCpu.mUserTicks - mTicksAt[id];
+		mTicksAt[id] = pCpu.mUserTicks;
+		if (mSpace[id] < 0 && !pSample) {
+			return;
+		}
+		if (mSpace[id] >= 0) {
+			inSpace(mSpace[id]);
+		}
+		write(((long) ticks << 3) | (pSample ? 4 : 0) | Time);
+	}
+
+	/**
+	 * Writes a switch record, unless the records are already in the address
+	 * space.
+	 */
+	private static void inSpace(int pSpace) {
+		if (pSpace != mStreamSpace) {
+			mStreamSpace = pSpace;
+			write(((long) pSpace << 2) | Switch);
+		}
+	}
+
+	/**
+	 * Writes one record.
+	 */
+	private static void write(long pValue) {
+		try {
+			while ((pValue & ~0x7fL) != 0) {
+				mOut.write((int) (pValue & 0x7f) | 0x80);
+				pValue >>>= 7;
+			}
+			mOut.write((int) pValue);
+		} catch (IOException e) {
+			System.out.println("Unable to write trace " + mTraceFile + ": " + e.getMessage());
+			mEnabled = false;
+		}
+	}
+}
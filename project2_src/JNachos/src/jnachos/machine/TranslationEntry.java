@@ -8,16 +8,12 @@
 package jnachos.machine;
 
 /**
- * The following class defines an entry in a translation table -- either in a
- * page table or a TLB. Each entry defines a mapping from one virtual page to
+ * The following class defines an entry in a translation table -- a TLB (page
+ * tables are packed into longs instead, see PageTable). Each entry defines a mapping from one virtual page to
  * one physical page. In addition, there are some extra bits for access control
  * (valid and read-only) and some bits for usage information (use and dirty).
  */
 public class TranslationEntry {
-	/* project 2 phase 3 */
-	// add a new element to the entry, called trans_diskmap
-	public int trans_diskmap;
-
 	/** The page number in virtual memory. */
 	public int virtualPage;
 
@@ -47,4 +43,12 @@ public class TranslationEntry {
 	 */
 	public boolean dirty;
 
+	/**
+	 * If this bit is set, the entry maps the aligned run of
+	 * Machine.SuperPageSize virtual pages starting at virtualPage to the run of
+	 * frames starting at physicalPage. The use and dirty bits are shared by
+	 * the whole run.
+	 */
+	public boolean superPage;
+
 }